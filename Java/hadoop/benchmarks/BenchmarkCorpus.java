@@ -0,0 +1,143 @@
+package hadoop.benchmarks;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.hadoop.io.Text;
+
+import hadoop.tools.SyntheticLogGenerator;
+
+/******************************************************************************
+* Builds the deterministic input corpora the benchmarks run against. Rows
+* come from the SyntheticLogGenerator, with a weighted mix of real-world user
+* agents, page URLs and referers and a share of malformed values, so the
+* parsers see the same shape of data they see in production.
+******************************************************************************/
+public class BenchmarkCorpus
+{
+  //Constants
+  public static final int DEFAULT_SIZE = 1024;
+  public static final long SEED = 20141018L;
+  private static final double MALFORMED_RATE = 0.02;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //The most common user agents, roughly in order of traffic share
+  public static final String[] USER_AGENTS = SyntheticLogGenerator.USER_AGENTS;
+
+  /****************************************************************************
+  * Private constructor to emulate a static class.
+  ****************************************************************************/
+  private BenchmarkCorpus()
+  {
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Builds tab-delimited Omniture hit_data rows; roughly one in fifty is
+  * malformed (short row, bad date, bad IP address or bad number).
+  ****************************************************************************/
+  public static Text[] omnitureRows(int count)
+  {
+    SyntheticLogGenerator generator = newGenerator();
+    Text[] rows = new Text[count];
+    for (int row = 0; row < count; row++)
+      rows[row] = new Text(generator.nextOmnitureRow().toString());
+
+    return rows;
+  }
+
+  /****************************************************************************
+  * Builds space-delimited W3C IIS log lines, with the same share of malformed
+  * lines.
+  ****************************************************************************/
+  public static Text[] iisRows(int count)
+  {
+    SyntheticLogGenerator generator = newGenerator();
+    Text[] rows = new Text[count];
+    for (int row = 0; row < count; row++)
+      rows[row] = new Text(generator.nextIisRow().toString());
+
+    return rows;
+  }
+
+  /****************************************************************************
+  * Gets the UTF-8 bytes of each string.
+  ****************************************************************************/
+  public static byte[][] toBytes(String[] values)
+  {
+    byte[][] bytes = new byte[values.length][];
+    for (int index = 0; index < values.length; index++)
+      bytes[index] = values[index].getBytes(UTF8);
+
+    return bytes;
+  }
+
+  /****************************************************************************
+  * Builds "yyyy-MM-dd HH:mm:ss" timestamps in time order.
+  ****************************************************************************/
+  public static String[] dates(int count)
+  {
+    Random random = new Random(SEED);
+    String[] dates = new String[count];
+    long hitTime = 1413590400000L;
+    for (int index = 0; index < count; index++)
+    {
+      hitTime += random.nextInt(1500);
+      dates[index] = formatDate(hitTime);
+    }
+
+    return dates;
+  }
+
+  /****************************************************************************
+  * Builds numeric strings of the kinds found in the feeds, with one in ten
+  * invalid.
+  ****************************************************************************/
+  public static String[] numbers(int count, boolean decimals)
+  {
+    Random random = new Random(SEED);
+    String[] numbers = new String[count];
+    for (int index = 0; index < count; index++)
+    {
+      if (random.nextInt(10) == 0)
+        numbers[index] = random.nextBoolean() ? "" : "n/a";
+      else if (decimals)
+        numbers[index] = random.nextInt(100) + "." + random.nextInt(1000);
+      else
+        numbers[index] = String.valueOf(random.nextInt(100000));
+    }
+
+    return numbers;
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Formats epoch milliseconds as "yyyy-MM-dd HH:mm:ss" in UTC.
+  ****************************************************************************/
+  private static String formatDate(long epochMillis)
+  {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(epochMillis));
+  }
+
+  /****************************************************************************
+  * Creates a generator with the corpus seed, a small site and a high share of
+  * malformed rows so the error paths are measured too.
+  ****************************************************************************/
+  private static SyntheticLogGenerator newGenerator()
+  {
+    SyntheticLogGenerator generator = new SyntheticLogGenerator(SEED);
+    generator.setMalformedRate(MALFORMED_RATE);
+    generator.setPageCount(1000);
+    generator.setVisitorCount(5000);
+    return generator;
+  }
+}
\ No newline at end of file
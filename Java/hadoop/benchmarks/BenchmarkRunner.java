@@ -0,0 +1,44 @@
+package hadoop.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/******************************************************************************
+* Runs the benchmarks with the GC profiler attached, so allocation per
+* operation is reported next to the timings, and writes the results as JSON
+* for comparison against an earlier baseline.
+*
+* Usage: BenchmarkRunner [benchmark regex] [results file]
+******************************************************************************/
+public class BenchmarkRunner
+{
+  //Constants
+  private static final String DEFAULT_INCLUDE = "hadoop\\.benchmarks\\..*Benchmark";
+  private static final String DEFAULT_RESULTS = "benchmark-results.json";
+
+  /****************************************************************************
+  * Private constructor to emulate a static class.
+  ****************************************************************************/
+  private BenchmarkRunner()
+  {
+  }
+
+  /****************************************************************************
+  * Runs the benchmarks matching the optional regex.
+  ****************************************************************************/
+  public static void main(String[] args) throws RunnerException
+  {
+    Options options = new OptionsBuilder()
+      .include(args.length > 0 ? args[0] : DEFAULT_INCLUDE)
+      .addProfiler(GCProfiler.class)
+      .resultFormat(ResultFormatType.JSON)
+      .result(args.length > 1 ? args[1] : DEFAULT_RESULTS)
+      .build();
+
+    new Runner(options).run();
+  }
+}
\ No newline at end of file
@@ -0,0 +1,255 @@
+package hadoop.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import hadoop.mapreduce.omniture.ClickStream;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.web.IisLogs;
+import hadoop.mapreduce.web.models.ClientStatistics;
+
+/******************************************************************************
+* Runs the ClickStream and IisLogs Mappers in-process over the benchmark
+* corpora, through the same Mapper.run() loop Hadoop uses, against a Context
+* whose output is sent to a JMH Blackhole. The reported score is the average
+* time per input record, including setup() and cleanup() amortized over the
+* corpus. The Contexts are built once per trial; building one copies the
+* Configuration into a JobConf, which would otherwise swamp the Mappers.
+******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MapperBenchmark
+{
+  //Constants
+  private static final int SIZE = BenchmarkCorpus.DEFAULT_SIZE;
+
+  //The corpora
+  private Configuration configuration;
+  private LongWritable[] offsets;
+  private Text[] omnitureRows;
+  private Text[] iisRows;
+
+  //The in-process task plumbing, reused across invocations
+  private ArrayRecordReader clickStreamInput;
+  private BlackholeRecordWriter<NullWritable, Visit> clickStreamOutput;
+  private MapContext<LongWritable, Text, NullWritable, Visit> clickStreamContext;
+  private ArrayRecordReader iisLogsInput;
+  private BlackholeRecordWriter<ClientStatistics, IntWritable> iisLogsOutput;
+  private MapContext<LongWritable, Text, ClientStatistics, IntWritable> iisLogsContext;
+
+  /****************************************************************************
+  * Builds the corpora and the Contexts the Mappers run against.
+  ****************************************************************************/
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    configuration = new Configuration();
+    omnitureRows = BenchmarkCorpus.omnitureRows(SIZE);
+    iisRows = BenchmarkCorpus.iisRows(SIZE);
+
+    offsets = new LongWritable[SIZE];
+    for (int index = 0; index < SIZE; index++)
+      offsets[index] = new LongWritable(index);
+
+    clickStreamInput = new ArrayRecordReader(offsets, omnitureRows);
+    clickStreamOutput = new BlackholeRecordWriter<NullWritable, Visit>();
+    clickStreamContext = createContext(clickStreamInput, clickStreamOutput);
+    iisLogsInput = new ArrayRecordReader(offsets, iisRows);
+    iisLogsOutput = new BlackholeRecordWriter<ClientStatistics, IntWritable>();
+    iisLogsContext = createContext(iisLogsInput, iisLogsOutput);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void clickStreamMap(Blackhole blackhole) throws IOException, InterruptedException
+  {
+    clickStreamInput.reset();
+    clickStreamOutput.setBlackhole(blackhole);
+    run(new ClickStream.Map(), clickStreamContext);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void iisLogsMap(Blackhole blackhole) throws IOException, InterruptedException
+  {
+    iisLogsInput.reset();
+    iisLogsOutput.setBlackhole(blackhole);
+    run(new IisLogs.Map(), iisLogsContext);
+  }
+
+  /****************************************************************************
+  * Builds a Context that reads the rows and writes to the Blackhole.
+  ****************************************************************************/
+  private <KEYOUT, VALUEOUT> MapContext<LongWritable, Text, KEYOUT, VALUEOUT> createContext(ArrayRecordReader input, BlackholeRecordWriter<KEYOUT, VALUEOUT> output)
+  {
+    return new MapContextImpl<LongWritable, Text, KEYOUT, VALUEOUT>(configuration,
+      new TaskAttemptID(),
+      input,
+      output,
+      null,
+      new CountingStatusReporter(),
+      null);
+  }
+
+  /****************************************************************************
+  * Runs the Mapper over the Context's rows.
+  ****************************************************************************/
+  private <KEYOUT, VALUEOUT> void run(Mapper<LongWritable, Text, KEYOUT, VALUEOUT> mapper, MapContext<LongWritable, Text, KEYOUT, VALUEOUT> mapContext) throws IOException, InterruptedException
+  {
+    mapper.run(new WrappedMapper<LongWritable, Text, KEYOUT, VALUEOUT>().getMapContext(mapContext));
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Feeds the corpus to the Mapper.
+  ****************************************************************************/
+  private static final class ArrayRecordReader extends RecordReader<LongWritable, Text>
+  {
+    private final LongWritable[] keys;
+    private final Text[] values;
+    private int index = -1;
+
+    ArrayRecordReader(LongWritable[] keys, Text[] values)
+    {
+      this.keys = keys;
+      this.values = values;
+    }
+
+    void reset()
+    {
+      index = -1;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context)
+    {
+    }
+
+    @Override
+    public boolean nextKeyValue()
+    {
+      return ++index < values.length;
+    }
+
+    @Override
+    public LongWritable getCurrentKey()
+    {
+      return keys[index];
+    }
+
+    @Override
+    public Text getCurrentValue()
+    {
+      return values[index];
+    }
+
+    @Override
+    public float getProgress()
+    {
+      return (float)(index + 1) / values.length;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /****************************************************************************
+  * Sends the Mapper's output to the Blackhole so it can't be optimized away.
+  ****************************************************************************/
+  private static final class BlackholeRecordWriter<K, V> extends RecordWriter<K, V>
+  {
+    private Blackhole blackhole;
+
+    void setBlackhole(Blackhole blackhole)
+    {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(K key, V value)
+    {
+      blackhole.consume(key);
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context)
+    {
+    }
+  }
+
+  /****************************************************************************
+  * Keeps the counters the Mappers report.
+  ****************************************************************************/
+  private static final class CountingStatusReporter extends StatusReporter
+  {
+    private final Counters counters = new Counters();
+
+    @Override
+    public Counter getCounter(Enum<?> name)
+    {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counter getCounter(String group, String name)
+    {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void progress()
+    {
+    }
+
+    @Override
+    public float getProgress()
+    {
+      return 0;
+    }
+
+    @Override
+    public void setStatus(String status)
+    {
+    }
+  }
+}
\ No newline at end of file
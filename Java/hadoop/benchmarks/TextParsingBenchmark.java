@@ -0,0 +1,172 @@
+package hadoop.benchmarks;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import hadoop.platform.TextParsing;
+import hadoop.platform.TimestampParser;
+import hadoop.platform.UserAgentClassifier;
+
+/******************************************************************************
+* Measures the per-value cost of the TextParsing helpers the Mappers call for
+* every record. Each benchmark walks the whole corpus once per invocation, so
+* the reported score is the average time per value.
+******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TextParsingBenchmark
+{
+  //Constants
+  private static final int SIZE = BenchmarkCorpus.DEFAULT_SIZE;
+
+  //The corpora
+  private String[] dates;
+  private byte[][] dateBytes;
+  private String[] decimals;
+  private byte[][] decimalBytes;
+  private String[] integers;
+  private byte[][] integerBytes;
+  private String[] userAgents;
+  private byte[][] userAgentBytes;
+  private TimestampParser timestampParser;
+
+  /****************************************************************************
+  * Builds the corpora; user agents are repeated in their skewed traffic mix.
+  ****************************************************************************/
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    dates = BenchmarkCorpus.dates(SIZE);
+    dateBytes = BenchmarkCorpus.toBytes(dates);
+    decimals = BenchmarkCorpus.numbers(SIZE, true);
+    decimalBytes = BenchmarkCorpus.toBytes(decimals);
+    integers = BenchmarkCorpus.numbers(SIZE, false);
+    integerBytes = BenchmarkCorpus.toBytes(integers);
+
+    userAgents = new String[SIZE];
+    Random random = new Random(BenchmarkCorpus.SEED);
+    for (int index = 0; index < SIZE; index++)
+      userAgents[index] = BenchmarkCorpus.USER_AGENTS[(int)(BenchmarkCorpus.USER_AGENTS.length * Math.pow(random.nextDouble(), 2.5))];
+
+    userAgentBytes = BenchmarkCorpus.toBytes(userAgents);
+    timestampParser = new TimestampParser(TimeZone.getTimeZone("UTC"));
+  }
+
+  //###########################################################################
+  // User Agents
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseUserAgentCached(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.parseUserAgent(userAgentBytes[index], 0, userAgentBytes[index].length));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseUserAgentUncached(Blackhole blackhole)
+  {
+    UserAgentClassifier classifier = UserAgentClassifier.getDefault();
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(classifier.classify(userAgentBytes[index], 0, userAgentBytes[index].length));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseUserAgentMap(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.parseUserAgent(userAgents[index]));
+  }
+
+  //###########################################################################
+  // Dates
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void tryParseDate(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.tryParseDate("yyyy-MM-dd HH:mm:ss", dates[index]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void timestampParser(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(timestampParser.parse(dateBytes[index], 0, dateBytes[index].length));
+  }
+
+  //###########################################################################
+  // Numbers
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void tryParseInt(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.tryParseInt(integers[index]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseIntBytes(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.parseInt(integerBytes[index], 0, integerBytes[index].length, Integer.MIN_VALUE));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void tryParseFloat(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.tryParseFloat(decimals[index]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseDoubleBytes(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(TextParsing.parseDouble(decimalBytes[index], 0, decimalBytes[index].length));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void jdkParseDouble(Blackhole blackhole)
+  {
+    for (int index = 0; index < SIZE; index++)
+    {
+      try
+      {
+        blackhole.consume(Double.parseDouble(decimals[index]));
+      }
+      catch (NumberFormatException nfe)
+      {
+        blackhole.consume(nfe);
+      }
+    }
+  }
+}
\ No newline at end of file
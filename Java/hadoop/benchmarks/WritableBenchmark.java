@@ -0,0 +1,237 @@
+package hadoop.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import hadoop.mapreduce.omniture.models.Location;
+import hadoop.mapreduce.omniture.models.PageHit;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.web.models.ClientStatistics;
+import hadoop.platform.IpAddress;
+
+/******************************************************************************
+* Measures the serialization cost of the Writable models: a write() and
+* readFields() round trip through Hadoop's own buffers, the serialized size,
+* compareTo() on deserialized objects, and the registered raw comparators on
+* the serialized bytes as the sort would call them.
+******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class WritableBenchmark
+{
+  //Constants
+  private static final int SIZE = BenchmarkCorpus.DEFAULT_SIZE;
+  private static final String[] BROWSERS = new String[] { "Chrome", "Safari", "Internet Explorer", "Firefox", "Edge" };
+  private static final String[] OPERATING_SYSTEMS = new String[] { "Windows NT", "iOS", "Android", "Mac OS X", "Linux" };
+  private static final String[] PAGES = new String[] { "home", "search", "listings", "listing-detail", "contact" };
+  private static final String[] STATES = new String[] { "TX", "CA", "NY", "FL", "IL" };
+
+  //The corpora
+  private ClientStatistics[] clientStatistics;
+  private Location[] locations;
+  private Visit[] visits;
+
+  //The corpora serialized back to back, as the sort buffer holds them
+  private byte[] clientStatisticsBytes;
+  private int[] clientStatisticsOffsets;
+  private byte[] visitBytes;
+  private int[] visitOffsets;
+
+  //Reused across invocations, as a Mapper or Reducer would
+  private DataInputBuffer inputBuffer;
+  private DataOutputBuffer outputBuffer;
+  private ClientStatistics clientStatisticsTarget;
+  private Location locationTarget;
+  private Visit visitTarget;
+  private WritableComparator clientStatisticsComparator;
+  private WritableComparator pageHitComparator;
+
+  /****************************************************************************
+  * Builds the corpora.
+  ****************************************************************************/
+  @Setup(Level.Trial)
+  public void setup() throws IOException
+  {
+    Random random = new Random(BenchmarkCorpus.SEED);
+    clientStatistics = new ClientStatistics[SIZE];
+    locations = new Location[SIZE];
+    visits = new Visit[SIZE];
+    long hitTime = 1413590400000L;
+
+    for (int index = 0; index < SIZE; index++)
+    {
+      String state = STATES[random.nextInt(STATES.length)];
+      String page = PAGES[random.nextInt(PAGES.length)];
+      IpAddress ipAddress = new IpAddress();
+      ipAddress.setIpV4(0x0A000000 | random.nextInt(0xFFFFFF));
+      hitTime += random.nextInt(3000);
+
+      clientStatistics[index] = new ClientStatistics(BROWSERS[random.nextInt(BROWSERS.length)],
+        random.nextInt(60) + random.nextInt(10) / 10f,
+        OPERATING_SYSTEMS[random.nextInt(OPERATING_SYSTEMS.length)],
+        random.nextInt(11) + random.nextInt(10) / 10f,
+        "https://www.example.com/" + page);
+
+      locations[index] = new Location(String.valueOf(10000 + random.nextInt(89999)), "County " + random.nextInt(50), state, "City " + random.nextInt(500), state);
+      visits[index] = new Visit(hitTime,
+        ipAddress,
+        "http://www.example.com/" + page + "?Intent=Rent",
+        "https://www.google.com/",
+        BROWSERS[random.nextInt(BROWSERS.length)] + " " + random.nextInt(60),
+        page,
+        1 + random.nextInt(20),
+        Long.toHexString(random.nextLong()),
+        "SEO",
+        1 + random.nextInt(5),
+        page,
+        "rent",
+        locations[index]);
+    }
+
+    inputBuffer = new DataInputBuffer();
+    outputBuffer = new DataOutputBuffer();
+    clientStatisticsTarget = new ClientStatistics();
+    locationTarget = new Location();
+    visitTarget = new Visit();
+
+    clientStatisticsOffsets = new int[SIZE + 1];
+    clientStatisticsBytes = serialize(clientStatistics, clientStatisticsOffsets);
+    visitOffsets = new int[SIZE + 1];
+    visitBytes = serialize(visits, visitOffsets);
+
+    //Visits share PageHit's leading layout, so the PageHit comparator (the one
+    //registered for Visit) reads them directly
+    clientStatisticsComparator = new ClientStatistics.Comparator();
+    pageHitComparator = new PageHit.Comparator();
+  }
+
+  //###########################################################################
+  // Round Trips
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void clientStatisticsRoundTrip(Blackhole blackhole) throws IOException
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(roundTrip(clientStatistics[index], clientStatisticsTarget));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void locationRoundTrip(Blackhole blackhole) throws IOException
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(roundTrip(locations[index], locationTarget));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void visitRoundTrip(Blackhole blackhole) throws IOException
+  {
+    for (int index = 0; index < SIZE; index++)
+      blackhole.consume(roundTrip(visits[index], visitTarget));
+  }
+
+  //###########################################################################
+  // Comparisons
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void clientStatisticsCompareTo(Blackhole blackhole)
+  {
+    for (int index = 1; index <= SIZE; index++)
+      blackhole.consume(clientStatistics[index - 1].compareTo(clientStatistics[index % SIZE]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void visitCompareTo(Blackhole blackhole)
+  {
+    for (int index = 1; index <= SIZE; index++)
+      blackhole.consume(visits[index - 1].compareTo(visits[index % SIZE]));
+  }
+
+  //###########################################################################
+  // Raw Comparisons
+  //###########################################################################
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void clientStatisticsRawCompare(Blackhole blackhole)
+  {
+    for (int index = 1; index <= SIZE; index++)
+      blackhole.consume(rawCompare(clientStatisticsComparator, clientStatisticsBytes, clientStatisticsOffsets, index - 1, index % SIZE));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void pageHitRawCompare(Blackhole blackhole)
+  {
+    for (int index = 1; index <= SIZE; index++)
+      blackhole.consume(rawCompare(pageHitComparator, visitBytes, visitOffsets, index - 1, index % SIZE));
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Compares two records serialized by serialize() with a raw comparator.
+  ****************************************************************************/
+  private static int rawCompare(WritableComparator comparator, byte[] bytes, int[] offsets, int left, int right)
+  {
+    return comparator.compare(bytes, offsets[left], offsets[left + 1] - offsets[left], bytes, offsets[right], offsets[right + 1] - offsets[right]);
+  }
+
+  /****************************************************************************
+  * Serializes the source and reads it back into the target; returns the
+  * serialized size in bytes.
+  ****************************************************************************/
+  private int roundTrip(Writable source, Writable target) throws IOException
+  {
+    outputBuffer.reset();
+    source.write(outputBuffer);
+    inputBuffer.reset(outputBuffer.getData(), outputBuffer.getLength());
+    target.readFields(inputBuffer);
+    return outputBuffer.getLength();
+  }
+
+  /****************************************************************************
+  * Writes the records back to back into one array; offsets[i] is where
+  * record i starts and offsets[records.length] is where the last one ends.
+  ****************************************************************************/
+  private byte[] serialize(Writable[] records, int[] offsets) throws IOException
+  {
+    outputBuffer.reset();
+    for (int index = 0; index < records.length; index++)
+    {
+      offsets[index] = outputBuffer.getLength();
+      records[index].write(outputBuffer);
+    }
+
+    offsets[records.length] = outputBuffer.getLength();
+    return Arrays.copyOf(outputBuffer.getData(), outputBuffer.getLength());
+  }
+}
\ No newline at end of file
@@ -3,7 +3,6 @@ package hadoop.mapreduce.omniture;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -13,23 +12,45 @@ import org.apache.commons.logging.LogFactory;
 
 //import com.hadoop.mapreduce.LzoTextInputFormat;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
 import org.apache.hadoop.mapreduce.lib.jobcontrol.JobControl;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import hadoop.mapreduce.omniture.formats.ColumnarVisitInputFormat;
+import hadoop.mapreduce.omniture.formats.ColumnarVisitOutputFormat;
+import hadoop.mapreduce.omniture.formats.DictionaryVisitOutputFormat;
 import hadoop.mapreduce.omniture.models.*;
-import platform.TextParsing;
+import hadoop.platform.BlockGzipTextInputFormat;
+import hadoop.platform.FieldTokenizer;
+import hadoop.platform.HyperLogLog;
+import hadoop.platform.IncrementalInputTracker;
+import hadoop.platform.IpAddress;
+import hadoop.platform.LocalExecutionEngine;
+import hadoop.platform.QueryStringScanner;
+import hadoop.platform.TextParsing;
+import hadoop.platform.TimestampParser;
+import hadoop.platform.UserAgent;
+import hadoop.platform.UserAgentCache;
 
 /******************************************************************************
 * Parses the Omniture click-stream data and extracts information from columns
@@ -57,7 +78,19 @@ public class ClickStream
   private static final int COLUMN_PAGE_SEQUENCE = 109;
   private static final int COLUMN_GEOCITY = 111;
   private static final int COLUMN_GEOSTATE = 113;
-  private static final String OMNITURE_DATE = "yyyy-MM-dd HH:mm:ss";
+  
+  //Page URL query string parameters, in the order given to the scanner
+  private static final String[] QUERY_PARAMETERS = new String[] { "intent", "utm_source", "utm_medium", "utm_campaign", "utm_term", "utm_content" };
+  private static final int PARAMETER_INTENT = 0;
+  private static final int PARAMETER_CAMPAIGN_SOURCE = 1;
+  private static final int PARAMETER_CAMPAIGN_MEDIUM = 2;
+  private static final int PARAMETER_CAMPAIGN_NAME = 3;
+  private static final int PARAMETER_CAMPAIGN_TERM = 4;
+  private static final int PARAMETER_CAMPAIGN_CONTENT = 5;
+
+  //Whether a -fused run's Mapper feeds Sessionization rather than the jobs
+  //that read sessions
+  private static final String FUSED_SESSIONIZE = "omniture.clickstream.fused.sessionize";
   
   //An instance of Log4J, alternatively logging can be done to the console
   //using System.err.println() and System.out.println() for logging output
@@ -70,70 +103,142 @@ public class ClickStream
   public static class Map extends Mapper<LongWritable, Text, NullWritable, Visit>
   {
     //Object creation/destruction are expensive; instantiate objects here
-    private String visitorIntent = "";
+    private FieldTokenizer dataColumns = new FieldTokenizer('\t', COLUMN_GEOSTATE);
+    private TimestampParser hitDates = new TimestampParser();
     private Visit visitData = new Visit();
     private Location visitorLocation = new Location();
+    private IpAddress visitorIpAddress = new IpAddress();
+    private QueryStringScanner pageParameters = new QueryStringScanner(QUERY_PARAMETERS);
+    private Counter incompleteRecords;
+    private Counter invalidDates;
+    private Counter invalidInts;
+    private Counter invalidIpAddresses;
+
+    /**************************************************************************
+    * Looks up the counters bad values are reported through.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<LongWritable, Text, NullWritable, Visit>.Context context) throws IOException, InterruptedException
+    {
+      incompleteRecords = context.getCounter(TextParsing.ParseFailures.INCOMPLETE_RECORD);
+      invalidDates = context.getCounter(TextParsing.ParseFailures.INVALID_DATE);
+      invalidInts = context.getCounter(TextParsing.ParseFailures.INVALID_INT);
+      invalidIpAddresses = context.getCounter(TextParsing.ParseFailures.INVALID_IP_ADDRESS);
+    }
 
     public void map(LongWritable key, Text value, Mapper<LongWritable, Text, NullWritable, Visit>.Context context) throws IOException, InterruptedException
     {
-      //Read the line of text and split it into columns by tabs
-      String[] dataColumns = value.toString().split("\t");
+      //Find the column offsets in the line of text, only as far as the last
+      //column needed
+      dataColumns.tokenize(value);
 
-      try
+      //Parse the hit date once; it's validated and stored from here
+      long hitTime = parseHitTime(dataColumns);
+      
+      //Validate required fields
+      if (hasRequiredFields(dataColumns, hitTime))
       {
-        //Make sure the page URL is forced lower-case
-        String pageUrl = dataColumns[COLUMN_PAGE_URL].toLowerCase();
-        
-        //Validate required fields
-        if (hasRequiredFields(dataColumns))
-        {
-          //Populate the objects and write the output
-          parseVisitorLocation(dataColumns);
-          parsePageHit(dataColumns, pageUrl);
+        //Populate the objects and write the output
+        parseVisitorLocation(dataColumns);
+        parsePageHit(dataColumns, hitTime);
+        parsePageParameters(dataColumns);
 
-          context.write(NullWritable.get(), visitData);
-        }
-        else
-          context.progress();
+        context.write(NullWritable.get(), visitData);
       }
-      catch (ArrayIndexOutOfBoundsException aiobe)
-      {
-        //Incomplete data, just report progress
-        LOG.warn("Incomplete record in Omniture data: " + value.toString(), aiobe);
+      else
         context.progress();
-      }
+    }
+
+    /**************************************************************************
+    * Reports the user agent cache statistics once the task is done.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<LongWritable, Text, NullWritable, Visit>.Context context) throws IOException, InterruptedException
+    {
+      UserAgentCache.reportCounters(context);
     }
 
     /**************************************************************************
     * Ensures required fields are populated with valid data.
     ***************************************************************************/
-    private boolean hasRequiredFields(String[] dataColumns)
+    private boolean hasRequiredFields(FieldTokenizer dataColumns, long hitTime)
     {
-      Date hitDate = TextParsing.tryParseDate(OMNITURE_DATE, dataColumns[COLUMN_HIT_DATE]);
-      if (hitDate == null)
+      //Records cut short before the last required column are incomplete
+      if (!dataColumns.hasColumn(COLUMN_PAGE_SEQUENCE))
+      {
+        incompleteRecords.increment(1);
+        return false;
+      }
+      else if (hitTime == TimestampParser.INVALID)
         return false;
-      else if (TextParsing.isNullOrEmpty(dataColumns[COLUMN_IP_ADDRESS]))
+      else if (dataColumns.isEmpty(COLUMN_IP_ADDRESS))
         return false;
-      else if (TextParsing.isNullOrEmpty(dataColumns[COLUMN_PAGE_URL]))
+      else if (dataColumns.isEmpty(COLUMN_PAGE_URL))
         return false;
-      else if (TextParsing.isNullOrEmpty(dataColumns[COLUMN_USER_AGENT]))
+      else if (dataColumns.isEmpty(COLUMN_USER_AGENT))
         return false;
       
       return true;
     }
    
+    /**************************************************************************
+    * Parses the "yyyy-MM-dd HH:mm:ss" hit date straight from the raw bytes.
+    **************************************************************************/
+    private long parseHitTime(FieldTokenizer dataColumns)
+    {
+      if (dataColumns.isEmpty(COLUMN_HIT_DATE))
+        return TimestampParser.INVALID;
+      
+      long hitTime = hitDates.parse(dataColumns.getBytes(), dataColumns.getStart(COLUMN_HIT_DATE), dataColumns.getLength(COLUMN_HIT_DATE));
+      if (hitTime == TimestampParser.INVALID)
+        invalidDates.increment(1);
+      
+      return hitTime;
+    }
+   
+    /**************************************************************************
+    * Parses an integer column straight from the raw bytes; empty or invalid
+    * values become 0, and invalid ones are counted.
+    **************************************************************************/
+    private int parseInt(FieldTokenizer dataColumns, int column)
+    {
+      if (dataColumns.isEmpty(column))
+        return 0;
+      
+      int value = TextParsing.parseInt(dataColumns.getBytes(), dataColumns.getStart(column), dataColumns.getLength(column), Integer.MIN_VALUE);
+      if (value == Integer.MIN_VALUE)
+      {
+        invalidInts.increment(1);
+        return 0;
+      }
+      
+      return value;
+    }
+   
+    /**************************************************************************
+    * Parses the visitor's IP address into its binary form; addresses that
+    * can't be parsed (e.g. obfuscated ones) are counted and left empty.
+    **************************************************************************/
+    private IpAddress parseIpAddress(FieldTokenizer dataColumns)
+    {
+      if (!visitorIpAddress.parse(dataColumns.getBytes(), dataColumns.getStart(COLUMN_IP_ADDRESS), dataColumns.getLength(COLUMN_IP_ADDRESS)))
+        invalidIpAddresses.increment(1);
+      
+      return visitorIpAddress;
+    }
+   
     /**************************************************************************
     * Parses the visitor's location.
     **************************************************************************/
-    private void parseVisitorLocation(String[] dataColumns)
+    private void parseVisitorLocation(FieldTokenizer dataColumns)
     {
-      if (dataColumns.length >= COLUMN_GEOSTATE)
+      if (dataColumns.hasColumn(COLUMN_GEOSTATE))
       {
-        visitorLocation.set(dataColumns[COLUMN_ZIP_CODE],
-          dataColumns[COLUMN_COUNTY],
-          dataColumns[COLUMN_STATE],
-          dataColumns[COLUMN_GEOCITY],
-          dataColumns[COLUMN_GEOSTATE]);
+        visitorLocation.set(dataColumns.getString(COLUMN_ZIP_CODE),
+          dataColumns.getString(COLUMN_COUNTY),
+          dataColumns.getString(COLUMN_STATE),
+          dataColumns.getString(COLUMN_GEOCITY),
+          dataColumns.getString(COLUMN_GEOSTATE));
       }
       else
         visitorLocation.set("", "", "", "", "");      
@@ -142,39 +247,207 @@ public class ClickStream
     /**************************************************************************
     * Parses basic information about a page hit.
     **************************************************************************/
-    private void parsePageHit(String[] dataColumns, String pageUrl)
+    private void parsePageHit(FieldTokenizer dataColumns, long hitTime)
     {
-      //Get the visitor's intent
-      int intentIndex = pageUrl.indexOf("intent="); 
-      if (intentIndex > -1)
+      UserAgent browserInfo = TextParsing.parseUserAgent(dataColumns.getBytes(), dataColumns.getStart(COLUMN_USER_AGENT), dataColumns.getLength(COLUMN_USER_AGENT));
+      
+      visitData.set(hitTime,
+        parseIpAddress(dataColumns),
+        dataColumns.getString(COLUMN_PAGE_URL),
+        dataColumns.getString(COLUMN_REFERER),
+        browserInfo.getBrowserLabel(),
+        dataColumns.getString(COLUMN_PAGE_NAME),
+        parseInt(dataColumns, COLUMN_PAGE_SEQUENCE),
+        dataColumns.getString(COLUMN_SESSION_ID),
+        dataColumns.getString(COLUMN_TRAFFIC_SOURCE),
+        parseInt(dataColumns, COLUMN_VISIT_NUMBER),
+        dataColumns.getString(COLUMN_SECTION),
+        "",
+        visitorLocation);
+    }
+
+    /**************************************************************************
+    * Extracts the visitor's intent and the campaign parameters from the page
+    * URL's query string; parameters missing from the URL are left empty.
+    **************************************************************************/
+    private void parsePageParameters(FieldTokenizer dataColumns)
+    {
+      pageParameters.scan(dataColumns.getBytes(), dataColumns.getStart(COLUMN_PAGE_URL), dataColumns.getLength(COLUMN_PAGE_URL));
+      
+      //Intent has always been reported lower-case
+      visitData.setIntent(pageParameters.getString(PARAMETER_INTENT).toLowerCase());
+      visitData.setCampaignSource(pageParameters.getString(PARAMETER_CAMPAIGN_SOURCE));
+      visitData.setCampaignMedium(pageParameters.getString(PARAMETER_CAMPAIGN_MEDIUM));
+      visitData.setCampaignName(pageParameters.getString(PARAMETER_CAMPAIGN_NAME));
+      visitData.setCampaignTerm(pageParameters.getString(PARAMETER_CAMPAIGN_TERM));
+      visitData.setCampaignContent(pageParameters.getString(PARAMETER_CAMPAIGN_CONTENT));
+    }
+  }
+
+  /****************************************************************************
+  * The Mapper of a -fused run. Each record is parsed once and the Visit goes
+  * straight to the Mappers of the jobs that read Visits; each one's output is
+  * written to the named output of its job, in a directory named after the
+  * job, for that job to shuffle to its Reducer. LeadReferrals' attribution
+  * job shuffles the same hits as VisitorPathing, so it reads that output.
+  ****************************************************************************/
+  public static class FusedMap extends Mapper<LongWritable, Text, NullWritable, NullWritable>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private Map parser = new Map();
+    private Mapper<LongWritable, Text, NullWritable, Visit>.Context parserContext;
+    private UniqueVisitors.Map visitorMap = new UniqueVisitors.Map();
+    private Mapper<NullWritable, Visit, Text, HyperLogLog>.Context visitorContext;
+    private VisitorPathing.Map pathMap = new VisitorPathing.Map();
+    private Mapper<NullWritable, Visit, Visit, NullWritable>.Context pathContext;
+    private Sessionization.Map sessionMap = new Sessionization.Map();
+    private Mapper<NullWritable, Visit, VisitorKey, Visit>.Context sessionContext;
+    private MultipleOutputs<NullWritable, NullWritable> outputs;
+    private boolean sessionize;
+
+    /**************************************************************************
+    * Sets up the parser and the Mappers it feeds; with -sessionize, that's
+    * only Sessionization's.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context) throws IOException, InterruptedException
+    {
+      outputs = new MultipleOutputs<NullWritable, NullWritable>(context);
+      sessionize = context.getConfiguration().getBoolean(FUSED_SESSIONIZE, false);
+      if (sessionize)
+        sessionContext = createOutputContext(context, Sessionization.class);
+      else
       {
-        int nextParameterIndex = pageUrl.indexOf('&', intentIndex);
-        if (nextParameterIndex == -1)
-          visitorIntent = pageUrl.substring(intentIndex + 7);
-        else
-          visitorIntent = pageUrl.substring(intentIndex + 7, nextParameterIndex);
+        visitorContext = createOutputContext(context, UniqueVisitors.class);
+        pathContext = createOutputContext(context, VisitorPathing.class);
+        visitorMap.setup(visitorContext);
       }
 
-      java.util.Map<String, String> browserInfo = TextParsing.parseUserAgent(dataColumns[COLUMN_USER_AGENT]);
-      
-      visitData.set(TextParsing.tryParseDate(OMNITURE_DATE, dataColumns[COLUMN_HIT_DATE]),
-        dataColumns[COLUMN_IP_ADDRESS],
-        dataColumns[COLUMN_PAGE_URL],
-        dataColumns[COLUMN_REFERER],
-        browserInfo.get("Browser") + " " + browserInfo.get("Browser Version"),
-        dataColumns[COLUMN_PAGE_NAME],
-        TextParsing.tryParseInt(dataColumns[COLUMN_PAGE_SEQUENCE]),
-        dataColumns[COLUMN_SESSION_ID],
-        dataColumns[COLUMN_TRAFFIC_SOURCE],
-        TextParsing.tryParseInt(dataColumns[COLUMN_VISIT_NUMBER]),
-        dataColumns[COLUMN_SECTION],
-        visitorIntent,
-        visitorLocation);
+      parserContext = createContext(context, new RecordWriter<NullWritable, Visit>()
+      {
+        @Override
+        public void write(NullWritable key, Visit value) throws IOException, InterruptedException
+        {
+          writeVisit(key, value);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context)
+        {
+        }
+      });
+      parser.setup(parserContext);
+    }
+
+    public void map(LongWritable key, Text value, Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context) throws IOException, InterruptedException
+    {
+      parser.map(key, value, parserContext);
+    }
+
+    /**************************************************************************
+    * Flushes what the Mappers aggregated and closes the named outputs.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context) throws IOException, InterruptedException
+    {
+      parser.cleanup(parserContext);
+      if (!sessionize)
+        visitorMap.cleanup(visitorContext);
+
+      outputs.close();
+    }
+
+    /**************************************************************************
+    * Hands a parsed Visit to each of the Mappers.
+    **************************************************************************/
+    private void writeVisit(NullWritable key, Visit value) throws IOException, InterruptedException
+    {
+      if (sessionize)
+        sessionMap.map(key, value, sessionContext);
+      else
+      {
+        visitorMap.map(key, value, visitorContext);
+        pathMap.map(key, value, pathContext);
+      }
+    }
+
+    /**************************************************************************
+    * Creates the context a job's Mapper writes its named output through. The
+    * job's directory is created up front so the job can read it even if the
+    * Mapper never writes.
+    **************************************************************************/
+    private <KEYOUT, VALUEOUT> Mapper<NullWritable, Visit, KEYOUT, VALUEOUT>.Context createOutputContext(Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context, Class<?> visitJob) throws IOException, InterruptedException
+    {
+      final String namedOutput = visitJob.getSimpleName();
+      final String baseOutputPath = namedOutput + "/part";
+      Path outputDirectory = new Path(FileOutputFormat.getWorkOutputPath(context), namedOutput);
+      outputDirectory.getFileSystem(context.getConfiguration()).mkdirs(outputDirectory);
+
+      return createContext(context, new RecordWriter<KEYOUT, VALUEOUT>()
+      {
+        @Override
+        public void write(KEYOUT key, VALUEOUT value) throws IOException, InterruptedException
+        {
+          outputs.write(namedOutput, key, value, baseOutputPath);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context)
+        {
+        }
+      });
+    }
+
+    /**************************************************************************
+    * Creates a context that writes to the given writer and reports counters,
+    * status and progress through this task's.
+    **************************************************************************/
+    private static <KEYIN, VALUEIN, KEYOUT, VALUEOUT> Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context createContext(final Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context, RecordWriter<KEYOUT, VALUEOUT> writer)
+    {
+      StatusReporter reporter = new StatusReporter()
+      {
+        @Override
+        public Counter getCounter(Enum<?> name)
+        {
+          return context.getCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name)
+        {
+          return context.getCounter(group, name);
+        }
+
+        @Override
+        public void progress()
+        {
+          context.progress();
+        }
+
+        @Override
+        public float getProgress()
+        {
+          return context.getProgress();
+        }
+
+        @Override
+        public void setStatus(String status)
+        {
+          context.setStatus(status);
+        }
+      };
+
+      return new WrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>().getMapContext(new MapContextImpl<KEYIN, VALUEIN, KEYOUT, VALUEOUT>(context.getConfiguration(),
+        context.getTaskAttemptID(), null, writer, context.getOutputCommitter(), reporter, context.getInputSplit()));
     }
   }
 
   /****************************************************************************
-  * The Hadoop entry point.
+  * The Hadoop entry point. With -incremental, only the partitions of the
+  * input that are new or changed since the last run are processed, each into
+  * checkpoints, and the checkpoints are rolled up into the jobs' output. With
+  * -local, the jobs run one after another in this JVM, on every core, instead
+  * of on the cluster.
   ****************************************************************************/
   public static void main(String[] args) throws Exception
   {
@@ -187,37 +460,192 @@ public class ClickStream
       return;
     }
 
-    ControlledJob parseClickStream = setupParsingJob(appArguments[0], appArguments[1] + "/" + ClickStream.class.getSimpleName());
+    List<String> options = Arrays.asList(appArguments);
+    JobControl omnitureJobs = new JobControl("Omniture Click-Stream");
+    IncrementalInputTracker tracker = null;
+    if (options.indexOf("-incremental") < 0)
+      addVisitJobs(omnitureJobs, options, appArguments[0], appArguments[1], null);
+    else
+    {
+      tracker = new IncrementalInputTracker(new Configuration(), appArguments[0], appArguments[1], ClickStream.class.getSimpleName());
+      if (!tracker.hasChanges())
+      {
+        System.out.println("No partitions of " + appArguments[0] + " are new or changed.");
+        return;
+      }
+
+      Path leadCheckpoints = IncrementalInputTracker.getCheckpointPath(appArguments[1], LeadReferrals.class);
+      Path visitorCheckpoints = IncrementalInputTracker.getCheckpointPath(appArguments[1], UniqueVisitors.class);
+      Path pathCheckpoints = IncrementalInputTracker.getCheckpointPath(appArguments[1], VisitorPathing.class);
+      String leadOutput = appArguments[1] + "/" + LeadReferrals.class.getSimpleName();
+      String visitorOutput = appArguments[1] + "/" + UniqueVisitors.class.getSimpleName();
+      String pathOutput = appArguments[1] + "/" + VisitorPathing.class.getSimpleName();
+      tracker.prepare(leadCheckpoints, new Path(leadOutput));
+      tracker.prepare(visitorCheckpoints, new Path(visitorOutput));
+      tracker.prepare(pathCheckpoints, new Path(pathOutput));
 
-    //Set the above job up as a dependency
-    ArrayList<ControlledJob> dependentJobs = new ArrayList<ControlledJob>();
-    dependentJobs.add(parseClickStream);
-    
-    //Run subsequent jobs
-    ControlledJob leadReferralsJob = LeadReferrals.chainJob(dependentJobs, appArguments[1] + "/" + ClickStream.class.getSimpleName(), appArguments[1] + "/" + LeadReferrals.class.getSimpleName());
-    ControlledJob visitorPathingJob = VisitorPathing.chainJob(dependentJobs, appArguments[1] + "/" + ClickStream.class.getSimpleName(), appArguments[1] + "/" + VisitorPathing.class.getSimpleName());
+      //Intermediate files kept by a -nocleanup run are written again too
+      tracker.prepare(new Path(appArguments[1], ClickStream.class.getSimpleName()));
+      tracker.prepare(new Path(appArguments[1], Sessionization.class.getSimpleName()));
+      tracker.prepare(new Path(appArguments[1], LeadReferrals.ATTRIBUTION_DIRECTORY));
 
-    //Setup the Omniture jobs and their dependencies    
-    JobControl omnitureJobs = new JobControl("Omniture Click-Stream");
-    omnitureJobs.addJob(parseClickStream);
-    omnitureJobs.addJob(leadReferralsJob);
-    omnitureJobs.addJob(visitorPathingJob);
+      //Process each new or changed partition into its own checkpoints
+      ArrayList<ControlledJob> partitionJobs = new ArrayList<ControlledJob>();
+      for (String partition : tracker.getChangedPartitions())
+        partitionJobs.addAll(addVisitJobs(omnitureJobs, options, tracker.getPartitionPath(partition).toString(), appArguments[1], partition));
+
+      //Roll every partition's checkpoints up once they're all written; with
+      //no partitions left, there's nothing to roll up and the outputs stay
+      //deleted
+      if (tracker.hasPartitions())
+      {
+        Job leadReferrals = LeadReferrals.setupJob(appArguments[0], leadOutput);
+        IncrementalInputTracker.setupRollup(leadReferrals, leadCheckpoints);
+        Job uniqueVisitors = UniqueVisitors.setupJob(appArguments[0], visitorOutput);
+        IncrementalInputTracker.setupRollup(uniqueVisitors, visitorCheckpoints);
+        omnitureJobs.addJob(new ControlledJob(leadReferrals, partitionJobs));
+        omnitureJobs.addJob(new ControlledJob(uniqueVisitors, partitionJobs));
+        omnitureJobs.addJob(new ControlledJob(VisitorPathing.setupRollupJob(pathCheckpoints, pathOutput), partitionJobs));
+      }
+    }
     
-    //Start the jobs on a separate background thread
-    Thread jobThread = new Thread(omnitureJobs);
-    jobThread.start();
-    waitForCompletion(omnitureJobs, Arrays.asList(appArguments).indexOf("-status") > -1);
+    boolean succeeded;
+    if (options.indexOf("-local") > -1)
+      succeeded = new LocalExecutionEngine().run(omnitureJobs);
+    else
+    {
+      //Start the jobs on a separate background thread
+      Thread jobThread = new Thread(omnitureJobs);
+      jobThread.start();
+      waitForCompletion(omnitureJobs, options.indexOf("-status") > -1);
+      succeeded = omnitureJobs.getFailedJobList().isEmpty();
+    }
+
+    //Only record the partitions as processed if their checkpoints and the
+    //rollups were all written
+    if (tracker != null && succeeded)
+      tracker.commit();
     
-    //Clean up after the Click Stream intermediary files
-    if (Arrays.asList(appArguments).indexOf("-nocleanup") < 0)
+    //Clean up after the Click Stream intermediary files, wherever the output
+    //path's file system is
+    if (options.indexOf("-nocleanup") < 0)
     {
-      DistributedFileSystem hdfs = new DistributedFileSystem();
+      FileSystem hdfs = new Path(appArguments[1]).getFileSystem(new Configuration());
       hdfs.delete(new Path(appArguments[1] + "/" + ClickStream.class.getSimpleName()), true);
+      hdfs.delete(new Path(appArguments[1] + "/" + Sessionization.class.getSimpleName()), true);
+      hdfs.delete(new Path(appArguments[1] + "/" + LeadReferrals.ATTRIBUTION_DIRECTORY), true);
     }
     
     System.exit(0);
   }
   
+  /****************************************************************************
+  * Adds the jobs that parse the click-stream data at an input path and those
+  * that read the Visits, returning the latter. Given a partition, the Visits
+  * are kept apart from other partitions' and the jobs write checkpoints.
+  ****************************************************************************/
+  @SuppressWarnings("rawtypes")
+  private static List<ControlledJob> addVisitJobs(JobControl omnitureJobs, List<String> options, String inputPath, String outputPath, String partition) throws Exception
+  {
+    String partitionPath = (partition == null) ? "" : "/" + partition;
+
+    //Choose how the intermediate Visits are stored
+    boolean columnar = options.indexOf("-columnar") > -1;
+    Class<? extends OutputFormat> visitFormat = SequenceFileOutputFormat.class;
+    if (columnar)
+      visitFormat = ColumnarVisitOutputFormat.class;
+    else if (options.indexOf("-dictionary") > -1)
+      visitFormat = DictionaryVisitOutputFormat.class;
+
+    //Parse the click-stream data into Visits, unless the parsing is fused
+    //with the Mappers of the jobs that read them, whose output is written
+    //instead
+    boolean fused = options.indexOf("-fused") > -1;
+    boolean sessionize = options.indexOf("-sessionize") > -1;
+    String visitsPath = outputPath + "/" + ClickStream.class.getSimpleName() + partitionPath;
+    ArrayList<ControlledJob> dependentJobs = new ArrayList<ControlledJob>();
+    ControlledJob parseClickStream;
+    if (fused)
+      parseClickStream = setupFusedJob(inputPath, visitsPath, sessionize);
+    else
+      parseClickStream = setupParsingJob(inputPath, visitsPath, visitFormat);
+
+    //Set the parsing job up as a dependency
+    omnitureJobs.addJob(parseClickStream);
+    dependentJobs.add(parseClickStream);
+
+    //Rebuild the sessions from inactivity gaps if the feed's session IDs
+    //can't be trusted; the rest of the jobs read the sessionized Visits
+    if (sessionize)
+    {
+      String sessionsPath = outputPath + "/" + Sessionization.class.getSimpleName() + partitionPath;
+      ControlledJob sessionizationJob = Sessionization.chainJob(dependentJobs, getVisitsPath(visitsPath, fused, Sessionization.class), sessionsPath);
+      sessionizationJob.getJob().setOutputFormatClass(visitFormat);
+      if (fused)
+        readFusedOutput(sessionizationJob.getJob());
+      else if (columnar)
+        sessionizationJob.getJob().setInputFormatClass(ColumnarVisitInputFormat.class);
+
+      //The rest of the jobs read the sessionized Visits from HDFS
+      omnitureJobs.addJob(sessionizationJob);
+      dependentJobs = new ArrayList<ControlledJob>();
+      dependentJobs.add(sessionizationJob);
+      visitsPath = sessionsPath;
+      fused = false;
+    }
+    
+    //Credit each session's leads to its entry hit, for the LeadReferrals job
+    //to total; the hits are shuffled as they are for VisitorPathing
+    String visitorVisitsPath = getVisitsPath(visitsPath, fused, UniqueVisitors.class);
+    String pathVisitsPath = getVisitsPath(visitsPath, fused, VisitorPathing.class);
+    String attributionPath = outputPath + "/" + LeadReferrals.ATTRIBUTION_DIRECTORY + partitionPath;
+    ControlledJob leadAttributionJob = LeadReferrals.chainAttributionJob(dependentJobs, pathVisitsPath, attributionPath);
+    ArrayList<ControlledJob> attributionJobs = new ArrayList<ControlledJob>();
+    attributionJobs.add(leadAttributionJob);
+
+    //Run subsequent jobs, into checkpoints when processing a partition
+    ControlledJob leadReferralsJob;
+    ControlledJob uniqueVisitorsJob;
+    ControlledJob visitorPathingJob;
+    if (partition == null)
+    {
+      leadReferralsJob = LeadReferrals.chainJob(attributionJobs, attributionPath, outputPath + "/" + LeadReferrals.class.getSimpleName());
+      uniqueVisitorsJob = UniqueVisitors.chainJob(dependentJobs, visitorVisitsPath, outputPath + "/" + UniqueVisitors.class.getSimpleName());
+      visitorPathingJob = VisitorPathing.chainJob(dependentJobs, pathVisitsPath, outputPath + "/" + VisitorPathing.class.getSimpleName());
+    }
+    else
+    {
+      leadReferralsJob = LeadReferrals.chainJob(attributionJobs, attributionPath, new Path(IncrementalInputTracker.getCheckpointPath(outputPath, LeadReferrals.class), partition).toString());
+      uniqueVisitorsJob = new ControlledJob(UniqueVisitors.setupCheckpointJob(visitorVisitsPath, new Path(IncrementalInputTracker.getCheckpointPath(outputPath, UniqueVisitors.class), partition).toString()), dependentJobs);
+      visitorPathingJob = VisitorPathing.chainJob(dependentJobs, pathVisitsPath, new Path(IncrementalInputTracker.getCheckpointPath(outputPath, VisitorPathing.class), partition).toString());
+      IncrementalInputTracker.setupCheckpoint(leadReferralsJob.getJob());
+      IncrementalInputTracker.setupCheckpoint(visitorPathingJob.getJob());
+    }
+
+    if (fused)
+    {
+      readFusedOutput(leadAttributionJob.getJob());
+      readFusedOutput(uniqueVisitorsJob.getJob());
+      readFusedOutput(visitorPathingJob.getJob());
+    }
+    else if (columnar)
+    {
+      leadAttributionJob.getJob().setInputFormatClass(ColumnarVisitInputFormat.class);
+      ColumnarVisitInputFormat.setColumns(leadAttributionJob.getJob(), LeadReferrals.LEAD_COLUMNS);
+      uniqueVisitorsJob.getJob().setInputFormatClass(ColumnarVisitInputFormat.class);
+      ColumnarVisitInputFormat.setColumns(uniqueVisitorsJob.getJob(), UniqueVisitors.VISITOR_COLUMNS);
+      visitorPathingJob.getJob().setInputFormatClass(ColumnarVisitInputFormat.class);
+      ColumnarVisitInputFormat.setColumns(visitorPathingJob.getJob(), VisitorPathing.PATH_COLUMNS);
+    }
+
+    omnitureJobs.addJob(leadAttributionJob);
+    omnitureJobs.addJob(leadReferralsJob);
+    omnitureJobs.addJob(uniqueVisitorsJob);
+    omnitureJobs.addJob(visitorPathingJob);
+
+    return Arrays.asList(leadReferralsJob, uniqueVisitorsJob, visitorPathingJob);
+  }
+  
   /****************************************************************************
   * Poll all jobs every minute and reports status.
   ****************************************************************************/
@@ -268,9 +696,11 @@ public class ClickStream
   }
   
   /****************************************************************************
-  * Runs the job that processes Omniture click-stream data.
+  * Runs the job that processes Omniture click-stream data; the Visits are
+  * written with the given output format.
   ****************************************************************************/
-  private static ControlledJob setupParsingJob(String inputPath, String outputPath) throws Exception
+  @SuppressWarnings("rawtypes")
+  private static ControlledJob setupParsingJob(String inputPath, String outputPath, Class<? extends OutputFormat> visitFormat) throws Exception
   {
     //Create the MapReduce job and tell Hadoop about the classes
     Job parseClickStream = new Job(new Configuration());
@@ -286,8 +716,48 @@ public class ClickStream
     parseClickStream.setOutputKeyClass(NullWritable.class);
     parseClickStream.setOutputValueClass(Visit.class);
     //parseClickStream.setInputFormatClass(LzoTextInputFormat.class);
-    parseClickStream.setInputFormatClass(TextInputFormat.class);
-    parseClickStream.setOutputFormatClass(SequenceFileOutputFormat.class);
+    //Feeds recompressed by BlockGzipCompressor are split on their blocks
+    parseClickStream.setInputFormatClass(BlockGzipTextInputFormat.class);
+    parseClickStream.setOutputFormatClass(visitFormat);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(parseClickStream, new Path(inputPath));
+    FileOutputFormat.setOutputPath(parseClickStream, new Path(outputPath));
+    
+    return new ControlledJob(parseClickStream, null);
+  }
+
+  /****************************************************************************
+  * Runs the job that parses the click-stream data for a -fused run: the
+  * Visits go straight to the Mappers of the jobs that read them, whose output
+  * is written under a directory per job instead.
+  ****************************************************************************/
+  private static ControlledJob setupFusedJob(String inputPath, String outputPath, boolean sessionize) throws Exception
+  {
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job parseClickStream = Job.getInstance(new Configuration());
+    parseClickStream.setJobName("Parse Omniture Click-Stream Data Once");
+    parseClickStream.setJarByClass(ClickStream.class);
+    parseClickStream.getConfiguration().setBoolean(FUSED_SESSIONIZE, sessionize);
+
+    //Tell Hadoop about the Mapper, but no Reducer for this job; the jobs
+    //that read its output reduce it
+    parseClickStream.setMapperClass(FusedMap.class);
+    parseClickStream.setNumReduceTasks(0);
+
+    //Tell Hadoop about the output; it all goes to the named outputs, so the
+    //job's own output files are only created if written to
+    parseClickStream.setOutputKeyClass(NullWritable.class);
+    parseClickStream.setOutputValueClass(NullWritable.class);
+    parseClickStream.setInputFormatClass(BlockGzipTextInputFormat.class);
+    LazyOutputFormat.setOutputFormatClass(parseClickStream, SequenceFileOutputFormat.class);
+    if (sessionize)
+      MultipleOutputs.addNamedOutput(parseClickStream, Sessionization.class.getSimpleName(), SequenceFileOutputFormat.class, VisitorKey.class, Visit.class);
+    else
+    {
+      MultipleOutputs.addNamedOutput(parseClickStream, UniqueVisitors.class.getSimpleName(), SequenceFileOutputFormat.class, Text.class, HyperLogLog.class);
+      MultipleOutputs.addNamedOutput(parseClickStream, VisitorPathing.class.getSimpleName(), SequenceFileOutputFormat.class, Visit.class, NullWritable.class);
+    }
 
     //Set the input/output paths
     FileInputFormat.addInputPath(parseClickStream, new Path(inputPath));
@@ -295,4 +765,23 @@ public class ClickStream
     
     return new ControlledJob(parseClickStream, null);
   }
+
+  /****************************************************************************
+  * Gets the path a job reads its input from: the Visits, or for a -fused run,
+  * its Mapper's output in the directory named after it.
+  ****************************************************************************/
+  private static String getVisitsPath(String visitsPath, boolean fused, Class<?> visitJob)
+  {
+    return fused ? visitsPath + "/" + visitJob.getSimpleName() : visitsPath;
+  }
+
+  /****************************************************************************
+  * Makes a job that reads Visits read its Mapper's output from a -fused run
+  * instead, passing it straight to the shuffle.
+  ****************************************************************************/
+  private static void readFusedOutput(Job visitJob)
+  {
+    visitJob.setMapperClass(Mapper.class);
+    visitJob.setInputFormatClass(SequenceFileInputFormat.class);
+  }
 }
\ No newline at end of file
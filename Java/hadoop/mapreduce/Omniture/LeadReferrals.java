@@ -0,0 +1,294 @@
+package hadoop.mapreduce.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import hadoop.mapreduce.omniture.formats.VisitColumn;
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
+import hadoop.mapreduce.omniture.models.PageHit;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.platform.BytesCountTable;
+
+/******************************************************************************
+* Takes the parsed raw Omniture click-stream data and counts lead conversions
+* (hits on a page whose name contains "omniture.leadreferrals.page") by what
+* brought the visitor to the site: the referer domain, traffic source and
+* intent of the session's entry hit. A conversion hit's own referer is usually
+* the site's previous page, so the attribution job shuffles hits exactly as
+* VisitorPathing does, grouped by Session ID in Page Sequence order, and
+* credits each session's leads to its first hit. The credits are totalled in
+* each Reducer and again by the report job and its combiner. Output is
+* "domain\ttraffic source\tintent\tleads".
+******************************************************************************/
+public class LeadReferrals
+{
+  //Constants
+  public static final String CONVERSION_PAGE = "omniture.leadreferrals.page";
+  public static final String DEFAULT_CONVERSION_PAGE = "thank-you";
+  public static final String AGGREGATION_ENTRIES = "omniture.leadreferrals.aggregation.entries";
+  public static final String AGGREGATION_BYTES = "omniture.leadreferrals.aggregation.bytes";
+  public static final int DEFAULT_AGGREGATION_ENTRIES = 16384;
+  public static final int DEFAULT_AGGREGATION_BYTES = 2 << 20;
+  public static final String ATTRIBUTION_DIRECTORY = "LeadAttribution";
+  private static final String NO_REFERER = "(none)";
+
+  //The only columns a lead needs, when reading columnar Visits
+  public static final VisitColumn[] LEAD_COLUMNS = new VisitColumn[] { VisitColumn.SESSION_ID, VisitColumn.PAGE_SEQUENCE, VisitColumn.HIT_TIME, VisitColumn.PAGE_NAME, VisitColumn.REFERER, VisitColumn.TRAFFIC_SOURCE, VisitColumn.INTENT };
+
+  /****************************************************************************
+  * The Reducer of the attribution job. Hadoop re-populates the key as the
+  * values are iterated, so the key is the session's entry hit when the call
+  * starts. Credits are totalled in a bounded table keyed by the output key's
+  * bytes and written when the table fills up and when the task ends.
+  ****************************************************************************/
+  public static class Attribute extends Reducer<Visit, NullWritable, Text, IntWritable>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private String conversionPage;
+    private IntWritable count = new IntWritable();
+    private BytesCountTable counts;
+    private Text leadSource = new Text();
+    private StringBuilder leadSourceBuilder = new StringBuilder();
+    private Text tableLeadSource = new Text();
+
+    /**************************************************************************
+    * Reads the conversion page and sizes the aggregation table.
+    **************************************************************************/
+    @Override
+    protected void setup(Reducer<Visit, NullWritable, Text, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      Configuration conf = context.getConfiguration();
+      conversionPage = conf.get(CONVERSION_PAGE, DEFAULT_CONVERSION_PAGE);
+      counts = new BytesCountTable(conf.getInt(AGGREGATION_ENTRIES, DEFAULT_AGGREGATION_ENTRIES), conf.getInt(AGGREGATION_BYTES, DEFAULT_AGGREGATION_BYTES));
+    }
+
+    public void reduce(Visit key, Iterable<NullWritable> values, Reducer<Visit, NullWritable, Text, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      //Hold on to the entry hit's lead source before the key moves on
+      String referer = key.getReferer();
+      String trafficSource = key.getTrafficSource();
+      String intent = key.getIntent();
+
+      int leads = 0;
+      for (NullWritable value : values)
+      {
+        if (key.getPageName().indexOf(conversionPage) > -1)
+          leads++;
+      }
+
+      if (leads == 0)
+        return;
+
+      leadSourceBuilder.setLength(0);
+      appendDomain(leadSourceBuilder, referer);
+      leadSourceBuilder.append('\t').append(trafficSource).append('\t').append(intent);
+      leadSource.set(leadSourceBuilder.toString());
+
+      if (!counts.increment(leadSource.getBytes(), 0, leadSource.getLength(), leads))
+      {
+        flush(context);
+
+        //A key too big for an empty table is written as-is
+        if (!counts.increment(leadSource.getBytes(), 0, leadSource.getLength(), leads))
+        {
+          count.set(leads);
+          context.write(leadSource, count);
+        }
+      }
+    }
+
+    /**************************************************************************
+    * Writes the remaining counts.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Reducer<Visit, NullWritable, Text, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      flush(context);
+    }
+
+    /**************************************************************************
+    * Writes every count in the table and empties it.
+    **************************************************************************/
+    private void flush(Reducer<Visit, NullWritable, Text, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      for (int entry = 0; entry < counts.size(); entry++)
+      {
+        tableLeadSource.set(counts.getBytes(), counts.getKeyOffset(entry), counts.getKeyLength(entry));
+        count.set(counts.getCount(entry));
+        context.write(tableLeadSource, count);
+      }
+
+      counts.clear();
+    }
+  }
+
+  /****************************************************************************
+  * The Reducer of the report job; also the combiner, since summing counts
+  * can be done in any order.
+  ****************************************************************************/
+  public static class Reduce extends Reducer<Text, IntWritable, Text, IntWritable>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private IntWritable sum = new IntWritable();
+
+    public void reduce(Text key, Iterable<IntWritable> values, Reducer<Text, IntWritable, Text, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      int leads = 0;
+      for (IntWritable value : values)
+        leads += value.get();
+
+      sum.set(leads);
+      context.write(key, sum);
+    }
+  }
+
+  /****************************************************************************
+  * The Hadoop entry point.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 2)
+    {
+      System.err.println("Input and Output paths are required.");
+      return;
+    }
+
+    //Credit each session's leads, then total the credits into the report
+    String attributionPath = appArguments[1] + "/" + ATTRIBUTION_DIRECTORY;
+    Job leadAttribution = setupAttributionJob(appArguments[0], attributionPath);
+    Job leadReferrals = setupJob(attributionPath, appArguments[1] + "/" + LeadReferrals.class.getSimpleName());
+    if (leadAttribution.waitForCompletion(true) && leadReferrals.waitForCompletion(true))
+      new Path(attributionPath).getFileSystem(leadReferrals.getConfiguration()).delete(new Path(attributionPath), true);
+  }
+
+  /****************************************************************************
+  * Configures the job that credits each session's leads to its entry hit;
+  * its output is the per-Reducer totals the report job reads.
+  ****************************************************************************/
+  public static Job setupAttributionJob(String inputPath, String outputPath) throws Exception
+  {
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job leadAttribution = Job.getInstance(new Configuration());
+    leadAttribution.setJobName("Lead Attribution");
+    leadAttribution.setJarByClass(LeadReferrals.class);
+
+    //Tell Hadoop about the Mapper/Reducer; sessions are partitioned and
+    //grouped by Session ID while the sort also orders them by Page Sequence
+    leadAttribution.setMapperClass(VisitorPathing.Map.class);
+    leadAttribution.setPartitionerClass(VisitorPathing.SessionPartitioner.class);
+    leadAttribution.setGroupingComparatorClass(PageHit.SessionComparator.class);
+    leadAttribution.setReducerClass(LeadReferrals.Attribute.class);
+    leadAttribution.setNumReduceTasks(leadAttribution.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
+
+    //Tell Hadoop about the output
+    leadAttribution.setMapOutputKeyClass(Visit.class);
+    leadAttribution.setMapOutputValueClass(NullWritable.class);
+    leadAttribution.setOutputKeyClass(Text.class);
+    leadAttribution.setOutputValueClass(IntWritable.class);
+    leadAttribution.setInputFormatClass(VisitInputFormat.class);
+    leadAttribution.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(leadAttribution, new Path(inputPath));
+    FileOutputFormat.setOutputPath(leadAttribution, new Path(outputPath));
+
+    return leadAttribution;
+  }
+
+  /****************************************************************************
+  * Configures the job that totals the attribution job's output into the
+  * report.
+  ****************************************************************************/
+  public static Job setupJob(String inputPath, String outputPath) throws Exception
+  {
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job leadReferrals = Job.getInstance(new Configuration());
+    leadReferrals.setJobName("Lead Referrals");
+    leadReferrals.setJarByClass(LeadReferrals.class);
+
+    //Tell Hadoop about the Mapper/Combiner/Reducer; the credits are passed
+    //through to the combiner unchanged
+    leadReferrals.setMapperClass(Mapper.class);
+    leadReferrals.setCombinerClass(LeadReferrals.Reduce.class);
+    leadReferrals.setReducerClass(LeadReferrals.Reduce.class);
+    leadReferrals.setNumReduceTasks(leadReferrals.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
+
+    //Tell Hadoop about the output
+    leadReferrals.setOutputKeyClass(Text.class);
+    leadReferrals.setOutputValueClass(IntWritable.class);
+    leadReferrals.setInputFormatClass(SequenceFileInputFormat.class);
+    leadReferrals.setOutputFormatClass(TextOutputFormat.class);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(leadReferrals, new Path(inputPath));
+    FileOutputFormat.setOutputPath(leadReferrals, new Path(outputPath));
+
+    return leadReferrals;
+  }
+
+  /****************************************************************************
+  * Wraps the attribution Job in a ControlledJob, specifying dependent jobs.
+  ****************************************************************************/
+  public static ControlledJob chainAttributionJob(ArrayList<ControlledJob> dependentJobs, String inputPath, String outputPath) throws Exception
+  {
+    return new ControlledJob(setupAttributionJob(inputPath, outputPath), dependentJobs);
+  }
+
+  /****************************************************************************
+  * Wraps the Job in a ControlledJob, specifying dependent jobs.
+  ****************************************************************************/
+  public static ControlledJob chainJob(ArrayList<ControlledJob> dependentJobs, String inputPath, String outputPath) throws Exception
+  {
+    return new ControlledJob(setupJob(inputPath, outputPath), dependentJobs);
+  }
+
+  /****************************************************************************
+  * Appends the lower-case host of a referer URL, without a leading "www.";
+  * "(none)" if there's no referer.
+  ****************************************************************************/
+  private static void appendDomain(StringBuilder leadSource, String referer)
+  {
+    int start = referer.indexOf("://");
+    start = (start > -1) ? start + 3 : 0;
+    if (referer.regionMatches(true, start, "www.", 0, 4))
+      start += 4;
+
+    int end = start;
+    while (end < referer.length())
+    {
+      char character = referer.charAt(end);
+      if (character == '/' || character == '?' || character == '#' || character == ':')
+        break;
+
+      end++;
+    }
+
+    if (end == start)
+    {
+      leadSource.append(NO_REFERER);
+      return;
+    }
+
+    for (int index = start; index < end; index++)
+      leadSource.append(Character.toLowerCase(referer.charAt(index)));
+  }
+}
\ No newline at end of file
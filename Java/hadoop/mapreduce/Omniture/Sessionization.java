@@ -0,0 +1,233 @@
+package hadoop.mapreduce.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.omniture.models.VisitorKey;
+import hadoop.platform.LocalExecutionEngine;
+
+/******************************************************************************
+* Repairs sessions for feeds where the Session ID and Visit Number can't be
+* trusted (empty, or reused for a later visit). Hits are keyed by visitor (IP
+* address and browser) and hit time, partitioned and grouped by visitor, so
+* each reduce call streams one visitor's hits in time order; hits within the
+* same second keep their recorded Page Sequence order. A hit keeps its
+* Omniture Session ID, unless the session has been idle for longer than
+* "omniture.sessionization.gap.minutes"; the ID has then been reset, and the
+* new session gets the ID with its first hit time appended. A hit with no
+* Session ID joins the visitor's previous hit's session within the same gap,
+* or starts a synthetic one. Each Visit is written back with its Session ID, a
+* Page Sequence and a Visit Number, ready for the jobs that read ClickStream's
+* output. Hits with neither an IP address nor a Session ID can't be tied to a
+* visitor, and are written back unchanged.
+******************************************************************************/
+public class Sessionization
+{
+  //Constants
+  public static final String GAP_MINUTES = "omniture.sessionization.gap.minutes";
+  public static final int DEFAULT_GAP_MINUTES = 30;
+
+  //Counters reported by the job
+  public static enum SessionCounters
+  {
+    SESSIONS,
+    UNIDENTIFIED_HITS
+  }
+
+  /****************************************************************************
+  * The Mapper.
+  ****************************************************************************/
+  public static class Map extends Mapper<NullWritable, Visit, VisitorKey, Visit>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private VisitorKey visitorKey = new VisitorKey();
+
+    public void map(NullWritable key, Visit value, Mapper<NullWritable, Visit, VisitorKey, Visit>.Context context) throws IOException, InterruptedException
+    {
+      visitorKey.set(value);
+      context.write(visitorKey, value);
+    }
+  }
+
+  /****************************************************************************
+  * Sends every hit of a visitor to the same Reducer, whatever its hit time.
+  ****************************************************************************/
+  public static class VisitorPartitioner extends Partitioner<VisitorKey, Visit>
+  {
+    @Override
+    public int getPartition(VisitorKey key, Visit value, int numPartitions)
+    {
+      return (key.getVisitor().hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  /****************************************************************************
+  * The Reducer. Hadoop re-populates the key as the values are iterated, so
+  * each step of the loop sees the hit time of the Visit it's given; only the
+  * state of the visitor's sessions is held in memory, never the hits.
+  ****************************************************************************/
+  public static class Reduce extends Reducer<VisitorKey, Visit, NullWritable, Visit>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private long maxGap;
+    private HashMap<String, Session> openSessions = new HashMap<String, Session>();
+    private Counter sessions;
+    private Counter unidentifiedHits;
+
+    /**************************************************************************
+    * Reads the inactivity gap that ends a session.
+    **************************************************************************/
+    @Override
+    protected void setup(Reducer<VisitorKey, Visit, NullWritable, Visit>.Context context) throws IOException, InterruptedException
+    {
+      maxGap = context.getConfiguration().getInt(GAP_MINUTES, DEFAULT_GAP_MINUTES) * 60000L;
+      sessions = context.getCounter(SessionCounters.SESSIONS);
+      unidentifiedHits = context.getCounter(SessionCounters.UNIDENTIFIED_HITS);
+    }
+
+    public void reduce(VisitorKey key, Iterable<Visit> values, Reducer<VisitorKey, Visit, NullWritable, Visit>.Context context) throws IOException, InterruptedException
+    {
+      Session previous = null;
+      int visitNumber = 0;
+      openSessions.clear();
+
+      for (Visit value : values)
+      {
+        long hitTime = key.getHitTime();
+        String omnitureId = value.getSessionId();
+        if (omnitureId.length() == 0 && value.getIpAddressValue().isEmpty())
+        {
+          unidentifiedHits.increment(1);
+          context.write(NullWritable.get(), value);
+          continue;
+        }
+
+        //Hits without a Session ID carry on the visitor's latest session;
+        //the others carry on their own, if it's still open
+        Session session = (omnitureId.length() == 0) ? previous : openSessions.get(omnitureId);
+        if (session == null || hitTime - session.lastHitTime > maxGap)
+        {
+          //A reused Session ID and a missing one both get an ID made from
+          //something stable and the session's first hit time, so the job
+          //makes the same IDs every time it runs
+          String sessionId = omnitureId;
+          if (omnitureId.length() == 0)
+            sessionId = Long.toHexString(key.getFingerprint()) + "-" + Long.toString(hitTime, 36);
+          else if (session != null)
+            sessionId = omnitureId + "-" + Long.toString(hitTime, 36);
+
+          session = new Session(sessionId, ++visitNumber);
+          if (omnitureId.length() > 0)
+            openSessions.put(omnitureId, session);
+
+          sessions.increment(1);
+        }
+
+        value.setSessionId(session.sessionId);
+        value.setPageSequence(++session.pageSequence);
+        value.setVisitNumber(session.visitNumber);
+        context.write(NullWritable.get(), value);
+
+        session.lastHitTime = hitTime;
+        previous = session;
+      }
+    }
+  }
+
+  /****************************************************************************
+  * The state of one of a visitor's sessions.
+  ****************************************************************************/
+  private static final class Session
+  {
+    final String sessionId;
+    final int visitNumber;
+    long lastHitTime;
+    int pageSequence;
+
+    Session(String sessionId, int visitNumber)
+    {
+      this.sessionId = sessionId;
+      this.visitNumber = visitNumber;
+    }
+  }
+
+  /****************************************************************************
+  * The Hadoop entry point.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 2)
+    {
+      System.err.println("Input and Output paths are required.");
+      return;
+    }
+
+    Job sessionization = setupJob(appArguments[0], appArguments[1] + "/" + Sessionization.class.getSimpleName());
+    if (Arrays.asList(appArguments).indexOf("-local") > -1)
+      new LocalExecutionEngine().run(sessionization);
+    else
+      sessionization.waitForCompletion(true);
+  }
+
+  /****************************************************************************
+  * Configures the job to run.
+  ****************************************************************************/
+  public static Job setupJob(String inputPath, String outputPath) throws Exception
+  {
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job sessionization = Job.getInstance(new Configuration());
+    sessionization.setJobName("Sessionize Visits");
+    sessionization.setJarByClass(Sessionization.class);
+
+    //Tell Hadoop about the Mapper/Reducer; visitors are partitioned and
+    //grouped by visitor while the sort also orders them by hit time
+    sessionization.setMapperClass(Sessionization.Map.class);
+    sessionization.setPartitionerClass(VisitorPartitioner.class);
+    sessionization.setGroupingComparatorClass(VisitorKey.VisitorComparator.class);
+    sessionization.setReducerClass(Sessionization.Reduce.class);
+    sessionization.setNumReduceTasks(sessionization.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
+
+    //Tell Hadoop about the output
+    sessionization.setMapOutputKeyClass(VisitorKey.class);
+    sessionization.setMapOutputValueClass(Visit.class);
+    sessionization.setOutputKeyClass(NullWritable.class);
+    sessionization.setOutputValueClass(Visit.class);
+    sessionization.setInputFormatClass(VisitInputFormat.class);
+    sessionization.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(sessionization, new Path(inputPath));
+    FileOutputFormat.setOutputPath(sessionization, new Path(outputPath));
+
+    return sessionization;
+  }
+
+  /****************************************************************************
+  * Wraps the Job in a ControlledJob, specifying dependent jobs.
+  ****************************************************************************/
+  public static ControlledJob chainJob(ArrayList<ControlledJob> dependentJobs, String inputPath, String outputPath) throws Exception
+  {
+    return new ControlledJob(setupJob(inputPath, outputPath), dependentJobs);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,323 @@
+package hadoop.mapreduce.omniture;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import hadoop.mapreduce.omniture.formats.VisitColumn;
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
+import hadoop.mapreduce.omniture.models.Location;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.omniture.models.VisitorKey;
+import hadoop.platform.HyperLogLog;
+import hadoop.platform.IncrementalInputTracker;
+
+/******************************************************************************
+* Takes the parsed raw Omniture click-stream data and estimates the number of
+* unique visitors per page name, section, state and geo state, for each day
+* (UTC). A visitor is identified by the IP address and browser, as
+* Sessionization identifies one; hits without an IP address can't be tied to
+* a visitor that way, so they're counted (UNIDENTIFIED_HITS) but left out of
+* the estimates, which also keeps the counts the same with -sessionize. The
+* visitor is added to a HyperLogLog sketch for each of the hit's groups. Mappers hold
+* at most "omniture.uniquevisitors.groups" sketches and write them when
+* they're all in use and when the task ends; the combiner and Reducer merge
+* them. Output is "dimension\tvalue\tday\tvisitors", where the dimension is
+* page, section, state or geostate. The precision of the sketches is
+* "omniture.uniquevisitors.precision".
+******************************************************************************/
+public class UniqueVisitors
+{
+  //Constants
+  public static final String PRECISION = "omniture.uniquevisitors.precision";
+  public static final String MAX_GROUPS = "omniture.uniquevisitors.groups";
+  public static final int DEFAULT_MAX_GROUPS = 4096;
+  private static final long MILLISECONDS_PER_DAY = 86400000L;
+
+  //The only columns a visitor and its groups need, when reading columnar
+  //Visits
+  public static final VisitColumn[] VISITOR_COLUMNS = new VisitColumn[] { VisitColumn.HIT_TIME, VisitColumn.IP_ADDRESS, VisitColumn.BROWSER, VisitColumn.PAGE_NAME, VisitColumn.SECTION, VisitColumn.STATE, VisitColumn.GEO_STATE };
+
+  //Counters reported by the job
+  public static enum VisitorCounters
+  {
+    UNIDENTIFIED_HITS
+  }
+
+  /****************************************************************************
+  * The Mapper.
+  ****************************************************************************/
+  public static class Map extends Mapper<NullWritable, Visit, Text, HyperLogLog>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private String day;
+    private long epochDay = Long.MIN_VALUE;
+    private Text group = new Text();
+    private StringBuilder groupBuilder = new StringBuilder();
+    private int maxGroups;
+    private int precision;
+    private HashMap<Text, HyperLogLog> sketches = new HashMap<Text, HyperLogLog>();
+    private Counter unidentifiedHits;
+    private VisitorKey visitorKey = new VisitorKey();
+
+    /**************************************************************************
+    * Reads the sketch precision and the number of sketches to hold.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<NullWritable, Visit, Text, HyperLogLog>.Context context) throws IOException, InterruptedException
+    {
+      Configuration conf = context.getConfiguration();
+      precision = conf.getInt(PRECISION, HyperLogLog.DEFAULT_PRECISION);
+      maxGroups = conf.getInt(MAX_GROUPS, DEFAULT_MAX_GROUPS);
+      dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      unidentifiedHits = context.getCounter(VisitorCounters.UNIDENTIFIED_HITS);
+    }
+
+    public void map(NullWritable key, Visit value, Mapper<NullWritable, Visit, Text, HyperLogLog>.Context context) throws IOException, InterruptedException
+    {
+      if (value.getIpAddressValue().isEmpty())
+      {
+        unidentifiedHits.increment(1);
+        return;
+      }
+
+      //Hits arrive roughly in time order, so the day is rarely re-formatted
+      long hitDay = value.getHitTime() / MILLISECONDS_PER_DAY;
+      if (hitDay != epochDay)
+      {
+        epochDay = hitDay;
+        day = dayFormat.format(hitDay * MILLISECONDS_PER_DAY);
+      }
+
+      visitorKey.set(value);
+      long visitor = visitorKey.getFingerprint();
+
+      Location location = value.getLocation();
+      add(context, "page", value.getPageName(), visitor);
+      add(context, "section", value.getSection(), visitor);
+      add(context, "state", location.getState(), visitor);
+      add(context, "geostate", location.getGeoState(), visitor);
+    }
+
+    /**************************************************************************
+    * Writes the remaining sketches.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<NullWritable, Visit, Text, HyperLogLog>.Context context) throws IOException, InterruptedException
+    {
+      flush(context);
+    }
+
+    /**************************************************************************
+    * Adds the visitor to the sketch of a group, unless the group's value is
+    * empty.
+    **************************************************************************/
+    private void add(Mapper<NullWritable, Visit, Text, HyperLogLog>.Context context, String dimension, String dimensionValue, long visitor) throws IOException, InterruptedException
+    {
+      if (dimensionValue.length() == 0)
+        return;
+
+      groupBuilder.setLength(0);
+      groupBuilder.append(dimension).append('\t').append(dimensionValue).append('\t').append(day);
+      group.set(groupBuilder.toString());
+
+      HyperLogLog sketch = sketches.get(group);
+      if (sketch == null)
+      {
+        if (sketches.size() >= maxGroups)
+          flush(context);
+
+        sketch = new HyperLogLog(precision);
+        sketches.put(new Text(group), sketch);
+      }
+
+      sketch.add(visitor);
+    }
+
+    /**************************************************************************
+    * Writes every sketch and lets go of them.
+    **************************************************************************/
+    private void flush(Mapper<NullWritable, Visit, Text, HyperLogLog>.Context context) throws IOException, InterruptedException
+    {
+      for (java.util.Map.Entry<Text, HyperLogLog> sketch : sketches.entrySet())
+        context.write(sketch.getKey(), sketch.getValue());
+
+      sketches.clear();
+    }
+  }
+
+  /****************************************************************************
+  * The combiner; merges a group's partial sketches into one.
+  ****************************************************************************/
+  public static class Combine extends Reducer<Text, HyperLogLog, Text, HyperLogLog>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private HyperLogLog merged = new HyperLogLog();
+
+    public void reduce(Text key, Iterable<HyperLogLog> values, Reducer<Text, HyperLogLog, Text, HyperLogLog>.Context context) throws IOException, InterruptedException
+    {
+      merge(merged, values);
+      context.write(key, merged);
+    }
+  }
+
+  /****************************************************************************
+  * The Reducer; merges a group's sketches and writes the estimate.
+  ****************************************************************************/
+  public static class Reduce extends Reducer<Text, HyperLogLog, Text, LongWritable>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private HyperLogLog merged = new HyperLogLog();
+    private LongWritable visitors = new LongWritable();
+
+    public void reduce(Text key, Iterable<HyperLogLog> values, Reducer<Text, HyperLogLog, Text, LongWritable>.Context context) throws IOException, InterruptedException
+    {
+      merge(merged, values);
+      visitors.set(merged.estimate());
+      context.write(key, visitors);
+    }
+  }
+
+  /****************************************************************************
+  * The Hadoop entry point. With -incremental, only the partitions of the
+  * input that are new or changed since the last run are sketched, each into a
+  * checkpoint, and the checkpoints' sketches are merged into the estimates.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 2)
+    {
+      System.err.println("Input and Output paths are required.");
+      return;
+    }
+
+    String outputPath = appArguments[1] + "/" + UniqueVisitors.class.getSimpleName();
+    if (Arrays.asList(appArguments).indexOf("-incremental") < 0)
+    {
+      Job uniqueVisitors = setupJob(appArguments[0], outputPath);
+      uniqueVisitors.waitForCompletion(true);
+      return;
+    }
+
+    IncrementalInputTracker tracker = new IncrementalInputTracker(new Configuration(), appArguments[0], appArguments[1], UniqueVisitors.class.getSimpleName());
+    if (!tracker.hasChanges())
+    {
+      System.out.println("No partitions of " + appArguments[0] + " are new or changed.");
+      return;
+    }
+
+    //Sketch each new or changed partition into its own checkpoint
+    Path checkpointPath = IncrementalInputTracker.getCheckpointPath(appArguments[1], UniqueVisitors.class);
+    tracker.prepare(checkpointPath, new Path(outputPath));
+    for (String partition : tracker.getChangedPartitions())
+    {
+      Job sketchPartition = setupCheckpointJob(tracker.getPartitionPath(partition).toString(), new Path(checkpointPath, partition).toString());
+      if (!sketchPartition.waitForCompletion(true))
+        return;
+    }
+
+    //Merge every partition's sketches and estimate; with no partitions left,
+    //there's nothing to merge and the report stays deleted
+    if (tracker.hasPartitions())
+    {
+      Job uniqueVisitors = setupJob(appArguments[0], outputPath);
+      IncrementalInputTracker.setupRollup(uniqueVisitors, checkpointPath);
+      if (!uniqueVisitors.waitForCompletion(true))
+        return;
+    }
+
+    tracker.commit();
+  }
+
+  /****************************************************************************
+  * Configures the job to run.
+  ****************************************************************************/
+  public static Job setupJob(String inputPath, String outputPath) throws Exception
+  {
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job uniqueVisitors = Job.getInstance(new Configuration());
+    uniqueVisitors.setJobName("Unique Visitors");
+    uniqueVisitors.setJarByClass(UniqueVisitors.class);
+
+    //Tell Hadoop about the Mapper/Combiner/Reducer
+    uniqueVisitors.setMapperClass(UniqueVisitors.Map.class);
+    uniqueVisitors.setCombinerClass(UniqueVisitors.Combine.class);
+    uniqueVisitors.setReducerClass(UniqueVisitors.Reduce.class);
+    uniqueVisitors.setNumReduceTasks(uniqueVisitors.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
+
+    //Tell Hadoop about the output
+    uniqueVisitors.setMapOutputKeyClass(Text.class);
+    uniqueVisitors.setMapOutputValueClass(HyperLogLog.class);
+    uniqueVisitors.setOutputKeyClass(Text.class);
+    uniqueVisitors.setOutputValueClass(LongWritable.class);
+    uniqueVisitors.setInputFormatClass(VisitInputFormat.class);
+    uniqueVisitors.setOutputFormatClass(TextOutputFormat.class);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(uniqueVisitors, new Path(inputPath));
+    FileOutputFormat.setOutputPath(uniqueVisitors, new Path(outputPath));
+
+    return uniqueVisitors;
+  }
+
+  /****************************************************************************
+  * Configures the job to write a partition's checkpoint: the merged sketches
+  * themselves rather than their estimates, since estimates can't be merged.
+  ****************************************************************************/
+  public static Job setupCheckpointJob(String inputPath, String outputPath) throws Exception
+  {
+    Job uniqueVisitors = setupJob(inputPath, outputPath);
+    uniqueVisitors.setReducerClass(UniqueVisitors.Combine.class);
+    uniqueVisitors.setOutputValueClass(HyperLogLog.class);
+    IncrementalInputTracker.setupCheckpoint(uniqueVisitors);
+
+    return uniqueVisitors;
+  }
+
+  /****************************************************************************
+  * Wraps the Job in a ControlledJob, specifying dependent jobs.
+  ****************************************************************************/
+  public static ControlledJob chainJob(ArrayList<ControlledJob> dependentJobs, String inputPath, String outputPath) throws Exception
+  {
+    return new ControlledJob(setupJob(inputPath, outputPath), dependentJobs);
+  }
+
+  /****************************************************************************
+  * Merges sketches into a reused one, which takes on their precision.
+  ****************************************************************************/
+  private static void merge(HyperLogLog merged, Iterable<HyperLogLog> sketches)
+  {
+    boolean first = true;
+    for (HyperLogLog sketch : sketches)
+    {
+      if (first)
+        merged.set(sketch);
+      else
+        merged.merge(sketch);
+
+      first = false;
+    }
+  }
+}
\ No newline at end of file
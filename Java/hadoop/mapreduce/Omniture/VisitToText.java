@@ -1,6 +1,7 @@
 package hadoop.mapreduce.omniture;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -8,11 +9,12 @@ import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import hadoop.mapreduce.omniture.formats.ColumnarVisitInputFormat;
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
 import hadoop.mapreduce.omniture.models.Visit;
 
 /******************************************************************************
@@ -47,6 +49,9 @@ public class VisitToText
     }
     
     Job seequentialToText = setupJob(appArguments[0], appArguments[1] + "/" + VisitToText.class.getSimpleName());
+    if (Arrays.asList(appArguments).indexOf("-columnar") > -1)
+      seequentialToText.setInputFormatClass(ColumnarVisitInputFormat.class);
+
     seequentialToText.waitForCompletion(true);
   }
 
@@ -67,7 +72,7 @@ public class VisitToText
     //Tell Hadoop about the output
     textualVisit.setOutputKeyClass(NullWritable.class);
     textualVisit.setOutputValueClass(Visit.class);
-    textualVisit.setInputFormatClass(SequenceFileInputFormat.class);
+    textualVisit.setInputFormatClass(VisitInputFormat.class);
     textualVisit.setOutputFormatClass(TextOutputFormat.class);
 
     //Set the input/output paths
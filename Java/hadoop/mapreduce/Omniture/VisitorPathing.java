@@ -2,28 +2,48 @@ package hadoop.mapreduce.omniture;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
+import hadoop.mapreduce.omniture.formats.VisitColumn;
+import hadoop.mapreduce.omniture.models.PageHit;
 import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.platform.IncrementalInputTracker;
+import hadoop.platform.LocalExecutionEngine;
 
 /******************************************************************************
-* Takes the parsed raw Omniture click-stream data and sorts the data by
-* Session ID and Page Sequence. This is an intermediary job used by other
-* jobs.
+* Takes the parsed raw Omniture click-stream data and reconstructs the path
+* each visitor took through the site. Visits are partitioned and grouped by
+* Session ID and sorted by Page Sequence, then hit time (a secondary sort), so
+* each reduce call streams one session's hits in order and writes a single
+* path record: the Session ID, then the number of hits, the first and last hit
+* times and the pages in order, capped at "omniture.visitorpathing.maxpages".
 ******************************************************************************/
 public class VisitorPathing
 {
+  //Constants
+  public static final String MAX_PAGES = "omniture.visitorpathing.maxpages";
+  public static final int DEFAULT_MAX_PAGES = 250;
+  private static final char PAGE_SEPARATOR = '>';
+  private static final String TRUNCATED = "...";
+
+  //The only columns a path needs, when reading columnar Visits
+  public static final VisitColumn[] PATH_COLUMNS = new VisitColumn[] { VisitColumn.SESSION_ID, VisitColumn.PAGE_SEQUENCE, VisitColumn.HIT_TIME, VisitColumn.PAGE_NAME, VisitColumn.PAGE_URL };
+
   /****************************************************************************
   * The Mapper.
   ****************************************************************************/
@@ -36,7 +56,74 @@ public class VisitorPathing
   }
 
   /****************************************************************************
-  * The Hadoop entry point.
+  * Sends every hit of a session to the same Reducer, whatever its page
+  * sequence.
+  ****************************************************************************/
+  public static class SessionPartitioner extends Partitioner<Visit, NullWritable>
+  {
+    @Override
+    public int getPartition(Visit key, NullWritable value, int numPartitions)
+    {
+      return (key.getSessionIdValue().hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  /****************************************************************************
+  * The Reducer. Hadoop re-populates the key as the values are iterated, so
+  * each step of the loop sees the session's next hit; only the path being
+  * built is held in memory, never the session's hits.
+  ****************************************************************************/
+  public static class Reduce extends Reducer<Visit, NullWritable, Text, Text>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private StringBuilder pagePath = new StringBuilder();
+    private Text pathRecord = new Text();
+    private Text sessionId = new Text();
+    private int maxPages;
+
+    /**************************************************************************
+    * Reads the cap on the number of pages in a path.
+    **************************************************************************/
+    @Override
+    protected void setup(Reducer<Visit, NullWritable, Text, Text>.Context context) throws IOException, InterruptedException
+    {
+      maxPages = context.getConfiguration().getInt(MAX_PAGES, DEFAULT_MAX_PAGES);
+    }
+
+    public void reduce(Visit key, Iterable<NullWritable> values, Reducer<Visit, NullWritable, Text, Text>.Context context) throws IOException, InterruptedException
+    {
+      sessionId.set(key.getSessionIdValue());
+      pagePath.setLength(0);
+
+      int hits = 0;
+      long firstHitTime = key.getHitTime();
+      long lastHitTime = firstHitTime;
+      for (NullWritable value : values)
+      {
+        if (hits < maxPages)
+        {
+          if (hits > 0)
+            pagePath.append(PAGE_SEPARATOR);
+
+          pagePath.append(key.getPageName().length() > 0 ? key.getPageName() : key.getPageUrl());
+        }
+        else if (hits == maxPages)
+          pagePath.append(PAGE_SEPARATOR).append(TRUNCATED);
+
+        //Hits with an unparseable page sequence sort first, whenever they were
+        firstHitTime = Math.min(firstHitTime, key.getHitTime());
+        lastHitTime = Math.max(lastHitTime, key.getHitTime());
+        hits++;
+      }
+
+      pathRecord.set(hits + "\t" + firstHitTime + "\t" + lastHitTime + "\t" + pagePath);
+      context.write(sessionId, pathRecord);
+    }
+  }
+
+  /****************************************************************************
+  * The Hadoop entry point. With -local, the job runs in this JVM on every
+  * core instead of on the cluster.
   ****************************************************************************/
   public static void main(String[] args) throws Exception
   {
@@ -50,7 +137,10 @@ public class VisitorPathing
     }
     
     Job visitorPathing = setupJob(appArguments[0], appArguments[1] + "/" + VisitorPathing.class.getSimpleName());
-    visitorPathing.waitForCompletion(true);
+    if (Arrays.asList(appArguments).indexOf("-local") > -1)
+      new LocalExecutionEngine().run(visitorPathing);
+    else
+      visitorPathing.waitForCompletion(true);
   }
 
   /****************************************************************************
@@ -60,17 +150,23 @@ public class VisitorPathing
   {
     //Create the MapReduce job and tell Hadoop about the classes
     Job visitorPathing = new Job(new Configuration());
-    visitorPathing.setJobName("Prepare Visitor Pathing");
+    visitorPathing.setJobName("Visitor Pathing");
     visitorPathing.setJarByClass(VisitorPathing.class);
     
-    //Tell Hadoop about the Mapper/Reducer
+    //Tell Hadoop about the Mapper/Reducer; sessions are partitioned and
+    //grouped by Session ID while the sort also orders them by Page Sequence
     visitorPathing.setMapperClass(VisitorPathing.Map.class);
+    visitorPathing.setPartitionerClass(SessionPartitioner.class);
+    visitorPathing.setGroupingComparatorClass(PageHit.SessionComparator.class);
+    visitorPathing.setReducerClass(VisitorPathing.Reduce.class);
     visitorPathing.setNumReduceTasks(visitorPathing.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
     
     //Tell Hadoop about the output
-    visitorPathing.setOutputKeyClass(Visit.class);
-    visitorPathing.setOutputValueClass(NullWritable.class);
-    visitorPathing.setInputFormatClass(SequenceFileInputFormat.class);
+    visitorPathing.setMapOutputKeyClass(Visit.class);
+    visitorPathing.setMapOutputValueClass(NullWritable.class);
+    visitorPathing.setOutputKeyClass(Text.class);
+    visitorPathing.setOutputValueClass(Text.class);
+    visitorPathing.setInputFormatClass(VisitInputFormat.class);
     visitorPathing.setOutputFormatClass(TextOutputFormat.class);
 
     //Set the input/output paths
@@ -80,6 +176,22 @@ public class VisitorPathing
     return visitorPathing;
   }
   
+  /****************************************************************************
+  * Configures the job that gathers the paths checkpointed for each partition
+  * of the input into one output; paths are complete, so they're copied as-is
+  * without a Reducer.
+  ****************************************************************************/
+  public static Job setupRollupJob(Path checkpointPath, String outputPath) throws Exception
+  {
+    Job visitorPathing = setupJob(checkpointPath.toString(), outputPath);
+    IncrementalInputTracker.setupRollup(visitorPathing, checkpointPath);
+    visitorPathing.setMapOutputKeyClass(Text.class);
+    visitorPathing.setMapOutputValueClass(Text.class);
+    visitorPathing.setNumReduceTasks(0);
+
+    return visitorPathing;
+  }
+
   /****************************************************************************
   * Wraps the Job in a ControlledJob, specifying dependent jobs.
   ****************************************************************************/
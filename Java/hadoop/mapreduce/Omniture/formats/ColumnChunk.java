@@ -0,0 +1,311 @@
+package hadoop.mapreduce.omniture.formats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import hadoop.platform.IpAddress;
+import hadoop.platform.StringDictionary;
+
+/******************************************************************************
+* The values of one column in one row group of a columnar Visit file. Values
+* are added one row at a time, then the chunk is sealed: strings are dictionary
+* encoded when that's smaller than writing them out, numbers are written as
+* deltas from the previous value with their minimum and maximum kept as
+* statistics, and the encoded bytes are compressed when a codec is given and
+* compression actually saves space.
+*
+* The header (encoding, statistics and lengths) is written apart from the data
+* so a reader can collect every header of a row group, then skip the row group
+* or the columns it doesn't need without reading them. The same instance is
+* re-populated for each row group, on either side.
+******************************************************************************/
+public class ColumnChunk
+{
+  //Encodings; the high bit flags compressed data
+  private static final byte PLAIN = 0;
+  private static final byte DICTIONARY = 1;
+  private static final byte DELTA = 2;
+  private static final byte COMPRESSED = (byte)0x80;
+
+  //Beyond this many distinct values a column isn't worth a dictionary
+  private static final int MAX_DICTIONARY_SIZE = 4096;
+
+  //Property variable declarations
+  private final DataOutputBuffer _Codes = new DataOutputBuffer();
+  private byte[] _Decoded = new byte[0];
+  private final StringDictionary _Dictionary = new StringDictionary();
+  private final DataOutputBuffer _Compressed = new DataOutputBuffer();
+  private final DataOutputBuffer _Encoded = new DataOutputBuffer();
+  private byte _Encoding;
+  private int _EncodedLength;
+  private final DataInputBuffer _Input = new DataInputBuffer();
+  private long _Maximum;
+  private long _Minimum;
+  private long _Previous;
+  private int _StoredLength;
+  private final VisitColumn.Type _Type;
+  private int _ValueCount;
+  private final DataOutputBuffer _Values = new DataOutputBuffer();
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the largest value of a numeric column.
+  ****************************************************************************/
+  public long getMaximum()
+  {
+    return _Maximum;
+  }
+
+  /****************************************************************************
+  * Gets the smallest value of a numeric column.
+  ****************************************************************************/
+  public long getMinimum()
+  {
+    return _Minimum;
+  }
+
+  /****************************************************************************
+  * Gets the number of bytes the column's data takes in the file.
+  ****************************************************************************/
+  public int getStoredLength()
+  {
+    return _StoredLength;
+  }
+
+  /****************************************************************************
+  * Gets the number of values added since the chunk was cleared.
+  ****************************************************************************/
+  public int getValueCount()
+  {
+    return _ValueCount;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes an empty chunk for a column of the given type.
+  ****************************************************************************/
+  public ColumnChunk(VisitColumn.Type type)
+  {
+    _Type = type;
+    clear();
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Adds a binary IP address.
+  ****************************************************************************/
+  public void add(IpAddress value) throws IOException
+  {
+    value.write(_Values);
+    _ValueCount++;
+  }
+
+  /****************************************************************************
+  * Adds a number, keeping the minimum and maximum.
+  ****************************************************************************/
+  public void add(long value) throws IOException
+  {
+    WritableUtils.writeVLong(_Values, value - _Previous);
+    _Previous = value;
+    _Minimum = Math.min(_Minimum, value);
+    _Maximum = Math.max(_Maximum, value);
+    _ValueCount++;
+  }
+
+  /****************************************************************************
+  * Adds a string; the dictionary is kept up until it grows too large.
+  ****************************************************************************/
+  public void add(String value) throws IOException
+  {
+    Text.writeString(_Values, value);
+    if (_Dictionary.size() <= MAX_DICTIONARY_SIZE)
+      WritableUtils.writeVInt(_Codes, _Dictionary.encode(value));
+
+    _ValueCount++;
+  }
+
+  /****************************************************************************
+  * Empties the chunk so it can be re-populated.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Codes.reset();
+    _Compressed.reset();
+    _Dictionary.clear();
+    _Encoded.reset();
+    _Values.reset();
+    _Input.reset(_Decoded, 0);
+    _Encoding = PLAIN;
+    _EncodedLength = 0;
+    _Maximum = Long.MIN_VALUE;
+    _Minimum = Long.MAX_VALUE;
+    _Previous = 0;
+    _StoredLength = 0;
+    _ValueCount = 0;
+  }
+
+  /****************************************************************************
+  * Gets the next binary IP address of a chunk that was read.
+  ****************************************************************************/
+  public void nextIpAddress(IpAddress target) throws IOException
+  {
+    target.readFields(_Input);
+  }
+
+  /****************************************************************************
+  * Gets the next number of a chunk that was read.
+  ****************************************************************************/
+  public long nextLong() throws IOException
+  {
+    _Previous += WritableUtils.readVLong(_Input);
+    return _Previous;
+  }
+
+  /****************************************************************************
+  * Gets the next string of a chunk that was read.
+  ****************************************************************************/
+  public String nextString() throws IOException
+  {
+    if (_Encoding == DICTIONARY)
+      return _Dictionary.decode(WritableUtils.readVInt(_Input));
+
+    return Text.readString(_Input);
+  }
+
+  /****************************************************************************
+  * Reads the column's data, which follows the row group's headers, and
+  * decompresses it; the codec may be null if the file isn't compressed.
+  ****************************************************************************/
+  public void readData(DataInput input, CompressionCodec codec, Decompressor decompressor) throws IOException
+  {
+    _Values.reset();
+    _Values.write(input, _StoredLength);
+    _Input.reset(_Values.getData(), _StoredLength);
+
+    if ((_Encoding & COMPRESSED) != 0)
+    {
+      if (codec == null)
+        throw new IOException("A compressed column chunk needs a codec.");
+
+      if (_Decoded.length < _EncodedLength)
+        _Decoded = new byte[Math.max(_EncodedLength, _Decoded.length * 2)];
+
+      decompressor.reset();
+      CompressionInputStream decompressed = codec.createInputStream(_Input, decompressor);
+      IOUtils.readFully(decompressed, _Decoded, 0, _EncodedLength);
+      _Input.reset(_Decoded, _EncodedLength);
+      _Encoding &= ~COMPRESSED;
+    }
+
+    _Previous = 0;
+    if (_Encoding == DICTIONARY)
+      _Dictionary.readFields(_Input);
+  }
+
+  /****************************************************************************
+  * Reads the header of the column, replacing the chunk's contents.
+  ****************************************************************************/
+  public void readHeader(DataInput input) throws IOException
+  {
+    clear();
+
+    _Encoding = input.readByte();
+    if (_Type == VisitColumn.Type.NUMBER)
+    {
+      _Minimum = WritableUtils.readVLong(input);
+      _Maximum = WritableUtils.readVLong(input);
+    }
+
+    _StoredLength = WritableUtils.readVInt(input);
+    _EncodedLength = ((_Encoding & COMPRESSED) != 0) ? WritableUtils.readVInt(input) : _StoredLength;
+    if (_StoredLength < 0 || _EncodedLength < 0)
+      throw new IOException("Invalid column chunk length: " + _StoredLength);
+  }
+
+  /****************************************************************************
+  * Encodes the values added and compresses them if that makes them smaller;
+  * the codec and compressor may be null to leave the chunk uncompressed.
+  ****************************************************************************/
+  public void seal(CompressionCodec codec, Compressor compressor) throws IOException
+  {
+    _Encoded.reset();
+    _Encoding = (_Type == VisitColumn.Type.NUMBER) ? DELTA : PLAIN;
+
+    if (_Type == VisitColumn.Type.STRING && _Dictionary.size() <= MAX_DICTIONARY_SIZE)
+    {
+      _Dictionary.write(_Encoded);
+      _Encoded.write(_Codes.getData(), 0, _Codes.getLength());
+      if (_Encoded.getLength() < _Values.getLength())
+        _Encoding = DICTIONARY;
+      else
+        _Encoded.reset();
+    }
+
+    if (_Encoding != DICTIONARY)
+      _Encoded.write(_Values.getData(), 0, _Values.getLength());
+
+    _EncodedLength = _Encoded.getLength();
+    _StoredLength = _EncodedLength;
+
+    if (codec != null)
+    {
+      _Compressed.reset();
+      compressor.reset();
+      CompressionOutputStream compressed = codec.createOutputStream(_Compressed, compressor);
+      compressed.write(_Encoded.getData(), 0, _Encoded.getLength());
+      compressed.finish();
+
+      if (_Compressed.getLength() < _EncodedLength)
+      {
+        _Encoding |= COMPRESSED;
+        _StoredLength = _Compressed.getLength();
+      }
+    }
+  }
+
+  /****************************************************************************
+  * Writes the data of a sealed chunk.
+  ****************************************************************************/
+  public void writeData(DataOutput output) throws IOException
+  {
+    if ((_Encoding & COMPRESSED) != 0)
+      output.write(_Compressed.getData(), 0, _Compressed.getLength());
+    else
+      output.write(_Encoded.getData(), 0, _Encoded.getLength());
+  }
+
+  /****************************************************************************
+  * Writes the header of a sealed chunk.
+  ****************************************************************************/
+  public void writeHeader(DataOutput output) throws IOException
+  {
+    output.writeByte(_Encoding);
+    if (_Type == VisitColumn.Type.NUMBER)
+    {
+      WritableUtils.writeVLong(output, _Minimum);
+      WritableUtils.writeVLong(output, _Maximum);
+    }
+
+    WritableUtils.writeVInt(output, _StoredLength);
+    if ((_Encoding & COMPRESSED) != 0)
+      WritableUtils.writeVInt(output, _EncodedLength);
+  }
+}
\ No newline at end of file
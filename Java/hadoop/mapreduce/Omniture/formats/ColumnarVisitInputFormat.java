@@ -0,0 +1,301 @@
+package hadoop.mapreduce.omniture.formats;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import hadoop.mapreduce.omniture.models.Location;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.platform.IpAddress;
+
+/******************************************************************************
+* Reads the Visits written by ColumnarVisitOutputFormat. A job can name the
+* columns it needs with setColumns(), and only those chunks are read; the other
+* properties of the Visit are left empty. A hit time range set with
+* setHitTimeRange() skips every row group whose statistics fall outside it,
+* without reading its data, and filters the rows of the row groups that are
+* read. Files aren't split; each one is a single task's output.
+******************************************************************************/
+public class ColumnarVisitInputFormat extends FileInputFormat<NullWritable, Visit>
+{
+  //Constants
+  public static final String COLUMNS = "omniture.columnar.columns";
+  public static final String HIT_TIME_FROM = "omniture.columnar.hittime.from";
+  public static final String HIT_TIME_TO = "omniture.columnar.hittime.to";
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Limits the job to reading the given columns.
+  ****************************************************************************/
+  public static void setColumns(Job job, VisitColumn... columns)
+  {
+    String[] names = new String[columns.length];
+    for (int index = 0; index < columns.length; index++)
+      names[index] = columns[index].name();
+
+    job.getConfiguration().setStrings(COLUMNS, names);
+  }
+
+  /****************************************************************************
+  * Limits the job to Visits hit from (inclusive) to (exclusive) the given
+  * times, in milliseconds since the epoch.
+  ****************************************************************************/
+  public static void setHitTimeRange(Job job, long from, long to)
+  {
+    job.getConfiguration().setLong(HIT_TIME_FROM, from);
+    job.getConfiguration().setLong(HIT_TIME_TO, to);
+  }
+
+  @Override
+  public RecordReader<NullWritable, Visit> createRecordReader(InputSplit split, TaskAttemptContext context) throws IOException
+  {
+    return new ColumnarRecordReader();
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file)
+  {
+    return false;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Reads a row group's headers, then either skips it or reads the chunks of
+  * the projected columns and assembles Visits from them a row at a time.
+  ****************************************************************************/
+  private static class ColumnarRecordReader extends RecordReader<NullWritable, Visit>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private CompressionCodec _Codec;
+    private final ColumnChunk[] _Columns = new ColumnChunk[VisitColumn.values().length];
+    private Decompressor _Decompressor;
+    private long _End;
+    private long _From;
+    private FSDataInputStream _Input;
+    private final IpAddress _IpAddress = new IpAddress();
+    private final Location _Location = new Location();
+    private final boolean[] _Projected = new boolean[VisitColumn.values().length];
+    private int _RowCount;
+    private int _RowsRead;
+    private long _Start;
+    private long _To;
+    private final Visit _Value = new Visit();
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException
+    {
+      Configuration conf = context.getConfiguration();
+      FileSplit fileSplit = (FileSplit)split;
+      Path file = fileSplit.getPath();
+
+      _Input = file.getFileSystem(conf).open(file);
+      _Start = fileSplit.getStart();
+      _End = _Start + fileSplit.getLength();
+
+      byte[] magic = new byte[ColumnarVisitOutputFormat.MAGIC.length];
+      _Input.readFully(magic);
+      if (!Arrays.equals(magic, ColumnarVisitOutputFormat.MAGIC))
+        throw new IOException(file + " isn't a columnar Visit file.");
+
+      String codecName = Text.readString(_Input);
+      if (codecName.length() > 0)
+      {
+        try
+        {
+          _Codec = (CompressionCodec)ReflectionUtils.newInstance(conf.getClassByName(codecName), conf);
+          _Decompressor = CodecPool.getDecompressor(_Codec);
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+          throw new IOException("Unknown compression codec: " + codecName, cnfe);
+        }
+      }
+
+      //Read every column unless the job asked for some
+      String[] columnNames = conf.getStrings(COLUMNS);
+      Arrays.fill(_Projected, columnNames == null);
+      if (columnNames != null)
+      {
+        for (String columnName : columnNames)
+          _Projected[VisitColumn.valueOf(columnName.trim()).ordinal()] = true;
+      }
+
+      //The hit time range needs the hit time
+      _From = conf.getLong(HIT_TIME_FROM, Long.MIN_VALUE);
+      _To = conf.getLong(HIT_TIME_TO, Long.MAX_VALUE);
+      if (_From != Long.MIN_VALUE || _To != Long.MAX_VALUE)
+        _Projected[VisitColumn.HIT_TIME.ordinal()] = true;
+
+      for (VisitColumn column : VisitColumn.values())
+        _Columns[column.ordinal()] = new ColumnChunk(column.getType());
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException
+    {
+      while (true)
+      {
+        if (_RowsRead >= _RowCount && !readRowGroup())
+          return false;
+
+        _RowsRead++;
+        assemble();
+
+        if (_Value.getHitTime() >= _From && _Value.getHitTime() < _To)
+          return true;
+      }
+    }
+
+    @Override
+    public NullWritable getCurrentKey()
+    {
+      return NullWritable.get();
+    }
+
+    @Override
+    public Visit getCurrentValue()
+    {
+      return _Value;
+    }
+
+    @Override
+    public float getProgress() throws IOException
+    {
+      if (_End == _Start)
+        return 1.0f;
+
+      return Math.min(1.0f, (_Input.getPos() - _Start) / (float)(_End - _Start));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (_Decompressor != null)
+      {
+        CodecPool.returnDecompressor(_Decompressor);
+        _Decompressor = null;
+      }
+
+      if (_Input != null)
+        _Input.close();
+    }
+
+    /**************************************************************************
+    * Populates the Visit with the next row of the projected columns.
+    **************************************************************************/
+    private void assemble() throws IOException
+    {
+      if (_Projected[VisitColumn.IP_ADDRESS.ordinal()])
+        column(VisitColumn.IP_ADDRESS).nextIpAddress(_IpAddress);
+      else
+        _IpAddress.clear();
+
+      _Location.set(nextString(VisitColumn.ZIP_CODE), nextString(VisitColumn.COUNTY), nextString(VisitColumn.STATE), nextString(VisitColumn.GEO_CITY), nextString(VisitColumn.GEO_STATE));
+
+      _Value.set(nextLong(VisitColumn.HIT_TIME),
+        _IpAddress,
+        nextString(VisitColumn.PAGE_URL),
+        nextString(VisitColumn.REFERER),
+        nextString(VisitColumn.BROWSER),
+        nextString(VisitColumn.PAGE_NAME),
+        (int)nextLong(VisitColumn.PAGE_SEQUENCE),
+        nextString(VisitColumn.SESSION_ID),
+        nextString(VisitColumn.TRAFFIC_SOURCE),
+        (int)nextLong(VisitColumn.VISIT_NUMBER),
+        nextString(VisitColumn.SECTION),
+        nextString(VisitColumn.INTENT),
+        _Location);
+
+      _Value.setCampaignSource(nextString(VisitColumn.CAMPAIGN_SOURCE));
+      _Value.setCampaignMedium(nextString(VisitColumn.CAMPAIGN_MEDIUM));
+      _Value.setCampaignName(nextString(VisitColumn.CAMPAIGN_NAME));
+      _Value.setCampaignTerm(nextString(VisitColumn.CAMPAIGN_TERM));
+      _Value.setCampaignContent(nextString(VisitColumn.CAMPAIGN_CONTENT));
+    }
+
+    /**************************************************************************
+    * Gets the chunk of a column.
+    **************************************************************************/
+    private ColumnChunk column(VisitColumn column)
+    {
+      return _Columns[column.ordinal()];
+    }
+
+    /**************************************************************************
+    * Gets the next number of a column; 0 if it isn't projected.
+    **************************************************************************/
+    private long nextLong(VisitColumn column) throws IOException
+    {
+      return _Projected[column.ordinal()] ? column(column).nextLong() : 0;
+    }
+
+    /**************************************************************************
+    * Gets the next string of a column; empty if it isn't projected.
+    **************************************************************************/
+    private String nextString(VisitColumn column) throws IOException
+    {
+      return _Projected[column.ordinal()] ? column(column).nextString() : "";
+    }
+
+    /**************************************************************************
+    * Reads the next row group that overlaps the hit time range, skipping the
+    * data of the ones that don't; false at the end of the file.
+    **************************************************************************/
+    private boolean readRowGroup() throws IOException
+    {
+      while (_Input.getPos() < _End)
+      {
+        _RowCount = WritableUtils.readVInt(_Input);
+        _RowsRead = 0;
+
+        long dataLength = 0;
+        for (ColumnChunk chunk : _Columns)
+        {
+          chunk.readHeader(_Input);
+          dataLength += chunk.getStoredLength();
+        }
+
+        ColumnChunk hitTimes = column(VisitColumn.HIT_TIME);
+        if (hitTimes.getMaximum() < _From || hitTimes.getMinimum() >= _To)
+        {
+          _Input.seek(_Input.getPos() + dataLength);
+          continue;
+        }
+
+        for (VisitColumn column : VisitColumn.values())
+        {
+          if (_Projected[column.ordinal()])
+            column(column).readData(_Input, _Codec, _Decompressor);
+          else
+            _Input.seek(_Input.getPos() + column(column).getStoredLength());
+        }
+
+        if (_RowCount > 0)
+          return true;
+      }
+
+      return false;
+    }
+  }
+}
\ No newline at end of file
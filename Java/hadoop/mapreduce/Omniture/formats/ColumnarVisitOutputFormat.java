@@ -0,0 +1,168 @@
+package hadoop.mapreduce.omniture.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import hadoop.mapreduce.omniture.models.Location;
+import hadoop.mapreduce.omniture.models.Visit;
+
+/******************************************************************************
+* Writes Visits column by column: rows are buffered into row groups of
+* "omniture.columnar.rowgroup.records" Visits, and each row group is written as
+* a header holding every column's encoding, statistics and length, followed by
+* the columns' chunks. The file starts with a magic number and the name of the
+* codec the chunks are compressed with, which is the job's output compression
+* codec when output compression is turned on. Read the files back with
+* ColumnarVisitInputFormat.
+******************************************************************************/
+public class ColumnarVisitOutputFormat extends FileOutputFormat<NullWritable, Visit>
+{
+  //Constants
+  public static final String ROW_GROUP_RECORDS = "omniture.columnar.rowgroup.records";
+  public static final int DEFAULT_ROW_GROUP_RECORDS = 65536;
+  static final byte[] MAGIC = new byte[] { 'C', 'V', 'F', 1 };
+
+  @Override
+  public RecordWriter<NullWritable, Visit> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException
+  {
+    Configuration conf = context.getConfiguration();
+    CompressionCodec codec = null;
+    if (getCompressOutput(context))
+      codec = ReflectionUtils.newInstance(getOutputCompressorClass(context, DefaultCodec.class), conf);
+
+    Path file = getDefaultWorkFile(context, ".cvf");
+    FSDataOutputStream output = file.getFileSystem(conf).create(file, false);
+    return new RowGroupWriter(output, codec, conf.getInt(ROW_GROUP_RECORDS, DEFAULT_ROW_GROUP_RECORDS));
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Splits Visits into column chunks and writes them out a row group at a time.
+  ****************************************************************************/
+  private static class RowGroupWriter extends RecordWriter<NullWritable, Visit>
+  {
+    //Property variable declarations
+    private final CompressionCodec _Codec;
+    private final ColumnChunk[] _Columns = new ColumnChunk[VisitColumn.values().length];
+    private final Compressor _Compressor;
+    private final FSDataOutputStream _Output;
+    private final int _RowGroupRecords;
+    private int _RowCount;
+
+    /**************************************************************************
+    * Initializes a writer and writes the file header; the codec may be null.
+    **************************************************************************/
+    public RowGroupWriter(FSDataOutputStream output, CompressionCodec codec, int rowGroupRecords) throws IOException
+    {
+      if (rowGroupRecords < 1)
+        throw new IllegalArgumentException(ROW_GROUP_RECORDS + " must be at least 1.");
+
+      for (VisitColumn column : VisitColumn.values())
+        _Columns[column.ordinal()] = new ColumnChunk(column.getType());
+
+      _Codec = codec;
+      _Compressor = (codec != null) ? CodecPool.getCompressor(codec) : null;
+      _Output = output;
+      _RowGroupRecords = rowGroupRecords;
+
+      _Output.write(MAGIC);
+      Text.writeString(_Output, (codec != null) ? codec.getClass().getName() : "");
+    }
+
+    @Override
+    public void write(NullWritable key, Visit value) throws IOException
+    {
+      Location location = value.getLocation();
+
+      column(VisitColumn.SESSION_ID).add(value.getSessionId());
+      column(VisitColumn.PAGE_SEQUENCE).add(value.getPageSequence());
+      column(VisitColumn.HIT_TIME).add(value.getHitTime());
+      column(VisitColumn.IP_ADDRESS).add(value.getIpAddressValue());
+      column(VisitColumn.VISIT_NUMBER).add(value.getVisitNumber());
+      column(VisitColumn.PAGE_URL).add(value.getPageUrl());
+      column(VisitColumn.REFERER).add(value.getReferer());
+      column(VisitColumn.BROWSER).add(value.getBrowser());
+      column(VisitColumn.PAGE_NAME).add(value.getPageName());
+      column(VisitColumn.TRAFFIC_SOURCE).add(value.getTrafficSource());
+      column(VisitColumn.INTENT).add(value.getIntent());
+      column(VisitColumn.SECTION).add(value.getSection());
+      column(VisitColumn.CAMPAIGN_SOURCE).add(value.getCampaignSource());
+      column(VisitColumn.CAMPAIGN_MEDIUM).add(value.getCampaignMedium());
+      column(VisitColumn.CAMPAIGN_NAME).add(value.getCampaignName());
+      column(VisitColumn.CAMPAIGN_TERM).add(value.getCampaignTerm());
+      column(VisitColumn.CAMPAIGN_CONTENT).add(value.getCampaignContent());
+      column(VisitColumn.ZIP_CODE).add(location.getZipCode());
+      column(VisitColumn.COUNTY).add(location.getCounty());
+      column(VisitColumn.STATE).add(location.getState());
+      column(VisitColumn.GEO_CITY).add(location.getGeoCity());
+      column(VisitColumn.GEO_STATE).add(location.getGeoState());
+
+      if (++_RowCount >= _RowGroupRecords)
+        flush();
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException
+    {
+      try
+      {
+        flush();
+      }
+      finally
+      {
+        if (_Compressor != null)
+          CodecPool.returnCompressor(_Compressor);
+
+        _Output.close();
+      }
+    }
+
+    /**************************************************************************
+    * Gets the chunk of a column.
+    **************************************************************************/
+    private ColumnChunk column(VisitColumn column)
+    {
+      return _Columns[column.ordinal()];
+    }
+
+    /**************************************************************************
+    * Writes the buffered rows as a row group, if there are any.
+    **************************************************************************/
+    private void flush() throws IOException
+    {
+      if (_RowCount == 0)
+        return;
+
+      for (ColumnChunk chunk : _Columns)
+        chunk.seal(_Codec, _Compressor);
+
+      WritableUtils.writeVInt(_Output, _RowCount);
+      for (ColumnChunk chunk : _Columns)
+        chunk.writeHeader(_Output);
+
+      for (ColumnChunk chunk : _Columns)
+      {
+        chunk.writeData(_Output);
+        chunk.clear();
+      }
+
+      _RowCount = 0;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package hadoop.mapreduce.omniture.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.omniture.models.VisitBlock;
+
+/******************************************************************************
+* Writes Visits to a SequenceFile in dictionary-encoded VisitBlocks instead of
+* one record per Visit; each block carries its own dictionary, so blocks stay
+* independent and splits can start at any sync point. The number of Visits
+* per block is read from "omniture.visitblock.records". Read the files back
+* with VisitInputFormat.
+******************************************************************************/
+public class DictionaryVisitOutputFormat extends SequenceFileOutputFormat<NullWritable, Visit>
+{
+  //Constants
+  public static final String BLOCK_RECORDS = "omniture.visitblock.records";
+  public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+  @Override
+  public RecordWriter<NullWritable, Visit> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException
+  {
+    SequenceFile.Writer blockFile = getSequenceWriter(context, NullWritable.class, VisitBlock.class);
+    return new BlockWriter(blockFile, context.getConfiguration().getInt(BLOCK_RECORDS, DEFAULT_BLOCK_RECORDS));
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Buffers Visits into a VisitBlock and appends it each time it's full.
+  ****************************************************************************/
+  private static class BlockWriter extends RecordWriter<NullWritable, Visit>
+  {
+    //Property variable declarations
+    private final VisitBlock _Block = new VisitBlock();
+    private final SequenceFile.Writer _BlockFile;
+    private final int _BlockRecords;
+
+    /**************************************************************************
+    * Initializes a writer that appends blocks of the given size to the file.
+    **************************************************************************/
+    public BlockWriter(SequenceFile.Writer blockFile, int blockRecords)
+    {
+      if (blockRecords < 1)
+        throw new IllegalArgumentException(BLOCK_RECORDS + " must be at least 1.");
+
+      _BlockFile = blockFile;
+      _BlockRecords = blockRecords;
+    }
+
+    @Override
+    public void write(NullWritable key, Visit value) throws IOException
+    {
+      _Block.add(value);
+      if (_Block.getRecordCount() >= _BlockRecords)
+        flush();
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException
+    {
+      flush();
+      _BlockFile.close();
+    }
+
+    /**************************************************************************
+    * Appends the buffered Visits, if there are any, and empties the block.
+    **************************************************************************/
+    private void flush() throws IOException
+    {
+      if (_Block.getRecordCount() > 0)
+      {
+        _BlockFile.append(NullWritable.get(), _Block);
+        _Block.clear();
+      }
+    }
+  }
+}
\ No newline at end of file
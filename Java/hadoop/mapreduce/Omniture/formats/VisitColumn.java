@@ -0,0 +1,68 @@
+package hadoop.mapreduce.omniture.formats;
+
+/******************************************************************************
+* The columns of a Visit in the columnar file format, in the order their chunks
+* are stored in a row group. Jobs name the columns they need through
+* ColumnarVisitInputFormat.setColumns(); the rest are skipped unread.
+******************************************************************************/
+public enum VisitColumn
+{
+  SESSION_ID(Type.STRING),
+  PAGE_SEQUENCE(Type.NUMBER),
+  HIT_TIME(Type.NUMBER),
+  IP_ADDRESS(Type.IP_ADDRESS),
+  VISIT_NUMBER(Type.NUMBER),
+  PAGE_URL(Type.STRING),
+  REFERER(Type.STRING),
+  BROWSER(Type.STRING),
+  PAGE_NAME(Type.STRING),
+  TRAFFIC_SOURCE(Type.STRING),
+  INTENT(Type.STRING),
+  SECTION(Type.STRING),
+  CAMPAIGN_SOURCE(Type.STRING),
+  CAMPAIGN_MEDIUM(Type.STRING),
+  CAMPAIGN_NAME(Type.STRING),
+  CAMPAIGN_TERM(Type.STRING),
+  CAMPAIGN_CONTENT(Type.STRING),
+  ZIP_CODE(Type.STRING),
+  COUNTY(Type.STRING),
+  STATE(Type.STRING),
+  GEO_CITY(Type.STRING),
+  GEO_STATE(Type.STRING);
+
+  /****************************************************************************
+  * How a column's values are stored: strings are plain or dictionary encoded,
+  * numbers are delta encoded with min/max statistics, IP addresses are binary.
+  ****************************************************************************/
+  public static enum Type
+  {
+    IP_ADDRESS,
+    NUMBER,
+    STRING
+  }
+
+  //Property variable declarations
+  private final Type _Type;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets how the column's values are stored.
+  ****************************************************************************/
+  public Type getType()
+  {
+    return _Type;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a column of the given type.
+  ****************************************************************************/
+  private VisitColumn(Type type)
+  {
+    _Type = type;
+  }
+}
\ No newline at end of file
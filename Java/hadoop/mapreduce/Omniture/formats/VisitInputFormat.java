@@ -0,0 +1,101 @@
+package hadoop.mapreduce.omniture.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.mapreduce.omniture.models.VisitBlock;
+
+/******************************************************************************
+* Reads the Visits written by the ClickStream job, whether they were written
+* one record per Visit by SequenceFileOutputFormat or in dictionary-encoded
+* blocks by DictionaryVisitOutputFormat; the value class in each file's header
+* decides, so jobs reading Visits don't need to know how they were stored.
+******************************************************************************/
+public class VisitInputFormat extends SequenceFileInputFormat<NullWritable, Visit>
+{
+  @Override
+  public RecordReader<NullWritable, Visit> createRecordReader(InputSplit split, TaskAttemptContext context) throws IOException
+  {
+    return new VisitRecordReader();
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Hands out plain Visits as they're read and expands VisitBlocks into the
+  * Visits they hold; split boundaries are handled by SequenceFileRecordReader.
+  ****************************************************************************/
+  private static class VisitRecordReader extends RecordReader<NullWritable, Visit>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private final SequenceFileRecordReader<NullWritable, Writable> _FileReader = new SequenceFileRecordReader<NullWritable, Writable>();
+    private final Visit _BlockVisit = new Visit();
+    private VisitBlock _Block;
+    private Visit _Value;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException
+    {
+      _FileReader.initialize(split, context);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException
+    {
+      while (_Block == null || !_Block.hasNext())
+      {
+        _Block = null;
+        if (!_FileReader.nextKeyValue())
+          return false;
+
+        Writable value = _FileReader.getCurrentValue();
+        if (value instanceof Visit)
+        {
+          _Value = (Visit)value;
+          return true;
+        }
+        else if (value instanceof VisitBlock)
+          _Block = (VisitBlock)value;
+        else
+          throw new IOException("Expected Visit or VisitBlock values, not " + value.getClass().getName() + ".");
+      }
+
+      _Block.next(_BlockVisit);
+      _Value = _BlockVisit;
+      return true;
+    }
+
+    @Override
+    public NullWritable getCurrentKey()
+    {
+      return NullWritable.get();
+    }
+
+    @Override
+    public Visit getCurrentValue()
+    {
+      return _Value;
+    }
+
+    @Override
+    public float getProgress() throws IOException
+    {
+      return _FileReader.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      _FileReader.close();
+    }
+  }
+}
\ No newline at end of file
@@ -7,20 +7,29 @@ import java.util.regex.Matcher;
 
 import org.apache.hadoop.io.WritableComparable;
 
-import platform.TextParsing;
+import hadoop.platform.LazyFieldBuffer;
+import hadoop.platform.StringDictionary;
+import hadoop.platform.TextParsing;
 
 /******************************************************************************
 * This class encapsulates all of the data to be parsed from the Omniture
-* click-stream data.
+* click-stream data. The fields are held in a LazyFieldBuffer, so reading one
+* only copies bytes and a field is decoded the first time it's asked for.
 ******************************************************************************/
 public class Location implements WritableComparable<Location>
 {
+  //Fields, in serialized order
+  private static final int ZIP_CODE = 0;
+  private static final int COUNTY = 1;
+  private static final int STATE = 2;
+  private static final int GEO_CITY = 3;
+  private static final int GEO_STATE = 4;
+
+  //Low-cardinality fields, dictionary encoded in bulk storage
+  private static final int DICTIONARY_FIELDS = (1 << COUNTY) | (1 << STATE) | (1 << GEO_STATE);
+
   //Property variable declarations
-  private String _County;
-  private String _GeoCity;
-  private String _GeoState;
-  private String _State;
-  private String _ZipCode;
+  private final LazyFieldBuffer _Fields = new LazyFieldBuffer(5);
   
   //###########################################################################
   // Public Properties
@@ -30,7 +39,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public String getCounty()
   {
-    return (_County != null) ? _County : "";
+    return _Fields.get(COUNTY);
   }
   
   /****************************************************************************
@@ -38,7 +47,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public String getGeoCity()
   {
-    return (_GeoCity != null) ? _GeoCity : "";
+    return _Fields.get(GEO_CITY);
   }
   
   /****************************************************************************
@@ -46,7 +55,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public String getGeoState()
   {
-    return (_GeoState != null) ? _GeoState : "";
+    return _Fields.get(GEO_STATE);
   }
   
   /****************************************************************************
@@ -54,7 +63,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public String getState()
   {
-    return (_State != null) ? _State : "";
+    return _Fields.get(STATE);
   }
   
   /****************************************************************************
@@ -62,7 +71,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public String getZipCode()
   {
-    return (_ZipCode != null) ? _ZipCode : "";
+    return _Fields.get(ZIP_CODE);
   }
   
   /****************************************************************************
@@ -70,7 +79,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public void setCounty(String value)
   {
-    _County = value;
+    _Fields.set(COUNTY, value);
   }
   
   /****************************************************************************
@@ -78,7 +87,7 @@ public class Location implements WritableComparable<Location>
   ****************************************************************************/
   public void setGeoCity(String value)
   {
-    _GeoCity = value;
+    _Fields.set(GEO_CITY, value);
   }
   
   /****************************************************************************
@@ -88,7 +97,7 @@ public class Location implements WritableComparable<Location>
   {
     Matcher stateValidation = TextParsing.REGEX_STATE.matcher(value);
     if (stateValidation.matches())
-      _GeoState = value;
+      _Fields.set(GEO_STATE, value);
   }
   
   /****************************************************************************
@@ -98,7 +107,7 @@ public class Location implements WritableComparable<Location>
   {
     Matcher stateValidation = TextParsing.REGEX_STATE.matcher(value);
     if (stateValidation.matches())
-      _State = value;
+      _Fields.set(STATE, value);
   }
   
   /****************************************************************************
@@ -108,7 +117,7 @@ public class Location implements WritableComparable<Location>
   {
     Matcher zipValidation = TextParsing.REGEX_ZIP_CODE.matcher(value);
     if (zipValidation.matches())
-      _ZipCode = value;
+      _Fields.set(ZIP_CODE, value);
   }
   
   //###########################################################################
@@ -135,27 +144,19 @@ public class Location implements WritableComparable<Location>
   @Override
   public void readFields(DataInput input) throws IOException
   {
-    _ZipCode = input.readUTF();
-    _County = input.readUTF();
-    _State = input.readUTF();
-    _GeoCity = input.readUTF();
-    _GeoState = input.readUTF();
+    readFields(input, null);
   }
 
   @Override
   public void write(DataOutput output) throws IOException
   {
-    output.writeUTF(this.getZipCode());
-    output.writeUTF(this.getCounty());
-    output.writeUTF(this.getState());
-    output.writeUTF(this.getGeoCity());
-    output.writeUTF(this.getGeoState());
+    write(output, null);
   }
 
   @Override
   public int compareTo(Location targetLocation)
   {
-    return _ZipCode.compareTo(targetLocation.getZipCode());
+    return this.getZipCode().compareTo(targetLocation.getZipCode());
   }
   
   //###########################################################################
@@ -167,11 +168,11 @@ public class Location implements WritableComparable<Location>
     if (equalityTarget instanceof Location)
     {
       Location forEquality = (Location)equalityTarget; 
-      return _County.equals(forEquality.getCounty())
-        && _GeoCity.equals(forEquality.getGeoCity())
-        && _GeoState.equals(forEquality.getGeoState())
-        && _State.equals(forEquality.getState())
-        && _ZipCode.equals(forEquality.getZipCode());
+      return this.getCounty().equals(forEquality.getCounty())
+        && this.getGeoCity().equals(forEquality.getGeoCity())
+        && this.getGeoState().equals(forEquality.getGeoState())
+        && this.getState().equals(forEquality.getState())
+        && this.getZipCode().equals(forEquality.getZipCode());
     }
     
     return false;
@@ -180,32 +181,62 @@ public class Location implements WritableComparable<Location>
   @Override
   public int hashCode()
   {
-    return _ZipCode.hashCode();
+    return this.getZipCode().hashCode();
   }
   
   @Override
   public String toString()
   {
-    return _ZipCode + "\t"
-      + _County + "\t"
-      + _State + "\t"
-      + _GeoCity + "\t"
-      + _GeoState;
+    return this.getZipCode() + "\t"
+      + this.getCounty() + "\t"
+      + this.getState() + "\t"
+      + this.getGeoCity() + "\t"
+      + this.getGeoState();
   }
   
   //###########################################################################
   // Public Methods
   //###########################################################################
+  /****************************************************************************
+  * Reads the location; when a dictionary is given, the low-cardinality fields
+  * are read as codes into it.
+  ****************************************************************************/
+  public void readFields(DataInput input, StringDictionary dictionary) throws IOException
+  {
+    _Fields.readFields(input, dictionary, DICTIONARY_FIELDS);
+  }
+
   /****************************************************************************
   * Populates the properties with the given values; used by the Mapper
   * so the object can be re-populated instead of instantiated each time.
   ****************************************************************************/
   public void set(String zipCode, String county, String state, String geoCity, String geoState)
   {
-    _ZipCode = zipCode;
-    _County = county;
-    _State = state;
-    _GeoCity = geoCity;
-    _GeoState = geoState;
+    _Fields.set(ZIP_CODE, zipCode);
+    _Fields.set(COUNTY, county);
+    _Fields.set(STATE, state);
+    _Fields.set(GEO_CITY, geoCity);
+    _Fields.set(GEO_STATE, geoState);
+  }
+
+  /****************************************************************************
+  * Copies another location into this one without decoding its fields; an
+  * empty location if the value is null.
+  ****************************************************************************/
+  public void set(Location value)
+  {
+    if (value != null)
+      _Fields.copy(value._Fields);
+    else
+      _Fields.clear();
+  }
+
+  /****************************************************************************
+  * Writes the location; when a dictionary is given, the low-cardinality fields
+  * are written as codes into it.
+  ****************************************************************************/
+  public void write(DataOutput output, StringDictionary dictionary) throws IOException
+  {
+    _Fields.write(output, dictionary, DICTIONARY_FIELDS);
   }
-}
+}
\ No newline at end of file
@@ -6,31 +6,58 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
-import platform.TextParsing;
+import hadoop.platform.IpAddress;
+import hadoop.platform.LazyFieldBuffer;
+import hadoop.platform.StringDictionary;
 
 /******************************************************************************
 * This class encapsulates the basic data representing a page hit parsed from
-* the Omniture click-stream data.
+* the Omniture click-stream data. The serialized form starts with a version
+* byte, then the sort key (the session ID in Text encoding and the page
+* sequence as a 4-byte int) so the registered raw comparator can order
+* records without deserializing them, then the hit time as variable-length
+* epoch milliseconds; the date is only formatted as text by toString(). The
+* string fields come last and are held in a LazyFieldBuffer, so they're only
+* decoded when a getter asks for them.
 ******************************************************************************/
 public class PageHit implements WritableComparable<PageHit>
 {
+  //String fields, in serialized order
+  private static final int PAGE_URL = 0;
+  private static final int REFERER = 1;
+  private static final int BROWSER = 2;
+  private static final int PAGE_NAME = 3;
+  private static final int TRAFFIC_SOURCE = 4;
+
+  //Low-cardinality string fields, dictionary encoded in bulk storage
+  private static final int DICTIONARY_FIELDS = (1 << BROWSER) | (1 << PAGE_NAME) | (1 << TRAFFIC_SOURCE);
+
   //Property variable declarations
-  private String _Browser;
-  private Date _HitDate;
-  private String _IpAddress;
-  private String _PageUrl;
-  private String _PageName;
+  private final LazyFieldBuffer _Fields = new LazyFieldBuffer(5);
+  private long _HitTime;
+  private final IpAddress _IpAddress = new IpAddress();
   private int _PageSequence;
-  private String _Referer;
-  private String _SessionId;
-  private String _TrafficSource;
+  private final Text _SessionId = new Text();
   private int _VisitNumber;
   
   //Constants
-  private static final String DATE_FORMAT = "MM/dd/yyyy HH:mm:ss a";
-  private static final SimpleDateFormat _customDate = new SimpleDateFormat(DATE_FORMAT);
+  private static final String DATE_FORMAT = "MM/dd/yyyy hh:mm:ss a";
+  private static final byte SERIAL_VERSION = 3;
+
+  //Only needed to render text; SimpleDateFormat isn't thread-safe, so each
+  //instance creates its own the first time toString() is called
+  private SimpleDateFormat _customDate;
+
+  //Register the raw comparator so sorts don't deserialize page hits
+  static
+  {
+    WritableComparator.define(PageHit.class, new Comparator());
+  }
   
   //###########################################################################
   // Public Properties
@@ -40,7 +67,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getBrowser()
   {
-    return (_Browser != null) ? _Browser : "";
+    return _Fields.get(BROWSER);
   }
   
   /****************************************************************************
@@ -48,15 +75,31 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public Date getHitDate()
   {
-    return _HitDate;
+    return new Date(_HitTime);
   }
   
   /****************************************************************************
-  * Gets the IP address of the visitor.
+  * Gets the hit date as milliseconds since the epoch.
+  ****************************************************************************/
+  public long getHitTime()
+  {
+    return _HitTime;
+  }
+  
+  /****************************************************************************
+  * Gets the IP address of the visitor rendered as text.
   ****************************************************************************/
   public String getIpAddress()
   {
-    return (_IpAddress != null) ? _IpAddress : "";
+    return _IpAddress.toString();
+  }
+  
+  /****************************************************************************
+  * Gets the binary IP address of the visitor.
+  ****************************************************************************/
+  public IpAddress getIpAddressValue()
+  {
+    return _IpAddress;
   }
 
   /****************************************************************************
@@ -64,7 +107,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getPageName()
   {
-    return (_PageName != null) ? _PageName : "";
+    return _Fields.get(PAGE_NAME);
   }
   
   /****************************************************************************
@@ -80,7 +123,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getPageUrl()
   {
-    return (_PageUrl != null) ? _PageUrl : "";
+    return _Fields.get(PAGE_URL);
   }
   
   /****************************************************************************
@@ -88,7 +131,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getReferer()
   {
-    return (_Referer != null) ? _Referer : "";
+    return _Fields.get(REFERER);
   }
   
   /****************************************************************************
@@ -96,7 +139,15 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getSessionId()
   {
-    return (_SessionId != null) ? _SessionId : "";
+    return _SessionId.toString();
+  }
+  
+  /****************************************************************************
+  * Gets the visitor's session Id as UTF-8 Text.
+  ****************************************************************************/
+  public Text getSessionIdValue()
+  {
+    return _SessionId;
   }
   
   /****************************************************************************
@@ -105,7 +156,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public String getTrafficSource()
   {
-    return (_TrafficSource != null) ? _TrafficSource : "";
+    return _Fields.get(TRAFFIC_SOURCE);
   }
   
   /****************************************************************************
@@ -121,7 +172,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setBrowser(String value)
   {
-    _Browser = value;
+    _Fields.set(BROWSER, value);
   }
 
   /****************************************************************************
@@ -129,7 +180,15 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setHitDate(Date value)
   {
-    _HitDate = value;
+    _HitTime = value.getTime();
+  }
+  
+  /****************************************************************************
+  * Sets the hit date as milliseconds since the epoch.
+  ****************************************************************************/
+  public void setHitTime(long value)
+  {
+    _HitTime = value;
   }
   
   /****************************************************************************
@@ -137,7 +196,15 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setIpAddress(String value)
   {
-    _IpAddress = value;
+    _IpAddress.parse(value);
+  }
+  
+  /****************************************************************************
+  * Sets the binary IP address of the visitor.
+  ****************************************************************************/
+  public void setIpAddress(IpAddress value)
+  {
+    _IpAddress.set(value);
   }
   
   /****************************************************************************
@@ -145,7 +212,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setPageName(String value)
   {
-    _PageName = value;
+    _Fields.set(PAGE_NAME, value);
   }
   
   /****************************************************************************
@@ -161,7 +228,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setPageUrl(String value)
   {
-    _PageUrl = value;
+    _Fields.set(PAGE_URL, value);
   }
   
   /****************************************************************************
@@ -169,7 +236,7 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setReferer(String value)
   {
-    _Referer = value;
+    _Fields.set(REFERER, value);
   }
 
   /****************************************************************************
@@ -177,22 +244,22 @@ public class PageHit implements WritableComparable<PageHit>
   ****************************************************************************/
   public void setSessionId(String value)
   {
-    _SessionId = value;
+    _SessionId.set((value != null) ? value : "");
   }
   
   /****************************************************************************
-  * Gets the source of the visitor's traffic (direct, SEM, SEO, search engine,
+  * Sets the source of the visitor's traffic (direct, SEM, SEO, search engine,
   * referral link).
   ****************************************************************************/
-  public void getTrafficSource(String value)
+  public void setTrafficSource(String value)
   {
-    _TrafficSource = value;
+    _Fields.set(TRAFFIC_SOURCE, value);
   }
   
   /****************************************************************************
-  * Gets the number of this visit of a user to the site.
+  * Sets the number of this visit of a user to the site.
   ****************************************************************************/
-  public void getVisitNumber(int value)
+  public void setVisitNumber(int value)
   {
     _VisitNumber = value;
   }
@@ -210,9 +277,9 @@ public class PageHit implements WritableComparable<PageHit>
   /****************************************************************************
   * Initializes a populated instance of the object.
   ****************************************************************************/
-  public PageHit(Date hitDate, String ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber)
+  public PageHit(long hitTime, IpAddress ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber)
   {
-    set(hitDate, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber);
+    set(hitTime, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber);
   }
   
   //###########################################################################
@@ -221,38 +288,33 @@ public class PageHit implements WritableComparable<PageHit>
   @Override
   public void readFields(DataInput input) throws IOException
   {
-    _HitDate = TextParsing.tryParseDate(DATE_FORMAT, input.readUTF());
-    _PageUrl = input.readUTF();
-    _Referer = input.readUTF();
-    _IpAddress = input.readUTF();
-    _Browser = input.readUTF();
-    _PageName = input.readUTF();
-    _PageSequence = input.readInt();
-    _SessionId = input.readUTF();
-    _TrafficSource = input.readUTF();
-    _VisitNumber = input.readInt();
+    readFields(input, null);
   }
 
   @Override
   public void write(DataOutput output) throws IOException
   {
-    output.writeUTF(_customDate.format(_HitDate));
-    output.writeUTF(this.getPageUrl());
-    output.writeUTF(this.getReferer());
-    output.writeUTF(this.getIpAddress());
-    output.writeUTF(this.getBrowser());
-    output.writeUTF(this.getPageName());
-    output.writeInt(_PageSequence);
-    output.writeUTF(this.getSessionId());
-    output.writeUTF(this.getTrafficSource());
-    output.writeInt(_VisitNumber);
+    write(output, null);
   }
   
+  /****************************************************************************
+  * Orders page hits by session ID (as UTF-8 bytes), then page sequence, then
+  * hit time, so hits with the same (or an unparseable) sequence still sort the
+  * same way whatever format they were read from; matches the raw Comparator.
+  ****************************************************************************/
   @Override
   public int compareTo(PageHit targetPageHit)
   {
-    return _SessionId.compareTo(targetPageHit.getSessionId())
-        + new Integer(_PageSequence).compareTo(targetPageHit.getPageSequence());
+    int comparison = _SessionId.compareTo(targetPageHit.getSessionIdValue());
+    if (comparison != 0)
+      return comparison;
+
+    int targetSequence = targetPageHit.getPageSequence();
+    if (_PageSequence != targetSequence)
+      return (_PageSequence < targetSequence) ? -1 : 1;
+
+    long targetHitTime = targetPageHit.getHitTime();
+    return (_HitTime < targetHitTime) ? -1 : ((_HitTime == targetHitTime) ? 0 : 1);
   }
 
   //###########################################################################
@@ -264,15 +326,15 @@ public class PageHit implements WritableComparable<PageHit>
     if (equalityTarget instanceof PageHit)
     {
       PageHit forEquality = (PageHit)equalityTarget; 
-      return _HitDate.equals(forEquality.getHitDate())
-        && _IpAddress.equals(forEquality.getIpAddress())
-        && _PageUrl.equals(forEquality.getPageUrl())
-        && _Referer.equals(forEquality.getReferer())
-        && _Browser.equals(forEquality.getBrowser())
-        && _PageName.equals(forEquality.getPageName())
+      return _HitTime == forEquality.getHitTime()
+        && _IpAddress.equals(forEquality.getIpAddressValue())
+        && this.getPageUrl().equals(forEquality.getPageUrl())
+        && this.getReferer().equals(forEquality.getReferer())
+        && this.getBrowser().equals(forEquality.getBrowser())
+        && this.getPageName().equals(forEquality.getPageName())
         && _PageSequence == forEquality.getPageSequence()
-        && _SessionId.equals(forEquality.getSessionId())
-        && _TrafficSource.equals(forEquality.getTrafficSource())
+        && _SessionId.equals(forEquality.getSessionIdValue())
+        && this.getTrafficSource().equals(forEquality.getTrafficSource())
         && _VisitNumber == forEquality.getVisitNumber();
     }
     
@@ -290,36 +352,190 @@ public class PageHit implements WritableComparable<PageHit>
   @Override
   public String toString()
   {
-    return _customDate.format(_HitDate) + "\t"
-      + _PageUrl + "\t"
-      + _Referer + "\t"
-      + _IpAddress + "\t"
-      + _Browser + "\t"
-      + _PageName + "\t"
+    if (_customDate == null)
+      _customDate = new SimpleDateFormat(DATE_FORMAT);
+
+    return _customDate.format(new Date(_HitTime)) + "\t"
+      + this.getPageUrl() + "\t"
+      + this.getReferer() + "\t"
+      + this.getIpAddress() + "\t"
+      + this.getBrowser() + "\t"
+      + this.getPageName() + "\t"
       + _PageSequence + "\t"
       + _SessionId + "\t"
-      + _TrafficSource + "\t"
+      + this.getTrafficSource() + "\t"
       + _VisitNumber;
   }
   
   //###########################################################################
   // Public Methods
   //###########################################################################
+  /****************************************************************************
+  * Reads the page hit; when a dictionary is given, the low-cardinality string
+  * fields are read as codes into it.
+  ****************************************************************************/
+  public void readFields(DataInput input, StringDictionary dictionary) throws IOException
+  {
+    byte version = input.readByte();
+    if (version != SERIAL_VERSION)
+      throw new IOException("Unsupported page hit serialization version: " + version);
+
+    _SessionId.readFields(input);
+    _PageSequence = input.readInt();
+    _HitTime = WritableUtils.readVLong(input);
+    _IpAddress.readFields(input);
+    _VisitNumber = input.readInt();
+    _Fields.readFields(input, dictionary, DICTIONARY_FIELDS);
+  }
+
   /****************************************************************************
   * Populates the properties with the given values; used by the Mapper
   * so the object can be re-populated instead of instantiated each time.
   ****************************************************************************/
-  public void set(Date hitDate, String ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber)
+  public void set(long hitTime, IpAddress ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber)
   {
-    _HitDate = hitDate;
-    _IpAddress = ipAddress;
-    _PageUrl = pageUrl;
-    _Referer = referrer;
-    _Browser = browser;
-    _PageName = pageName;
+    _HitTime = hitTime;
+    _IpAddress.set(ipAddress);
+    _Fields.set(PAGE_URL, pageUrl);
+    _Fields.set(REFERER, referrer);
+    _Fields.set(BROWSER, browser);
+    _Fields.set(PAGE_NAME, pageName);
     _PageSequence = pageSequence;
-    _SessionId = sessionId;
-    _TrafficSource = trafficSource;
+    setSessionId(sessionId);
+    _Fields.set(TRAFFIC_SOURCE, trafficSource);
     _VisitNumber = visitNumber;
   }
-}
+
+  /****************************************************************************
+  * Writes the browser label's UTF-8 bytes alone, without decoding it into a
+  * String first.
+  ****************************************************************************/
+  public void writeBrowser(DataOutput output) throws IOException
+  {
+    _Fields.writeBytes(BROWSER, output);
+  }
+
+  /****************************************************************************
+  * Writes the page hit; when a dictionary is given, the low-cardinality string
+  * fields are written as codes into it.
+  ****************************************************************************/
+  public void write(DataOutput output, StringDictionary dictionary) throws IOException
+  {
+    output.writeByte(SERIAL_VERSION);
+    _SessionId.write(output);
+    output.writeInt(_PageSequence);
+    WritableUtils.writeVLong(output, _HitTime);
+    _IpAddress.write(output);
+    output.writeInt(_VisitNumber);
+    _Fields.write(output, dictionary, DICTIONARY_FIELDS);
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Compares serialized page hits (or Visits, which share the same leading
+  * layout) by session ID, page sequence and hit time straight from the bytes.
+  ****************************************************************************/
+  public static class Comparator extends WritableComparator
+  {
+    /**************************************************************************
+    * Initializes a comparator for page hits.
+    **************************************************************************/
+    public Comparator()
+    {
+      this(PageHit.class);
+    }
+
+    /**************************************************************************
+    * Initializes a comparator for a subclass of PageHit.
+    **************************************************************************/
+    protected Comparator(Class<? extends PageHit> keyClass)
+    {
+      super(keyClass);
+    }
+
+    @Override
+    public int compare(byte[] leftBytes, int leftStart, int leftLength, byte[] rightBytes, int rightStart, int rightLength)
+    {
+      //Skip the version byte, then find the session IDs after their lengths
+      int leftPrefix = WritableUtils.decodeVIntSize(leftBytes[leftStart + 1]);
+      int rightPrefix = WritableUtils.decodeVIntSize(rightBytes[rightStart + 1]);
+      int leftSessionLength;
+      int rightSessionLength;
+      try
+      {
+        leftSessionLength = readVInt(leftBytes, leftStart + 1);
+        rightSessionLength = readVInt(rightBytes, rightStart + 1);
+      }
+      catch (IOException ioe)
+      {
+        throw new IllegalArgumentException(ioe);
+      }
+
+      int leftSession = leftStart + 1 + leftPrefix;
+      int rightSession = rightStart + 1 + rightPrefix;
+      int comparison = compareBytes(leftBytes, leftSession, leftSessionLength, rightBytes, rightSession, rightSessionLength);
+      if (comparison != 0)
+        return comparison;
+
+      int leftSequence = readInt(leftBytes, leftSession + leftSessionLength);
+      int rightSequence = readInt(rightBytes, rightSession + rightSessionLength);
+      if (leftSequence != rightSequence)
+        return (leftSequence < rightSequence) ? -1 : 1;
+
+      //The hit time follows the page sequence
+      long leftHitTime;
+      long rightHitTime;
+      try
+      {
+        leftHitTime = readVLong(leftBytes, leftSession + leftSessionLength + 4);
+        rightHitTime = readVLong(rightBytes, rightSession + rightSessionLength + 4);
+      }
+      catch (IOException ioe)
+      {
+        throw new IllegalArgumentException(ioe);
+      }
+
+      return (leftHitTime < rightHitTime) ? -1 : ((leftHitTime == rightHitTime) ? 0 : 1);
+    }
+  }
+
+  /****************************************************************************
+  * Compares serialized page hits (or Visits) by session ID alone, straight
+  * from the bytes; used to group a session's hits into one reduce call.
+  ****************************************************************************/
+  public static class SessionComparator extends WritableComparator
+  {
+    /**************************************************************************
+    * Initializes a comparator for page hits and their subclasses.
+    **************************************************************************/
+    public SessionComparator()
+    {
+      super(PageHit.class);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable left, WritableComparable right)
+    {
+      return ((PageHit)left).getSessionIdValue().compareTo(((PageHit)right).getSessionIdValue());
+    }
+
+    @Override
+    public int compare(byte[] leftBytes, int leftStart, int leftLength, byte[] rightBytes, int rightStart, int rightLength)
+    {
+      //Skip the version byte, then compare the session IDs after their lengths
+      int leftPrefix = WritableUtils.decodeVIntSize(leftBytes[leftStart + 1]);
+      int rightPrefix = WritableUtils.decodeVIntSize(rightBytes[rightStart + 1]);
+      try
+      {
+        return compareBytes(leftBytes, leftStart + 1 + leftPrefix, readVInt(leftBytes, leftStart + 1), rightBytes, rightStart + 1 + rightPrefix, readVInt(rightBytes, rightStart + 1));
+      }
+      catch (IOException ioe)
+      {
+        throw new IllegalArgumentException(ioe);
+      }
+    }
+  }
+}
\ No newline at end of file
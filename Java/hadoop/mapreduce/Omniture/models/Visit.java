@@ -3,18 +3,42 @@ package hadoop.mapreduce.omniture.models;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Date;
+
+import org.apache.hadoop.io.WritableComparator;
+
+import hadoop.platform.IpAddress;
+import hadoop.platform.LazyFieldBuffer;
+import hadoop.platform.StringDictionary;
 
 /******************************************************************************
 * This class encapsulates all of the data to be parsed from the Omniture
-* click-stream data.
+* click-stream data. Like PageHit, the string fields are decoded lazily and
+* the Location is reused, so reading a Visit allocates almost nothing.
 ******************************************************************************/
 public class Visit extends PageHit
 {
+  //String fields, in serialized order
+  private static final int INTENT = 0;
+  private static final int SECTION = 1;
+  private static final int CAMPAIGN_SOURCE = 2;
+  private static final int CAMPAIGN_MEDIUM = 3;
+  private static final int CAMPAIGN_NAME = 4;
+  private static final int CAMPAIGN_TERM = 5;
+  private static final int CAMPAIGN_CONTENT = 6;
+
+  //Low-cardinality string fields, dictionary encoded in bulk storage
+  private static final int DICTIONARY_FIELDS = (1 << INTENT) | (1 << SECTION) | (1 << CAMPAIGN_SOURCE) | (1 << CAMPAIGN_MEDIUM);
+
   //Property variable declarations
-  private String _Intent;
-  private String _Section;
-  private Location _Location = new Location();
+  private final LazyFieldBuffer _Fields = new LazyFieldBuffer(7);
+  private final Location _Location = new Location();
+
+  //Visits serialize with the PageHit layout up front, so the same raw
+  //comparator orders them
+  static
+  {
+    WritableComparator.define(Visit.class, new PageHit.Comparator(Visit.class));
+  }
   
   //###########################################################################
   // Public Properties
@@ -27,12 +51,52 @@ public class Visit extends PageHit
     return _Location;
   }
   
+  /****************************************************************************
+  * Gets the campaign content (utm_content) from the page URL.
+  ****************************************************************************/
+  public String getCampaignContent()
+  {
+    return _Fields.get(CAMPAIGN_CONTENT);
+  }
+  
+  /****************************************************************************
+  * Gets the campaign medium (utm_medium) from the page URL.
+  ****************************************************************************/
+  public String getCampaignMedium()
+  {
+    return _Fields.get(CAMPAIGN_MEDIUM);
+  }
+  
+  /****************************************************************************
+  * Gets the campaign name (utm_campaign) from the page URL.
+  ****************************************************************************/
+  public String getCampaignName()
+  {
+    return _Fields.get(CAMPAIGN_NAME);
+  }
+  
+  /****************************************************************************
+  * Gets the campaign source (utm_source) from the page URL.
+  ****************************************************************************/
+  public String getCampaignSource()
+  {
+    return _Fields.get(CAMPAIGN_SOURCE);
+  }
+  
+  /****************************************************************************
+  * Gets the campaign search term (utm_term) from the page URL.
+  ****************************************************************************/
+  public String getCampaignTerm()
+  {
+    return _Fields.get(CAMPAIGN_TERM);
+  }
+  
   /****************************************************************************
   * Gets the intent of the visitor.
   ****************************************************************************/
   public String getIntent()
   {
-    return (_Intent != null) ? _Intent : "";
+    return _Fields.get(INTENT);
   }
   
   /****************************************************************************
@@ -40,7 +104,47 @@ public class Visit extends PageHit
   ****************************************************************************/
   public String getSection()
   {
-    return (_Section != null) ? _Section : "";
+    return _Fields.get(SECTION);
+  }
+  
+  /****************************************************************************
+  * Sets the campaign content (utm_content) from the page URL.
+  ****************************************************************************/
+  public void setCampaignContent(String value)
+  {
+    _Fields.set(CAMPAIGN_CONTENT, value);
+  }
+  
+  /****************************************************************************
+  * Sets the campaign medium (utm_medium) from the page URL.
+  ****************************************************************************/
+  public void setCampaignMedium(String value)
+  {
+    _Fields.set(CAMPAIGN_MEDIUM, value);
+  }
+  
+  /****************************************************************************
+  * Sets the campaign name (utm_campaign) from the page URL.
+  ****************************************************************************/
+  public void setCampaignName(String value)
+  {
+    _Fields.set(CAMPAIGN_NAME, value);
+  }
+  
+  /****************************************************************************
+  * Sets the campaign source (utm_source) from the page URL.
+  ****************************************************************************/
+  public void setCampaignSource(String value)
+  {
+    _Fields.set(CAMPAIGN_SOURCE, value);
+  }
+  
+  /****************************************************************************
+  * Sets the campaign search term (utm_term) from the page URL.
+  ****************************************************************************/
+  public void setCampaignTerm(String value)
+  {
+    _Fields.set(CAMPAIGN_TERM, value);
   }
   
   /****************************************************************************
@@ -48,15 +152,15 @@ public class Visit extends PageHit
   ****************************************************************************/
   public void setIntent(String value)
   {
-    _Intent = value;
+    _Fields.set(INTENT, value);
   }
   
-/****************************************************************************
-  * Sets the visitor's location.
+  /****************************************************************************
+  * Sets the visitor's location; the value is copied, not kept.
   ****************************************************************************/
   public void setLocation(Location value)
   {
-    _Location = value;
+    _Location.set(value);
   }
   
   /****************************************************************************
@@ -64,7 +168,7 @@ public class Visit extends PageHit
   ****************************************************************************/
   public void setSection(String value)
   {
-    _Section = value;
+    _Fields.set(SECTION, value);
   }
   
   //###########################################################################
@@ -80,34 +184,28 @@ public class Visit extends PageHit
   /****************************************************************************
   * Initializes a populated instance of the object.
   ****************************************************************************/
-  public Visit(Date hitDate, String ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber, String siteSection, String visitorIntent, Location visitorLocation)
+  public Visit(long hitTime, IpAddress ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber, String siteSection, String visitorIntent, Location visitorLocation)
   {
-    set(hitDate, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber, siteSection, visitorIntent, visitorLocation);
+    set(hitTime, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber, siteSection, visitorIntent, visitorLocation);
   }
   
   //###########################################################################
   // Overridden PageView Methods
   //###########################################################################
   @Override
-  public void readFields(DataInput input) throws IOException
+  public void readFields(DataInput input, StringDictionary dictionary) throws IOException
   {
-    super.readFields(input);
-    
-    _Intent = input.readUTF();
-    _Section = input.readUTF();
-    
-    _Location = new Location();
-    _Location.readFields(input);
+    super.readFields(input, dictionary);
+    _Fields.readFields(input, dictionary, DICTIONARY_FIELDS);
+    _Location.readFields(input, dictionary);
   }
 
   @Override
-  public void write(DataOutput output) throws IOException
+  public void write(DataOutput output, StringDictionary dictionary) throws IOException
   {
-    super.write(output);
-    
-    output.writeUTF(this.getIntent());
-    output.writeUTF(this.getSection());
-    _Location.write(output);
+    super.write(output, dictionary);
+    _Fields.write(output, dictionary, DICTIONARY_FIELDS);
+    _Location.write(output, dictionary);
   }
   
   @Override
@@ -117,9 +215,14 @@ public class Visit extends PageHit
     {
       Visit forEquality = (Visit)equalityTarget; 
       return super.equals(forEquality)
-          && _Intent.equals(forEquality.getIntent())
-          && _Section.equals(forEquality.getSection())
-          && _Location.equals(forEquality.getLocation()));
+          && this.getIntent().equals(forEquality.getIntent())
+          && this.getSection().equals(forEquality.getSection())
+          && this.getCampaignSource().equals(forEquality.getCampaignSource())
+          && this.getCampaignMedium().equals(forEquality.getCampaignMedium())
+          && this.getCampaignName().equals(forEquality.getCampaignName())
+          && this.getCampaignTerm().equals(forEquality.getCampaignTerm())
+          && this.getCampaignContent().equals(forEquality.getCampaignContent())
+          && _Location.equals(forEquality.getLocation());
     }
     
     return false;
@@ -129,8 +232,13 @@ public class Visit extends PageHit
   public String toString()
   {
     return super.toString() + "\t"
-      + _Intent + "\t"
-      + _Section + "\t"
+      + getIntent() + "\t"
+      + getSection() + "\t"
+      + getCampaignSource() + "\t"
+      + getCampaignMedium() + "\t"
+      + getCampaignName() + "\t"
+      + getCampaignTerm() + "\t"
+      + getCampaignContent() + "\t"
       + _Location.toString() + "\t";
   }
   
@@ -141,11 +249,12 @@ public class Visit extends PageHit
   * Populates the properties with the given values; used by the Mapper
   * so the object can be re-populated instead of instantiated each time.
   ****************************************************************************/
-  public void set(Date hitDate, String ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber, String siteSection, String visitorIntent, Location visitorLocation)
+  public void set(long hitTime, IpAddress ipAddress, String pageUrl, String referrer, String browser, String pageName, int pageSequence, String sessionId, String trafficSource, int visitNumber, String siteSection, String visitorIntent, Location visitorLocation)
   {
-    super.set(hitDate, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber);
+    super.set(hitTime, ipAddress, pageUrl, referrer, browser, pageName, pageSequence, sessionId, trafficSource, visitNumber);
 
-    _Intent = visitorIntent;
-    _Location = visitorLocation;
+    _Fields.set(INTENT, visitorIntent);
+    _Fields.set(SECTION, siteSection);
+    _Location.set(visitorLocation);
   }
 }
@@ -0,0 +1,123 @@
+package hadoop.mapreduce.omniture.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import hadoop.platform.StringDictionary;
+
+/******************************************************************************
+* A run of Visits stored together with one StringDictionary, so the values of
+* the low-cardinality fields (browser, page name, traffic source, section,
+* state and so on) are written once per block and each record refers to them
+* by a small code. The serialized form is the record count, the dictionary,
+* then the length-prefixed bytes of the encoded records.
+*
+* Records are appended with add() and, once a block has been read, handed out
+* one at a time with next(), which re-populates the caller's Visit.
+******************************************************************************/
+public class VisitBlock implements Writable
+{
+  //Property variable declarations
+  private final StringDictionary _Dictionary = new StringDictionary();
+  private final DataOutputBuffer _Records = new DataOutputBuffer();
+  private final DataInputBuffer _RecordReader = new DataInputBuffer();
+  private int _RecordCount;
+  private int _RecordsRead;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of distinct dictionary values in the block.
+  ****************************************************************************/
+  public int getDictionarySize()
+  {
+    return _Dictionary.size();
+  }
+
+  /****************************************************************************
+  * Gets the number of Visits in the block.
+  ****************************************************************************/
+  public int getRecordCount()
+  {
+    return _RecordCount;
+  }
+
+  //###########################################################################
+  // Writable Implementation
+  //###########################################################################
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    clear();
+
+    _RecordCount = WritableUtils.readVInt(input);
+    _Dictionary.readFields(input);
+
+    int length = WritableUtils.readVInt(input);
+    if (_RecordCount < 0 || length < 0)
+      throw new IOException("Invalid visit block: " + _RecordCount + " records in " + length + " bytes.");
+
+    _Records.write(input, length);
+    _RecordReader.reset(_Records.getData(), _Records.getLength());
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    WritableUtils.writeVInt(output, _RecordCount);
+    _Dictionary.write(output);
+    WritableUtils.writeVInt(output, _Records.getLength());
+    output.write(_Records.getData(), 0, _Records.getLength());
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Appends a Visit, adding its low-cardinality values to the dictionary.
+  ****************************************************************************/
+  public void add(Visit visit) throws IOException
+  {
+    visit.write(_Records, _Dictionary);
+    _RecordCount++;
+  }
+
+  /****************************************************************************
+  * Empties the block so it can be re-populated.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Dictionary.clear();
+    _Records.reset();
+    _RecordReader.reset(_Records.getData(), 0);
+    _RecordCount = 0;
+    _RecordsRead = 0;
+  }
+
+  /****************************************************************************
+  * Indicates whether there are Visits in the block that haven't been read.
+  ****************************************************************************/
+  public boolean hasNext()
+  {
+    return _RecordsRead < _RecordCount;
+  }
+
+  /****************************************************************************
+  * Populates the Visit with the next record of a block that was read.
+  ****************************************************************************/
+  public void next(Visit visit) throws IOException
+  {
+    if (!hasNext())
+      throw new IOException("The visit block has no more records.");
+
+    visit.readFields(_RecordReader, _Dictionary);
+    _RecordsRead++;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,248 @@
+package hadoop.mapreduce.omniture.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/******************************************************************************
+* The composite key used to sessionize page hits: the visitor, then the hit
+* time, then the recorded page sequence (hit times are only to the second).
+* The visitor is the binary IP address and the browser; when the IP address is
+* missing (e.g. obfuscated), the hit's own session ID is added so anonymous
+* visitors aren't all stitched together. The serialized form is the visitor
+* bytes in Text encoding followed by the hit time as an 8-byte long and the
+* page sequence as a 4-byte int, so the registered raw comparator orders keys
+* without deserializing them.
+******************************************************************************/
+public class VisitorKey implements WritableComparable<VisitorKey>
+{
+  //Constants
+  private static final int SUFFIX_LENGTH = 12;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  //Property variable declarations
+  private long _HitTime;
+  private int _PageSequence;
+  private final Text _Visitor = new Text();
+
+  //Only used to build the visitor bytes
+  private final DataOutputBuffer _VisitorBuffer = new DataOutputBuffer();
+
+  //Register the raw comparator so sorts don't deserialize keys
+  static
+  {
+    WritableComparator.define(VisitorKey.class, new Comparator());
+  }
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets a 64-bit FNV-1a hash of the visitor, for building identifiers.
+  ****************************************************************************/
+  public long getFingerprint()
+  {
+    long hash = FNV_OFFSET_BASIS;
+    byte[] bytes = _Visitor.getBytes();
+    for (int index = 0; index < _Visitor.getLength(); index++)
+    {
+      hash ^= bytes[index] & 0xFF;
+      hash *= FNV_PRIME;
+    }
+
+    return hash;
+  }
+
+  /****************************************************************************
+  * Gets the hit time as milliseconds since the epoch.
+  ****************************************************************************/
+  public long getHitTime()
+  {
+    return _HitTime;
+  }
+
+  /****************************************************************************
+  * Gets the page sequence the hit was recorded with.
+  ****************************************************************************/
+  public int getPageSequence()
+  {
+    return _PageSequence;
+  }
+
+  /****************************************************************************
+  * Gets the visitor's bytes.
+  ****************************************************************************/
+  public Text getVisitor()
+  {
+    return _Visitor;
+  }
+
+  //###########################################################################
+  // WritableComparable Implementation
+  //###########################################################################
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    _Visitor.readFields(input);
+    _HitTime = input.readLong();
+    _PageSequence = input.readInt();
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    _Visitor.write(output);
+    output.writeLong(_HitTime);
+    output.writeInt(_PageSequence);
+  }
+
+  /****************************************************************************
+  * Orders keys by visitor (as bytes), hit time and then page sequence; matches
+  * the raw Comparator.
+  ****************************************************************************/
+  @Override
+  public int compareTo(VisitorKey targetKey)
+  {
+    int comparison = _Visitor.compareTo(targetKey.getVisitor());
+    if (comparison != 0)
+      return comparison;
+
+    long targetHitTime = targetKey.getHitTime();
+    if (_HitTime != targetHitTime)
+      return (_HitTime < targetHitTime) ? -1 : 1;
+
+    int targetPageSequence = targetKey.getPageSequence();
+    return (_PageSequence < targetPageSequence) ? -1 : ((_PageSequence == targetPageSequence) ? 0 : 1);
+  }
+
+  //###########################################################################
+  // Overridden Object Methods
+  //###########################################################################
+  @Override
+  public boolean equals(Object equalityTarget)
+  {
+    if (equalityTarget instanceof VisitorKey)
+    {
+      VisitorKey forEquality = (VisitorKey)equalityTarget;
+      return _HitTime == forEquality.getHitTime()
+        && _PageSequence == forEquality.getPageSequence()
+        && _Visitor.equals(forEquality.getVisitor());
+    }
+
+    return false;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (_Visitor.hashCode() * 31 + (int)(_HitTime ^ (_HitTime >>> 32))) * 31 + _PageSequence;
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Populates the key from a page hit; used by the Mapper so the object can be
+  * re-populated instead of instantiated each time.
+  ****************************************************************************/
+  public void set(PageHit pageHit) throws IOException
+  {
+    _VisitorBuffer.reset();
+    pageHit.getIpAddressValue().write(_VisitorBuffer);
+    pageHit.writeBrowser(_VisitorBuffer);
+    if (pageHit.getIpAddressValue().isEmpty())
+    {
+      Text sessionId = pageHit.getSessionIdValue();
+      _VisitorBuffer.writeByte(0);
+      _VisitorBuffer.write(sessionId.getBytes(), 0, sessionId.getLength());
+    }
+
+    _Visitor.set(_VisitorBuffer.getData(), 0, _VisitorBuffer.getLength());
+    _HitTime = pageHit.getHitTime();
+    _PageSequence = pageHit.getPageSequence();
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Compares serialized keys by visitor, hit time and page sequence straight
+  * from the bytes.
+  ****************************************************************************/
+  public static class Comparator extends WritableComparator
+  {
+    /**************************************************************************
+    * Initializes a comparator for visitor keys.
+    **************************************************************************/
+    public Comparator()
+    {
+      super(VisitorKey.class);
+    }
+
+    @Override
+    public int compare(byte[] leftBytes, int leftStart, int leftLength, byte[] rightBytes, int rightStart, int rightLength)
+    {
+      int leftVisitorEnd = leftStart + leftLength - SUFFIX_LENGTH;
+      int rightVisitorEnd = rightStart + rightLength - SUFFIX_LENGTH;
+      int comparison = VisitorComparator.compareVisitors(leftBytes, leftStart, leftVisitorEnd, rightBytes, rightStart, rightVisitorEnd);
+      if (comparison != 0)
+        return comparison;
+
+      long leftHitTime = readLong(leftBytes, leftVisitorEnd);
+      long rightHitTime = readLong(rightBytes, rightVisitorEnd);
+      if (leftHitTime != rightHitTime)
+        return (leftHitTime < rightHitTime) ? -1 : 1;
+
+      int leftPageSequence = readInt(leftBytes, leftVisitorEnd + 8);
+      int rightPageSequence = readInt(rightBytes, rightVisitorEnd + 8);
+      return (leftPageSequence < rightPageSequence) ? -1 : ((leftPageSequence == rightPageSequence) ? 0 : 1);
+    }
+  }
+
+  /****************************************************************************
+  * Compares serialized keys by visitor alone, straight from the bytes; used
+  * to group a visitor's hits into one reduce call.
+  ****************************************************************************/
+  public static class VisitorComparator extends WritableComparator
+  {
+    /**************************************************************************
+    * Initializes a comparator for visitor keys.
+    **************************************************************************/
+    public VisitorComparator()
+    {
+      super(VisitorKey.class);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable left, WritableComparable right)
+    {
+      return ((VisitorKey)left).getVisitor().compareTo(((VisitorKey)right).getVisitor());
+    }
+
+    @Override
+    public int compare(byte[] leftBytes, int leftStart, int leftLength, byte[] rightBytes, int rightStart, int rightLength)
+    {
+      return compareVisitors(leftBytes, leftStart, leftStart + leftLength - SUFFIX_LENGTH, rightBytes, rightStart, rightStart + rightLength - SUFFIX_LENGTH);
+    }
+
+    /**************************************************************************
+    * Compares the visitor bytes that follow the vint lengths; the hit time
+    * and page sequence are the last 12 bytes, so the visitor ends where they
+    * start.
+    **************************************************************************/
+    private static int compareVisitors(byte[] leftBytes, int leftStart, int leftEnd, byte[] rightBytes, int rightStart, int rightEnd)
+    {
+      int leftPrefix = WritableUtils.decodeVIntSize(leftBytes[leftStart]);
+      int rightPrefix = WritableUtils.decodeVIntSize(rightBytes[rightStart]);
+      return compareBytes(leftBytes, leftStart + leftPrefix, leftEnd - leftStart - leftPrefix, rightBytes, rightStart + rightPrefix, rightEnd - rightStart - rightPrefix);
+    }
+  }
+}
\ No newline at end of file
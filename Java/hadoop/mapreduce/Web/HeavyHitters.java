@@ -0,0 +1,269 @@
+package hadoop.mapreduce.web;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import hadoop.mapreduce.omniture.formats.ColumnarVisitInputFormat;
+import hadoop.mapreduce.omniture.formats.VisitColumn;
+import hadoop.mapreduce.omniture.formats.VisitInputFormat;
+import hadoop.mapreduce.omniture.models.Visit;
+import hadoop.platform.BlockGzipTextInputFormat;
+import hadoop.platform.FieldTokenizer;
+import hadoop.platform.SpaceSaving;
+
+/******************************************************************************
+* Finds the most frequent referers, page URLs and (for Visits) page names
+* without shuffling every distinct value. Each Mapper keeps a Space-Saving
+* summary of "heavyhitters.capacity" counters per dimension and writes it when
+* the task ends; the combiner and a single Reducer merge the summaries, and the
+* Reducer writes the "heavyhitters.top" items of each dimension as
+* "dimension\trank\titem\tcount\terror\tguaranteed". The true count of an item
+* is from count - error to count; guaranteed items are certain to belong in the
+* list. Reads raw IIS logs, or ClickStream's Visits with -visits (or -columnar
+* for columnar Visits).
+******************************************************************************/
+public class HeavyHitters
+{
+  //Constants that represent field/column placement
+  private static final int COLUMN_URL = 4;
+  private static final int COLUMN_REFERER = 10;
+
+  //Constants
+  public static final String CAPACITY = "heavyhitters.capacity";
+  public static final String TOP = "heavyhitters.top";
+  public static final int DEFAULT_TOP = 100;
+  private static final byte NO_REFERER = '-';
+
+  //The only columns the summaries need, when reading columnar Visits
+  public static final VisitColumn[] HITTER_COLUMNS = new VisitColumn[] { VisitColumn.REFERER, VisitColumn.PAGE_URL, VisitColumn.PAGE_NAME };
+
+  /****************************************************************************
+  * The Mapper for raw IIS logs.
+  ****************************************************************************/
+  public static class Map extends Mapper<LongWritable, Text, Text, SpaceSaving>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private FieldTokenizer dataColumns = new FieldTokenizer(' ', COLUMN_REFERER);
+    private SpaceSaving referers;
+    private SpaceSaving urls;
+
+    /**************************************************************************
+    * Sizes the summaries.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<LongWritable, Text, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      int capacity = context.getConfiguration().getInt(CAPACITY, SpaceSaving.DEFAULT_CAPACITY);
+      referers = new SpaceSaving(capacity);
+      urls = new SpaceSaving(capacity);
+    }
+
+    public void map(LongWritable key, Text value, Mapper<LongWritable, Text, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      dataColumns.tokenize(value);
+      if (!dataColumns.hasColumn(COLUMN_REFERER))
+        return;
+
+      urls.offer(dataColumns.getBytes(), dataColumns.getStart(COLUMN_URL), dataColumns.getLength(COLUMN_URL), 1);
+
+      //IIS logs a missing referer as "-"
+      int refererLength = dataColumns.getLength(COLUMN_REFERER);
+      if (refererLength > 0 && !(refererLength == 1 && dataColumns.getBytes()[dataColumns.getStart(COLUMN_REFERER)] == NO_REFERER))
+        referers.offer(dataColumns.getBytes(), dataColumns.getStart(COLUMN_REFERER), refererLength, 1);
+    }
+
+    /**************************************************************************
+    * Writes the summaries.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<LongWritable, Text, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      context.write(new Text("referer"), referers);
+      context.write(new Text("url"), urls);
+    }
+  }
+
+  /****************************************************************************
+  * The Mapper for ClickStream's Visits.
+  ****************************************************************************/
+  public static class VisitMap extends Mapper<NullWritable, Visit, Text, SpaceSaving>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private Text item = new Text();
+    private SpaceSaving pages;
+    private SpaceSaving referers;
+    private SpaceSaving urls;
+
+    /**************************************************************************
+    * Sizes the summaries.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<NullWritable, Visit, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      int capacity = context.getConfiguration().getInt(CAPACITY, SpaceSaving.DEFAULT_CAPACITY);
+      pages = new SpaceSaving(capacity);
+      referers = new SpaceSaving(capacity);
+      urls = new SpaceSaving(capacity);
+    }
+
+    public void map(NullWritable key, Visit value, Mapper<NullWritable, Visit, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      offer(urls, value.getPageUrl());
+      offer(referers, value.getReferer());
+      offer(pages, value.getPageName());
+    }
+
+    /**************************************************************************
+    * Writes the summaries.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<NullWritable, Visit, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      context.write(new Text("page"), pages);
+      context.write(new Text("referer"), referers);
+      context.write(new Text("url"), urls);
+    }
+
+    /**************************************************************************
+    * Counts a value, unless it's empty.
+    **************************************************************************/
+    private void offer(SpaceSaving summary, String value)
+    {
+      if (value.length() > 0)
+      {
+        item.set(value);
+        summary.offer(item, 1);
+      }
+    }
+  }
+
+  /****************************************************************************
+  * The combiner; merges a dimension's partial summaries into one.
+  ****************************************************************************/
+  public static class Combine extends Reducer<Text, SpaceSaving, Text, SpaceSaving>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private SpaceSaving merged;
+
+    /**************************************************************************
+    * Sizes the merged summary.
+    **************************************************************************/
+    @Override
+    protected void setup(Reducer<Text, SpaceSaving, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      merged = new SpaceSaving(context.getConfiguration().getInt(CAPACITY, SpaceSaving.DEFAULT_CAPACITY));
+    }
+
+    public void reduce(Text key, Iterable<SpaceSaving> values, Reducer<Text, SpaceSaving, Text, SpaceSaving>.Context context) throws IOException, InterruptedException
+    {
+      merged.clear();
+      for (SpaceSaving value : values)
+        merged.merge(value);
+
+      context.write(key, merged);
+    }
+  }
+
+  /****************************************************************************
+  * The Reducer; merges every summary of a dimension and writes its top items.
+  ****************************************************************************/
+  public static class Reduce extends Reducer<Text, SpaceSaving, Text, Text>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private Text hitter = new Text();
+    private SpaceSaving merged;
+    private int top;
+
+    /**************************************************************************
+    * Sizes the merged summary and reads the length of the lists.
+    **************************************************************************/
+    @Override
+    protected void setup(Reducer<Text, SpaceSaving, Text, Text>.Context context) throws IOException, InterruptedException
+    {
+      merged = new SpaceSaving(context.getConfiguration().getInt(CAPACITY, SpaceSaving.DEFAULT_CAPACITY));
+      top = context.getConfiguration().getInt(TOP, DEFAULT_TOP);
+    }
+
+    public void reduce(Text key, Iterable<SpaceSaving> values, Reducer<Text, SpaceSaving, Text, Text>.Context context) throws IOException, InterruptedException
+    {
+      merged.clear();
+      for (SpaceSaving value : values)
+        merged.merge(value);
+
+      List<SpaceSaving.Estimate> hitters = merged.getTop(top);
+      for (int rank = 0; rank < hitters.size(); rank++)
+      {
+        SpaceSaving.Estimate estimate = hitters.get(rank);
+        hitter.set((rank + 1) + "\t" + estimate.getItem() + "\t" + estimate.getCount() + "\t" + estimate.getError() + "\t" + merged.isGuaranteed(estimate, top));
+        context.write(key, hitter);
+      }
+    }
+  }
+
+  /****************************************************************************
+  * The Hadoop entry point.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 2)
+    {
+      System.err.println("Input and Output paths are required.");
+      return;
+    }
+
+    //Create the MapReduce job and tell Hadoop about the classes
+    Job heavyHitters = Job.getInstance(new Configuration());
+    heavyHitters.setJobName("Heavy Hitters");
+    heavyHitters.setJarByClass(HeavyHitters.class);
+
+    //Tell Hadoop about the Mapper/Combiner/Reducer; one Reducer merges every
+    //summary, so each dimension gets a single list
+    boolean columnar = Arrays.asList(appArguments).indexOf("-columnar") > -1;
+    if (columnar || Arrays.asList(appArguments).indexOf("-visits") > -1)
+    {
+      heavyHitters.setMapperClass(VisitMap.class);
+      heavyHitters.setInputFormatClass(columnar ? ColumnarVisitInputFormat.class : VisitInputFormat.class);
+      if (columnar)
+        ColumnarVisitInputFormat.setColumns(heavyHitters, HITTER_COLUMNS);
+    }
+    else
+    {
+      heavyHitters.setMapperClass(Map.class);
+      heavyHitters.setInputFormatClass(BlockGzipTextInputFormat.class);
+    }
+
+    heavyHitters.setCombinerClass(Combine.class);
+    heavyHitters.setReducerClass(Reduce.class);
+    heavyHitters.setNumReduceTasks(1);
+
+    //Tell Hadoop about the output
+    heavyHitters.setMapOutputKeyClass(Text.class);
+    heavyHitters.setMapOutputValueClass(SpaceSaving.class);
+    heavyHitters.setOutputKeyClass(Text.class);
+    heavyHitters.setOutputValueClass(Text.class);
+    heavyHitters.setOutputFormatClass(TextOutputFormat.class);
+
+    //Set the input/output paths
+    FileInputFormat.addInputPath(heavyHitters, new Path(appArguments[0]));
+    FileOutputFormat.setOutputPath(heavyHitters, new Path(appArguments[1] + "/" + HeavyHitters.class.getSimpleName()));
+
+    heavyHitters.waitForCompletion(true);
+  }
+}
\ No newline at end of file
@@ -1,9 +1,12 @@
 package hadoop.mapreduce.web;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -11,13 +14,19 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import hadoop.mapreduce.web.models.ClientStatistics;
-import platform.TextParsing;
+import hadoop.platform.BlockGzipTextInputFormat;
+import hadoop.platform.BytesCountTable;
+import hadoop.platform.FieldTokenizer;
+import hadoop.platform.IncrementalInputTracker;
+import hadoop.platform.LocalExecutionEngine;
+import hadoop.platform.TextParsing;
+import hadoop.platform.UserAgent;
+import hadoop.platform.UserAgentCache;
 
 /******************************************************************************
 * The standard Hadoop pattern is to use nested static classes for the Mapper
@@ -45,42 +54,118 @@ public class IisLogs
   private static final String IIS_DATE = "yyyy-MM-dd";
   private static final String IIS_TIME = " HH:mm:ss";
 
+  //Bounds of the Mapper's aggregation table
+  public static final String AGGREGATION_ENTRIES = "iislogs.aggregation.entries";
+  public static final String AGGREGATION_BYTES = "iislogs.aggregation.bytes";
+  public static final int DEFAULT_AGGREGATION_ENTRIES = 65536;
+  public static final int DEFAULT_AGGREGATION_BYTES = 8 << 20;
+
   /****************************************************************************
-  * The Mapper.
+  * The Mapper. Counts are aggregated in a bounded table keyed by the
+  * serialized ClientStatistics and written when the table fills up and when
+  * the task ends, so the shuffle carries one record per distinct client per
+  * flush rather than one per log line.
   ****************************************************************************/
   public static class Map extends Mapper<LongWritable, Text, ClientStatistics, IntWritable>
   {
     //Object creation/destruction are expensive; instantiate objects here
     private ClientStatistics clientStatistics = new ClientStatistics();
-    private static final IntWritable ONE = new IntWritable(1);
+    private BytesCountTable counts;
+    private IntWritable count = new IntWritable();
+    private FieldTokenizer dataColumns = new FieldTokenizer(' ', COLUMN_REFERER);
+    private DataInputBuffer keyInput = new DataInputBuffer();
+    private DataOutputBuffer keyOutput = new DataOutputBuffer();
+    private ClientStatistics tableStatistics = new ClientStatistics();
+
+    /**************************************************************************
+    * Sizes the aggregation table.
+    **************************************************************************/
+    @Override
+    protected void setup(Mapper<LongWritable, Text, ClientStatistics, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      counts = new BytesCountTable(context.getConfiguration().getInt(AGGREGATION_ENTRIES, DEFAULT_AGGREGATION_ENTRIES),
+        context.getConfiguration().getInt(AGGREGATION_BYTES, DEFAULT_AGGREGATION_BYTES));
+    }
 
     public void map(LongWritable key, Text value, Mapper<LongWritable, Text, ClientStatistics, IntWritable>.Context context) throws IOException, InterruptedException
     {
-      //Read a line of text and split it into columns by spaces
-      String[] dataColumns = value.toString().split(" ");
+      //Find the column offsets in the line of text, only as far as the last
+      //column needed
+      dataColumns.tokenize(value);
       
-      //Parse the user agent and write it to output
-      if (dataColumns.length >= COLUMN_REFERER)
+      //Parse the user agent and count it
+      if (dataColumns.hasColumn(COLUMN_REFERER))
       {
-        if (!TextParsing.isNullOrEmpty(dataColumns[COLUMN_USER_AGENT]))
+        if (!dataColumns.isEmpty(COLUMN_USER_AGENT))
+        {
+          UserAgent userAgent = TextParsing.parseUserAgent(dataColumns.getBytes(), dataColumns.getStart(COLUMN_USER_AGENT), dataColumns.getLength(COLUMN_USER_AGENT));
+          clientStatistics.set(userAgent.getBrowser(),
+            userAgent.getBrowserVersionNumber(),
+            userAgent.getOperatingSystem(),
+            userAgent.getOsVersionNumber(),
+            dataColumns.getBytes(),
+            dataColumns.getStart(COLUMN_REFERER),
+            dataColumns.getLength(COLUMN_REFERER));
+        }
+        else
         {
-          java.util.Map<String, String> userAgent = TextParsing.parseUserAgent(dataColumns[COLUMN_USER_AGENT]);
-          clientStatistics.set(userAgent.get("Browser"),
-            TextParsing.tryParseFloat(userAgent.get("Browser Version")),
-            userAgent.get("Operating System"),
-            TextParsing.tryParseFloat(userAgent.get("OS Version")),
-            dataColumns[COLUMN_REFERER]);
+          //Don't let the previous line's client stand in for a missing one
+          clientStatistics.set("", 0, "", 0, dataColumns.getBytes(), dataColumns.getStart(COLUMN_REFERER), dataColumns.getLength(COLUMN_REFERER));
+        }
+
+        keyOutput.reset();
+        clientStatistics.write(keyOutput);
+        if (!counts.increment(keyOutput.getData(), 0, keyOutput.getLength(), 1))
+        {
+          flush(context);
+
+          //A key too big for an empty table goes straight to the shuffle
+          if (!counts.increment(keyOutput.getData(), 0, keyOutput.getLength(), 1))
+          {
+            count.set(1);
+            context.write(clientStatistics, count);
+          }
         }
-        context.write(clientStatistics, ONE);
       }
     }
+
+    /**************************************************************************
+    * Writes the remaining counts and reports the user agent cache statistics
+    * once the task is done.
+    **************************************************************************/
+    @Override
+    protected void cleanup(Mapper<LongWritable, Text, ClientStatistics, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      flush(context);
+      UserAgentCache.reportCounters(context);
+    }
+
+    /**************************************************************************
+    * Writes every count in the table and empties it.
+    **************************************************************************/
+    private void flush(Mapper<LongWritable, Text, ClientStatistics, IntWritable>.Context context) throws IOException, InterruptedException
+    {
+      for (int entry = 0; entry < counts.size(); entry++)
+      {
+        keyInput.reset(counts.getBytes(), counts.getKeyOffset(entry), counts.getKeyLength(entry));
+        tableStatistics.readFields(keyInput);
+        count.set(counts.getCount(entry));
+        context.write(tableStatistics, count);
+      }
+
+      counts.clear();
+    }
   }
 
   /****************************************************************************
-  * The Reducer.
+  * The Reducer; also the combiner, since summing counts can be done in any
+  * order.
   ****************************************************************************/
   public static class Reduce extends Reducer<ClientStatistics, IntWritable, ClientStatistics, IntWritable>
   {
+    //Object creation/destruction are expensive; instantiate objects here
+    private IntWritable sum = new IntWritable();
+
     public void reduce(ClientStatistics key, Iterable<IntWritable> values, Reducer<ClientStatistics, IntWritable, ClientStatistics, IntWritable>.Context context) throws IOException, InterruptedException
     {
       //Enumerate and sum the count
@@ -89,12 +174,16 @@ public class IisLogs
         userAgentSum += val.get();
 
       //Write the reduce results
-      context.write(key, new IntWritable(userAgentSum));
+      sum.set(userAgentSum);
+      context.write(key, sum);
     }
   }
 
   /****************************************************************************
-  * The Hadoop entry point.
+  * The Hadoop entry point. With -incremental, only the partitions of the
+  * input that are new or changed since the last run are counted, each into a
+  * checkpoint, and the checkpoints are summed into the report. With -local,
+  * the jobs run in this JVM on every core instead of on the cluster.
   ****************************************************************************/
   public static void main(String[] args) throws Exception
   {
@@ -107,27 +196,81 @@ public class IisLogs
       return;
     }
 
+    String outputPath = appArguments[1] + "/" + ClientStatistics.class.getSimpleName();
+    LocalExecutionEngine engine = (Arrays.asList(appArguments).indexOf("-local") > -1) ? new LocalExecutionEngine() : null;
+    if (Arrays.asList(appArguments).indexOf("-incremental") < 0)
+    {
+      runJob(setupJob(appArguments[0], outputPath), engine);
+      return;
+    }
+
+    IncrementalInputTracker tracker = new IncrementalInputTracker(new Configuration(), appArguments[0], appArguments[1], ClientStatistics.class.getSimpleName());
+    if (!tracker.hasChanges())
+    {
+      System.out.println("No partitions of " + appArguments[0] + " are new or changed.");
+      return;
+    }
+
+    //Count each new or changed partition into its own checkpoint
+    Path checkpointPath = IncrementalInputTracker.getCheckpointPath(appArguments[1], ClientStatistics.class);
+    tracker.prepare(checkpointPath, new Path(outputPath));
+    for (String partition : tracker.getChangedPartitions())
+    {
+      Job countPartition = setupJob(tracker.getPartitionPath(partition).toString(), new Path(checkpointPath, partition).toString());
+      IncrementalInputTracker.setupCheckpoint(countPartition);
+      if (!runJob(countPartition, engine))
+        return;
+    }
+
+    //Sum every partition's counts into the report; with no partitions left,
+    //there's nothing to sum and the report stays deleted
+    if (tracker.hasPartitions())
+    {
+      Job countUserAgents = setupJob(appArguments[0], outputPath);
+      IncrementalInputTracker.setupRollup(countUserAgents, checkpointPath);
+      if (!runJob(countUserAgents, engine))
+        return;
+    }
+
+    tracker.commit();
+  }
+
+  /****************************************************************************
+  * Configures the job to run.
+  ****************************************************************************/
+  public static Job setupJob(String inputPath, String outputPath) throws Exception
+  {
     //Create the MapReduce job and tell Hadoop about the classes
     Job countUserAgents = new Job(new Configuration());
     countUserAgents.setJobName("Client Statistics");
     countUserAgents.setJarByClass(ClientStatistics.class);
     
-    //Tell Hadoop about the Mapper, but no Reducer for this job
-    //(Hadoop has an IdentityReducer that will output the Mapper output)
+    //Tell Hadoop about the Mapper/Combiner/Reducer
     countUserAgents.setMapperClass(Map.class);
+    countUserAgents.setCombinerClass(Reduce.class);
     countUserAgents.setReducerClass(Reduce.class);
     countUserAgents.setNumReduceTasks(countUserAgents.getConfiguration().getInt("mapred.tasktracker.reduce.tasks.maximum", 4));
     
     //Tell Hadoop about the output
-    countUserAgents.setOutputKeyClass(Text.class);
+    countUserAgents.setOutputKeyClass(ClientStatistics.class);
     countUserAgents.setOutputValueClass(IntWritable.class);
-    countUserAgents.setInputFormatClass(TextInputFormat.class);
+    //Logs recompressed by BlockGzipCompressor are split on their blocks
+    countUserAgents.setInputFormatClass(BlockGzipTextInputFormat.class);
     countUserAgents.setOutputFormatClass(TextOutputFormat.class);
 
     //Set the input/output paths
-    FileInputFormat.addInputPath(countUserAgents, new Path(appArguments[0]));
-    FileOutputFormat.setOutputPath(countUserAgents, new Path(appArguments[1] + "/" + ClientStatistics.class.getSimpleName()));
+    FileInputFormat.addInputPath(countUserAgents, new Path(inputPath));
+    FileOutputFormat.setOutputPath(countUserAgents, new Path(outputPath));
     
-    countUserAgents.waitForCompletion(true);
+    return countUserAgents;
+  }
+
+  /****************************************************************************
+  * Runs a job on the cluster, or in this JVM if given a local engine; returns
+  * whether it succeeded.
+  ****************************************************************************/
+  private static boolean runJob(Job job, LocalExecutionEngine engine) throws Exception
+  {
+    return (engine != null) ? engine.run(job) : job.waitForCompletion(true);
   }
-}
+}
\ No newline at end of file
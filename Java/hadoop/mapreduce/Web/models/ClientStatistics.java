@@ -3,22 +3,57 @@ package hadoop.mapreduce.web.models;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import hadoop.platform.UserAgentClassifier;
+import hadoop.platform.UserAgentClassifier.RuleType;
 
 /******************************************************************************
 * This class encapsulates the basic data for a user's browser and the
 * referring page.
+*
+* It's the shuffle key of the IIS aggregation, so it's serialized compactly:
+* the browser and operating system as a one-byte code for each name the
+* UserAgentClassifier knows (0 followed by the name for anything else), the
+* versions as vints of hundredths, and the referer as a vint length followed
+* by its UTF-8 bytes. The registered raw Comparator orders keys straight from
+* those bytes; keys sort by code, so known browsers come in the classifier's
+* rule order rather than alphabetically.
 ******************************************************************************/
 public class ClientStatistics implements WritableComparable<ClientStatistics>
 {
+  //Constants
+  private static final int OTHER = 0;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //Interned names; a name's code is its index plus one
+  private static final String[] BROWSERS = toArray(UserAgentClassifier.getDefault().getNames(RuleType.BROWSER));
+  private static final String[] OPERATING_SYSTEMS = toArray(UserAgentClassifier.getDefault().getNames(RuleType.OPERATING_SYSTEM));
+  private static final HashMap<String, Integer> BROWSER_CODES = toCodes(BROWSERS);
+  private static final HashMap<String, Integer> OPERATING_SYSTEM_CODES = toCodes(OPERATING_SYSTEMS);
+
   //Property variable declarations
   private String _Browser;
-  private float _BrowserVersion;
+  private int _BrowserCode;
+  private int _BrowserVersion;
   private String _OperatingSystem;
-  private float _OsVersion;
-  private String _Referer;
-  
+  private int _OsCode;
+  private int _OsVersion;
+  private final Text _Referer = new Text();
+
+  //Register the raw comparator so sorts don't deserialize keys
+  static
+  {
+    WritableComparator.define(ClientStatistics.class, new Comparator());
+  }
+
   //###########################################################################
   // Public Properties
   //###########################################################################
@@ -29,15 +64,15 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   {
     return (_Browser != null) ? _Browser : "";
   }
-  
+
   /****************************************************************************
-  * Gets the client's browser version.
+  * Gets the client's browser version, to two decimal places.
   ****************************************************************************/
   public float getBrowserVersion()
   {
-    return _BrowserVersion;
+    return _BrowserVersion / 100f;
   }
-  
+
   /****************************************************************************
   * Gets client's operating system.
   ****************************************************************************/
@@ -47,59 +82,77 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   }
 
   /****************************************************************************
-  * Gets the client's OS version.
+  * Gets the client's OS version, to two decimal places.
   ****************************************************************************/
   public float getOsVersion()
   {
-    return _OsVersion;
+    return _OsVersion / 100f;
   }
-  
+
   /****************************************************************************
   * Gets the referring page.
   ****************************************************************************/
   public String getReferer()
   {
-    return (_Referer != null) ? _Referer : "";
+    return _Referer.toString();
+  }
+
+  /****************************************************************************
+  * Gets the referring page as UTF-8 Text.
+  ****************************************************************************/
+  public Text getRefererValue()
+  {
+    return _Referer;
   }
-  
+
   /****************************************************************************
   * Sets the client's browser.
   ****************************************************************************/
   public void setBrowser(String value)
   {
     _Browser = value;
+    _BrowserCode = toCode(BROWSER_CODES, value);
   }
 
   /****************************************************************************
-  * Sets the client's browser version.
+  * Sets the client's browser version; it's kept to two decimal places.
   ****************************************************************************/
   public void setBrowserVersion(float value)
   {
-    _BrowserVersion = value;
+    _BrowserVersion = Math.round(value * 100);
   }
-  
+
   /****************************************************************************
   * Sets the client's operating system.
   ****************************************************************************/
   public void setOperatingSystem(String value)
   {
     _OperatingSystem = value;
+    _OsCode = toCode(OPERATING_SYSTEM_CODES, value);
   }
-  
+
   /****************************************************************************
-  * Sets the client's OS version.
+  * Sets the client's OS version; it's kept to two decimal places.
   ****************************************************************************/
   public void setOsVersion(float value)
   {
-    _OsVersion = value;
+    _OsVersion = Math.round(value * 100);
   }
-  
+
   /****************************************************************************
   * Sets the referring page.
   ****************************************************************************/
   public void setReferer(String value)
   {
-    _Referer = value;
+    _Referer.set((value != null) ? value : "");
+  }
+
+  /****************************************************************************
+  * Sets the referring page from UTF-8 bytes, copying them.
+  ****************************************************************************/
+  public void setReferer(byte[] bytes, int offset, int length)
+  {
+    _Referer.set(bytes, offset, length);
   }
 
   //###########################################################################
@@ -111,7 +164,7 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   public ClientStatistics()
   {
   }
-  
+
   /****************************************************************************
   * Initializes a populated instance of the object.
   ****************************************************************************/
@@ -119,38 +172,56 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   {
     set(browserName, browserVersion, operatingSystem, osVersion, referringPage);
   }
-  
+
   //###########################################################################
   // WritableComparable Implementation
   //###########################################################################
   @Override
   public void readFields(DataInput input) throws IOException
   {
-    _Browser = input.readUTF();
-    _BrowserVersion = input.readFloat();
-    _OperatingSystem = input.readUTF();
-    _OsVersion = input.readFloat();
-    _Referer = input.readUTF();
+    _BrowserCode = input.readUnsignedByte();
+    _Browser = readName(input, _BrowserCode, BROWSERS);
+    _BrowserVersion = WritableUtils.readVInt(input);
+    _OsCode = input.readUnsignedByte();
+    _OperatingSystem = readName(input, _OsCode, OPERATING_SYSTEMS);
+    _OsVersion = WritableUtils.readVInt(input);
+    _Referer.readFields(input);
   }
 
   @Override
   public void write(DataOutput output) throws IOException
   {
-    output.writeUTF(this.getBrowser());
-    output.writeFloat(_BrowserVersion);
-    output.writeUTF(this.getOperatingSystem());
-    output.writeFloat(_OsVersion);
-    output.writeUTF(this.getReferer());
+    output.writeByte(_BrowserCode);
+    if (_BrowserCode == OTHER)
+      Text.writeString(output, this.getBrowser());
+
+    WritableUtils.writeVInt(output, _BrowserVersion);
+    output.writeByte(_OsCode);
+    if (_OsCode == OTHER)
+      Text.writeString(output, this.getOperatingSystem());
+
+    WritableUtils.writeVInt(output, _OsVersion);
+    _Referer.write(output);
   }
-  
+
+  /****************************************************************************
+  * Orders by browser, browser version, operating system, OS version and
+  * referer, the same way the raw Comparator orders the serialized bytes.
+  ****************************************************************************/
   @Override
   public int compareTo(ClientStatistics targetClientStatistics)
   {
-    return _Browser.compareTo(targetClientStatistics.getBrowser())
-        + new Float(_BrowserVersion).compareTo(targetClientStatistics.getBrowserVersion())
-        + _OperatingSystem.compareTo(targetClientStatistics.getOperatingSystem())
-        + new Float(_OsVersion).compareTo(targetClientStatistics.getOsVersion())
-        + _Referer.compareTo(targetClientStatistics.getReferer());
+    int comparison = compareNames(_BrowserCode, this.getBrowser(), targetClientStatistics._BrowserCode, targetClientStatistics.getBrowser());
+    if (comparison == 0)
+      comparison = compareInts(_BrowserVersion, targetClientStatistics._BrowserVersion);
+    if (comparison == 0)
+      comparison = compareNames(_OsCode, this.getOperatingSystem(), targetClientStatistics._OsCode, targetClientStatistics.getOperatingSystem());
+    if (comparison == 0)
+      comparison = compareInts(_OsVersion, targetClientStatistics._OsVersion);
+    if (comparison == 0)
+      comparison = _Referer.compareTo(targetClientStatistics.getRefererValue());
+
+    return comparison;
   }
 
   //###########################################################################
@@ -161,37 +232,36 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   {
     if (equalityTarget instanceof ClientStatistics)
     {
-      ClientStatistics forEquality = (ClientStatistics)equalityTarget; 
-      return _Browser.equals(forEquality.getBrowser())
-        && _BrowserVersion == forEquality.getBrowserVersion()
-        && _OperatingSystem.equals(forEquality.getOperatingSystem())
-        && _OsVersion == forEquality.getOsVersion()
-        && _Referer.equals(forEquality.getReferer());
+      ClientStatistics forEquality = (ClientStatistics)equalityTarget;
+      return this.getBrowser().equals(forEquality.getBrowser())
+        && _BrowserVersion == forEquality._BrowserVersion
+        && this.getOperatingSystem().equals(forEquality.getOperatingSystem())
+        && _OsVersion == forEquality._OsVersion
+        && _Referer.equals(forEquality.getRefererValue());
     }
-    
+
     return false;
   }
-  
+
   @Override
   public int hashCode()
   {
-    return _Browser.hashCode()
-      + new Float(_BrowserVersion).hashCode()
-      + _OperatingSystem.hashCode()
-      + new Float(_OsVersion).hashCode()
+    return (((this.getBrowser().hashCode() * 31 + _BrowserVersion) * 31
+      + this.getOperatingSystem().hashCode()) * 31
+      + _OsVersion) * 31
       + _Referer.hashCode();
   }
 
   @Override
   public String toString()
   {
-    return _Browser + "\t"
-      + _BrowserVersion + "\t"
-      + _OperatingSystem + "\t"
-      + _OsVersion + "\t"
-      + _Referer;
+    return this.getBrowser() + "\t"
+      + this.getBrowserVersion() + "\t"
+      + this.getOperatingSystem() + "\t"
+      + this.getOsVersion() + "\t"
+      + this.getReferer();
   }
-  
+
   //###########################################################################
   // Public Methods
   //###########################################################################
@@ -201,10 +271,167 @@ public class ClientStatistics implements WritableComparable<ClientStatistics>
   ****************************************************************************/
   public void set(String browserName, float browserVersion, String operatingSystem, float osVersion, String referringPage)
   {
-    _Browser = browserName;
-    _BrowserVersion = browserVersion;
-    _OperatingSystem = operatingSystem;
-    _OsVersion = osVersion;
-    _Referer = referringPage;
+    setBrowser(browserName);
+    setBrowserVersion(browserVersion);
+    setOperatingSystem(operatingSystem);
+    setOsVersion(osVersion);
+    setReferer(referringPage);
+  }
+
+  /****************************************************************************
+  * Populates the properties with the given values, copying the referer from
+  * UTF-8 bytes so the Mapper never has to decode it.
+  ****************************************************************************/
+  public void set(String browserName, float browserVersion, String operatingSystem, float osVersion, byte[] referer, int refererOffset, int refererLength)
+  {
+    setBrowser(browserName);
+    setBrowserVersion(browserVersion);
+    setOperatingSystem(operatingSystem);
+    setOsVersion(osVersion);
+    setReferer(referer, refererOffset, refererLength);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Compares two ints.
+  ****************************************************************************/
+  private static int compareInts(int left, int right)
+  {
+    return (left < right) ? -1 : ((left == right) ? 0 : 1);
+  }
+
+  /****************************************************************************
+  * Compares two interned names by code, then names without a code by their
+  * UTF-8 bytes.
+  ****************************************************************************/
+  private static int compareNames(int leftCode, String left, int rightCode, String right)
+  {
+    if (leftCode != rightCode)
+      return compareInts(leftCode, rightCode);
+    else if (leftCode != OTHER)
+      return 0;
+
+    byte[] leftBytes = left.getBytes(UTF8);
+    byte[] rightBytes = right.getBytes(UTF8);
+    return WritableComparator.compareBytes(leftBytes, 0, leftBytes.length, rightBytes, 0, rightBytes.length);
+  }
+
+  /****************************************************************************
+  * Reads a name serialized as its code, or as 0 followed by the name.
+  ****************************************************************************/
+  private static String readName(DataInput input, int code, String[] names) throws IOException
+  {
+    if (code == OTHER)
+      return Text.readString(input);
+    else if (code > names.length)
+      throw new IOException("Unknown interned name code: " + code);
+
+    return names[code - 1];
+  }
+
+  /****************************************************************************
+  * Converts a list of names to an array; there can be at most 255 since
+  * codes are written as a byte.
+  ****************************************************************************/
+  private static String[] toArray(List<String> names)
+  {
+    if (names.size() > 255)
+      throw new IllegalStateException("Too many names to intern: " + names.size());
+
+    return names.toArray(new String[names.size()]);
+  }
+
+  /****************************************************************************
+  * Gets the code of a name; 0 if it isn't interned.
+  ****************************************************************************/
+  private static int toCode(HashMap<String, Integer> codes, String name)
+  {
+    Integer code = (name != null) ? codes.get(name) : null;
+    return (code != null) ? code : OTHER;
+  }
+
+  /****************************************************************************
+  * Maps each name to its code.
+  ****************************************************************************/
+  private static HashMap<String, Integer> toCodes(String[] names)
+  {
+    HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    for (int index = 0; index < names.length; index++)
+      codes.put(names[index], index + 1);
+
+    return codes;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Compares serialized ClientStatistics straight from the bytes.
+  ****************************************************************************/
+  public static class Comparator extends WritableComparator
+  {
+    /**************************************************************************
+    * Initializes a comparator for ClientStatistics.
+    **************************************************************************/
+    public Comparator()
+    {
+      super(ClientStatistics.class);
+    }
+
+    @Override
+    public int compare(byte[] leftBytes, int leftStart, int leftLength, byte[] rightBytes, int rightStart, int rightLength)
+    {
+      try
+      {
+        int left = leftStart;
+        int right = rightStart;
+
+        //The browser and then the operating system: a code, the name if the
+        //code is 0, then the version
+        for (int name = 0; name < 2; name++)
+        {
+          int leftCode = leftBytes[left++] & 0xFF;
+          int rightCode = rightBytes[right++] & 0xFF;
+          if (leftCode != rightCode)
+            return compareInts(leftCode, rightCode);
+
+          if (leftCode == OTHER)
+          {
+            int leftNameLength = readVInt(leftBytes, left);
+            int rightNameLength = readVInt(rightBytes, right);
+            left += WritableUtils.decodeVIntSize(leftBytes[left]);
+            right += WritableUtils.decodeVIntSize(rightBytes[right]);
+
+            int comparison = compareBytes(leftBytes, left, leftNameLength, rightBytes, right, rightNameLength);
+            if (comparison != 0)
+              return comparison;
+
+            left += leftNameLength;
+            right += rightNameLength;
+          }
+
+          int leftVersion = readVInt(leftBytes, left);
+          int rightVersion = readVInt(rightBytes, right);
+          if (leftVersion != rightVersion)
+            return compareInts(leftVersion, rightVersion);
+
+          left += WritableUtils.decodeVIntSize(leftBytes[left]);
+          right += WritableUtils.decodeVIntSize(rightBytes[right]);
+        }
+
+        //The referer
+        int leftRefererLength = readVInt(leftBytes, left);
+        int rightRefererLength = readVInt(rightBytes, right);
+        left += WritableUtils.decodeVIntSize(leftBytes[left]);
+        right += WritableUtils.decodeVIntSize(rightBytes[right]);
+        return compareBytes(leftBytes, left, leftRefererLength, rightBytes, right, rightRefererLength);
+      }
+      catch (IOException ioe)
+      {
+        throw new IllegalArgumentException(ioe);
+      }
+    }
   }
-}
+}
\ No newline at end of file
@@ -0,0 +1,337 @@
+package hadoop.platform;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.util.LineReader;
+
+/******************************************************************************
+* A TextInputFormat that splits gzipped files written by BlockGzipCompressor.
+* Those files are a series of independent gzip members, each holding whole
+* lines, with an index file alongside ("<file>.index") listing the offset of
+* every member as 8-byte longs; the file itself is still ordinary gzip. Splits
+* of indexed files are moved to member boundaries, so each mapper decompresses
+* only its own members, and the indexes themselves aren't read as input. Files
+* without an index are read exactly as TextInputFormat reads them, so a gzip
+* file gets a single mapper.
+******************************************************************************/
+public class BlockGzipTextInputFormat extends TextInputFormat
+{
+  //Constants
+  public static final String INDEX_EXTENSION = ".index";
+
+  //Block offsets of the indexed files, followed by the file length; looked
+  //up once per file while splits are computed
+  private final HashMap<Path, long[]> _Indexes = new HashMap<Path, long[]>();
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context)
+  {
+    try
+    {
+      Path file = ((FileSplit)split).getPath();
+      if (file.getFileSystem(context.getConfiguration()).exists(getIndexPath(file)))
+        return new BlockGzipRecordReader();
+    }
+    catch (IOException ioe)
+    {
+      throw new IllegalStateException("Can't look for the index of " + split, ioe);
+    }
+
+    return super.createRecordReader(split, context);
+  }
+
+  /****************************************************************************
+  * Moves the splits of indexed files to the first block boundary at or after
+  * their start and end, dropping splits left empty.
+  ****************************************************************************/
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException
+  {
+    List<InputSplit> splits = super.getSplits(context);
+    List<InputSplit> alignedSplits = new ArrayList<InputSplit>(splits.size());
+    for (InputSplit split : splits)
+    {
+      FileSplit fileSplit = (FileSplit)split;
+      long[] blocks = getIndex(context, fileSplit.getPath());
+      if (blocks == null)
+      {
+        alignedSplits.add(split);
+        continue;
+      }
+
+      long start = alignToBlock(blocks, fileSplit.getStart());
+      long end = alignToBlock(blocks, fileSplit.getStart() + fileSplit.getLength());
+      if (end > start)
+        alignedSplits.add(new FileSplit(fileSplit.getPath(), start, end - start, fileSplit.getLocations()));
+    }
+
+    return alignedSplits;
+  }
+
+  /****************************************************************************
+  * Gets the path of a file's index.
+  ****************************************************************************/
+  public static Path getIndexPath(Path file)
+  {
+    return file.suffix(INDEX_EXTENSION);
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file)
+  {
+    try
+    {
+      return getIndex(context, file) != null || super.isSplitable(context, file);
+    }
+    catch (IOException ioe)
+    {
+      return super.isSplitable(context, file);
+    }
+  }
+
+  /****************************************************************************
+  * Lists the input files, leaving out the indexes written alongside them so
+  * they aren't read as text.
+  ****************************************************************************/
+  @Override
+  protected List<FileStatus> listStatus(JobContext context) throws IOException
+  {
+    List<FileStatus> files = super.listStatus(context);
+    List<FileStatus> dataFiles = new ArrayList<FileStatus>(files.size());
+    for (FileStatus file : files)
+    {
+      if (!file.getPath().getName().endsWith(INDEX_EXTENSION))
+        dataFiles.add(file);
+    }
+
+    return dataFiles;
+  }
+
+  /****************************************************************************
+  * Gets the first block offset at or after the position; the file length if
+  * the position is inside the last block.
+  ****************************************************************************/
+  private static long alignToBlock(long[] blocks, long position)
+  {
+    int low = 0;
+    int high = blocks.length - 1;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (blocks[middle] < position)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+
+    return blocks[low];
+  }
+
+  /****************************************************************************
+  * Reads the block offsets of a file, with the file length appended; null if
+  * the file isn't indexed.
+  ****************************************************************************/
+  private long[] getIndex(JobContext context, Path file) throws IOException
+  {
+    if (_Indexes.containsKey(file))
+      return _Indexes.get(file);
+
+    long[] blocks = null;
+    FileSystem fileSystem = file.getFileSystem(context.getConfiguration());
+    Path indexFile = getIndexPath(file);
+    if (fileSystem.exists(indexFile))
+    {
+      int blockCount = (int)(fileSystem.getFileStatus(indexFile).getLen() / 8);
+      blocks = new long[blockCount + 1];
+
+      FSDataInputStream index = fileSystem.open(indexFile);
+      try
+      {
+        for (int block = 0; block < blockCount; block++)
+          blocks[block] = index.readLong();
+      }
+      finally
+      {
+        index.close();
+      }
+
+      blocks[blockCount] = fileSystem.getFileStatus(file).getLen();
+    }
+
+    _Indexes.put(file, blocks);
+    return blocks;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * Reads the lines of a split that starts and ends on block boundaries, so
+  * the compressed bytes of the split decompress on their own and no line
+  * crosses into another split. Keys are the position in the compressed file.
+  ****************************************************************************/
+  private static class BlockGzipRecordReader extends RecordReader<LongWritable, Text>
+  {
+    //Object creation/destruction are expensive; instantiate objects here
+    private Decompressor _Decompressor;
+    private long _End;
+    private FSDataInputStream _FileInput;
+    private final LongWritable _Key = new LongWritable();
+    private LineReader _Lines;
+    private long _Start;
+    private final Text _Value = new Text();
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException
+    {
+      Configuration conf = context.getConfiguration();
+      FileSplit fileSplit = (FileSplit)split;
+      Path file = fileSplit.getPath();
+
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+      if (codec == null)
+        throw new IOException("No compression codec for indexed file " + file + ".");
+
+      _Start = fileSplit.getStart();
+      _End = _Start + fileSplit.getLength();
+      _FileInput = file.getFileSystem(conf).open(file);
+      _FileInput.seek(_Start);
+
+      _Decompressor = CodecPool.getDecompressor(codec);
+      _Lines = new LineReader(codec.createInputStream(new BoundedInputStream(_FileInput, _End - _Start), _Decompressor), conf);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException
+    {
+      _Key.set(_FileInput.getPos());
+      return _Lines.readLine(_Value) > 0;
+    }
+
+    @Override
+    public LongWritable getCurrentKey()
+    {
+      return _Key;
+    }
+
+    @Override
+    public Text getCurrentValue()
+    {
+      return _Value;
+    }
+
+    @Override
+    public float getProgress() throws IOException
+    {
+      if (_End == _Start)
+        return 1.0f;
+
+      return Math.min(1.0f, (_FileInput.getPos() - _Start) / (float)(_End - _Start));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      try
+      {
+        if (_Lines != null)
+          _Lines.close();
+      }
+      finally
+      {
+        if (_Decompressor != null)
+        {
+          CodecPool.returnDecompressor(_Decompressor);
+          _Decompressor = null;
+        }
+      }
+    }
+  }
+
+  /****************************************************************************
+  * Reads no more than a set number of bytes from the underlying stream, so
+  * the decompressor stops at the end of the split's last block.
+  ****************************************************************************/
+  private static class BoundedInputStream extends FilterInputStream
+  {
+    //Property variable declarations
+    private long _Remaining;
+
+    /**************************************************************************
+    * Initializes a stream of at most the given number of bytes.
+    **************************************************************************/
+    public BoundedInputStream(InputStream input, long length)
+    {
+      super(input);
+      _Remaining = length;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+      return (int)Math.min(super.available(), _Remaining);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+      return false;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      if (_Remaining <= 0)
+        return -1;
+
+      int value = super.read();
+      if (value >= 0)
+        _Remaining--;
+
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+      if (_Remaining <= 0)
+        return -1;
+
+      int read = super.read(buffer, offset, (int)Math.min(length, _Remaining));
+      if (read > 0)
+        _Remaining -= read;
+
+      return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException
+    {
+      long skipped = super.skip(Math.min(count, _Remaining));
+      _Remaining -= skipped;
+      return skipped;
+    }
+  }
+}
\ No newline at end of file
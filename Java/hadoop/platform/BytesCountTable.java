@@ -0,0 +1,162 @@
+package hadoop.platform;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/******************************************************************************
+* Counts occurrences of serialized keys in a fixed amount of memory, so a
+* Mapper can aggregate before anything is written to the shuffle. Keys are
+* copied into a single byte arena and found through an open-addressing table
+* of entry numbers probed linearly; counts are primitive ints. Nothing grows:
+* once the arena or the entries are used up, increment() returns false and
+* the caller emits the entries and clears the table.
+******************************************************************************/
+public class BytesCountTable
+{
+  //Constants
+  private static final int EMPTY = -1;
+
+  //Property variable declarations
+  private final byte[] _Arena;
+  private int _ArenaLength;
+  private final int[] _Counts;
+  private int _EntryCount;
+  private final int[] _Hashes;
+  private final int[] _KeyLengths;
+  private final int[] _KeyOffsets;
+  private final int[] _Slots;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the arena holding every entry's key bytes.
+  ****************************************************************************/
+  public byte[] getBytes()
+  {
+    return _Arena;
+  }
+
+  /****************************************************************************
+  * Gets an entry's count.
+  ****************************************************************************/
+  public int getCount(int entry)
+  {
+    return _Counts[entry];
+  }
+
+  /****************************************************************************
+  * Gets the length of an entry's key bytes.
+  ****************************************************************************/
+  public int getKeyLength(int entry)
+  {
+    return _KeyLengths[entry];
+  }
+
+  /****************************************************************************
+  * Gets where an entry's key bytes start in the arena.
+  ****************************************************************************/
+  public int getKeyOffset(int entry)
+  {
+    return _KeyOffsets[entry];
+  }
+
+  /****************************************************************************
+  * Gets the number of distinct keys; entries are numbered from 0 in the order
+  * they were added.
+  ****************************************************************************/
+  public int size()
+  {
+    return _EntryCount;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a table of at most the given number of keys and key bytes.
+  ****************************************************************************/
+  public BytesCountTable(int maximumEntries, int arenaBytes)
+  {
+    if (maximumEntries < 1 || arenaBytes < 1)
+      throw new IllegalArgumentException("A count table needs room for at least one key.");
+
+    //Keep the load factor at or under a half so probe sequences stay short
+    int slotCount = Integer.highestOneBit(maximumEntries) << 2;
+    _Slots = new int[slotCount];
+    Arrays.fill(_Slots, EMPTY);
+
+    _Arena = new byte[arenaBytes];
+    _Counts = new int[maximumEntries];
+    _Hashes = new int[maximumEntries];
+    _KeyLengths = new int[maximumEntries];
+    _KeyOffsets = new int[maximumEntries];
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Removes every entry.
+  ****************************************************************************/
+  public void clear()
+  {
+    Arrays.fill(_Slots, EMPTY);
+    _ArenaLength = 0;
+    _EntryCount = 0;
+  }
+
+  /****************************************************************************
+  * Adds to the count of a key, copying the key if it's new; false, with the
+  * table unchanged, if a new key doesn't fit.
+  ****************************************************************************/
+  public boolean increment(byte[] bytes, int offset, int length, int count)
+  {
+    int hash = WritableComparator.hashBytes(bytes, offset, length);
+    int mask = _Slots.length - 1;
+    int slot = mix(hash) & mask;
+
+    while (_Slots[slot] != EMPTY)
+    {
+      int entry = _Slots[slot];
+      if (_Hashes[entry] == hash && WritableComparator.compareBytes(_Arena, _KeyOffsets[entry], _KeyLengths[entry], bytes, offset, length) == 0)
+      {
+        _Counts[entry] += count;
+        return true;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    if (_EntryCount == _Counts.length || _ArenaLength + length > _Arena.length)
+      return false;
+
+    int entry = _EntryCount++;
+    System.arraycopy(bytes, offset, _Arena, _ArenaLength, length);
+    _Counts[entry] = count;
+    _Hashes[entry] = hash;
+    _KeyLengths[entry] = length;
+    _KeyOffsets[entry] = _ArenaLength;
+    _ArenaLength += length;
+    _Slots[slot] = entry;
+    return true;
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Spreads the bits of a hash so keys that differ only in their last bytes
+  * don't land in neighbouring slots (the MurmurHash3 finalizer).
+  ****************************************************************************/
+  private static int mix(int hash)
+  {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
\ No newline at end of file
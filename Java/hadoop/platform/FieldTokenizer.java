@@ -0,0 +1,196 @@
+package hadoop.platform;
+
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.Text;
+
+/******************************************************************************
+* Splits a delimited record into columns by scanning the raw UTF-8 bytes of a
+* Text object and recording the start/end offset of each column. No Strings
+* are created while tokenizing; a column is only decoded when it's requested,
+* and scanning stops once the highest column the caller needs has been found.
+* Instances are meant to be created once per Mapper and reused for every
+* record, they aren't thread-safe.
+******************************************************************************/
+public class FieldTokenizer
+{
+  //Constants
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //Property variable declarations
+  private byte[] _Bytes;
+  private int _ColumnCount;
+  private final byte _Delimiter;
+  private final int[] _Ends;
+  private final int _MaxColumn;
+  private final int[] _Starts;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the backing byte array of the last tokenized record.
+  ****************************************************************************/
+  public byte[] getBytes()
+  {
+    return _Bytes;
+  }
+
+  /****************************************************************************
+  * Gets the number of columns found in the last tokenized record; never
+  * larger than the highest requested column + 1.
+  ****************************************************************************/
+  public int getColumnCount()
+  {
+    return _ColumnCount;
+  }
+
+  /****************************************************************************
+  * Gets the highest column index this tokenizer will scan to.
+  ****************************************************************************/
+  public int getMaxColumn()
+  {
+    return _MaxColumn;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a tokenizer that splits on the given single-byte delimiter and
+  * stops scanning after the column at index maxColumn.
+  ****************************************************************************/
+  public FieldTokenizer(char delimiter, int maxColumn)
+  {
+    if (delimiter > 0x7F)
+      throw new IllegalArgumentException("The delimiter must be a single-byte (ASCII) character.");
+    else if (maxColumn < 0)
+      throw new IllegalArgumentException("The maximum column can't be negative.");
+
+    _Delimiter = (byte)delimiter;
+    _MaxColumn = maxColumn;
+    _Starts = new int[maxColumn + 1];
+    _Ends = new int[maxColumn + 1];
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Tokenizes the record held in the Text object; returns the number of
+  * columns found.
+  ****************************************************************************/
+  public int tokenize(Text record)
+  {
+    return tokenize(record.getBytes(), 0, record.getLength());
+  }
+
+  /****************************************************************************
+  * Tokenizes the record held in the byte range; returns the number of
+  * columns found.
+  ****************************************************************************/
+  public int tokenize(byte[] bytes, int offset, int length)
+  {
+    _Bytes = bytes;
+    _ColumnCount = 0;
+
+    int end = offset + length;
+    int columnStart = offset;
+    for (int index = offset; index < end; index++)
+    {
+      if (bytes[index] == _Delimiter)
+      {
+        _Starts[_ColumnCount] = columnStart;
+        _Ends[_ColumnCount] = index;
+
+        //Stop once the last column needed has been found
+        if (++_ColumnCount > _MaxColumn)
+          return _ColumnCount;
+
+        columnStart = index + 1;
+      }
+    }
+
+    //The last column isn't followed by a delimiter
+    _Starts[_ColumnCount] = columnStart;
+    _Ends[_ColumnCount] = end;
+    return ++_ColumnCount;
+  }
+
+  /****************************************************************************
+  * Tests if the column exists in the last tokenized record.
+  ****************************************************************************/
+  public boolean hasColumn(int column)
+  {
+    return column >= 0 && column < _ColumnCount;
+  }
+
+  /****************************************************************************
+  * Tests if the column is missing or contains no characters.
+  ****************************************************************************/
+  public boolean isEmpty(int column)
+  {
+    return !hasColumn(column) || _Ends[column] == _Starts[column];
+  }
+
+  /****************************************************************************
+  * Gets the offset of the first byte of the column.
+  ****************************************************************************/
+  public int getStart(int column)
+  {
+    checkColumn(column);
+    return _Starts[column];
+  }
+
+  /****************************************************************************
+  * Gets the number of bytes in the column.
+  ****************************************************************************/
+  public int getLength(int column)
+  {
+    checkColumn(column);
+    return _Ends[column] - _Starts[column];
+  }
+
+  /****************************************************************************
+  * Tests if the column's bytes are equal to the ASCII text.
+  ****************************************************************************/
+  public boolean equalsAscii(int column, String text)
+  {
+    if (!hasColumn(column) || getLength(column) != text.length())
+      return false;
+
+    int start = _Starts[column];
+    for (int index = 0; index < text.length(); index++)
+    {
+      if (_Bytes[start + index] != (byte)text.charAt(index))
+        return false;
+    }
+
+    return true;
+  }
+
+  /****************************************************************************
+  * Decodes the column into a String; returns an empty string if the column
+  * doesn't exist.
+  ****************************************************************************/
+  public String getString(int column)
+  {
+    if (isEmpty(column))
+      return "";
+
+    return new String(_Bytes, _Starts[column], _Ends[column] - _Starts[column], UTF8);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Throws if the column doesn't exist in the last tokenized record, mirroring
+  * the behavior of indexing past the end of a String.split() array.
+  ****************************************************************************/
+  private void checkColumn(int column)
+  {
+    if (!hasColumn(column))
+      throw new ArrayIndexOutOfBoundsException(column);
+  }
+}
\ No newline at end of file
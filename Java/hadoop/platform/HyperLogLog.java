@@ -0,0 +1,251 @@
+package hadoop.platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/******************************************************************************
+* Estimates the number of distinct values added to it in a fixed amount of
+* memory: 2^precision one-byte registers, each keeping the longest run of
+* leading zero bits seen among the 64-bit hashes routed to it. The standard
+* error is about 1.04 / sqrt(2^precision), so 1.6% at the default precision of
+* 12 (4 KB). Sketches of the same precision merge by taking the larger of each
+* register, so partial sketches from Mappers, combiners and earlier runs can be
+* combined in any order. Sketches with few registers set are written sparsely.
+******************************************************************************/
+public class HyperLogLog implements Writable
+{
+  //Constants
+  public static final int DEFAULT_PRECISION = 12;
+  public static final int MINIMUM_PRECISION = 4;
+  public static final int MAXIMUM_PRECISION = 16;
+  private static final int DENSE = 0;
+  private static final int SPARSE = 1;
+
+  //Property variable declarations
+  private int _Precision;
+  private byte[] _Registers;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of index bits; the sketch has 2^precision registers.
+  ****************************************************************************/
+  public int getPrecision()
+  {
+    return _Precision;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes an empty sketch of the default precision.
+  ****************************************************************************/
+  public HyperLogLog()
+  {
+    this(DEFAULT_PRECISION);
+  }
+
+  /****************************************************************************
+  * Initializes an empty sketch of the given precision.
+  ****************************************************************************/
+  public HyperLogLog(int precision)
+  {
+    if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION)
+      throw new IllegalArgumentException("HyperLogLog precision must be from " + MINIMUM_PRECISION + " to " + MAXIMUM_PRECISION + ": " + precision);
+
+    _Precision = precision;
+    _Registers = new byte[1 << precision];
+  }
+
+  //###########################################################################
+  // Writable Implementation
+  //###########################################################################
+  /****************************************************************************
+  * Reads a sketch, replacing the current one (and its precision).
+  ****************************************************************************/
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    int precision = input.readUnsignedByte();
+    if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION)
+      throw new IOException("Invalid HyperLogLog precision: " + precision);
+
+    if (precision != _Precision)
+    {
+      _Precision = precision;
+      _Registers = new byte[1 << precision];
+    }
+    else
+      Arrays.fill(_Registers, (byte)0);
+
+    int encoding = input.readUnsignedByte();
+    if (encoding == DENSE)
+      input.readFully(_Registers);
+    else if (encoding == SPARSE)
+    {
+      int count = WritableUtils.readVInt(input);
+      int index = -1;
+      for (int register = 0; register < count; register++)
+      {
+        index += WritableUtils.readVInt(input);
+        if (index < 0 || index >= _Registers.length)
+          throw new IOException("Invalid HyperLogLog register: " + index);
+
+        _Registers[index] = input.readByte();
+      }
+    }
+    else
+      throw new IOException("Unknown HyperLogLog encoding: " + encoding);
+  }
+
+  /****************************************************************************
+  * Writes the precision and the registers, as (gap, value) pairs if few are
+  * set and all of them otherwise.
+  ****************************************************************************/
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    output.writeByte(_Precision);
+
+    int count = 0;
+    for (byte register : _Registers)
+    {
+      if (register != 0)
+        count++;
+    }
+
+    //A sparse register takes about two bytes
+    if (count * 2 >= _Registers.length)
+    {
+      output.writeByte(DENSE);
+      output.write(_Registers);
+      return;
+    }
+
+    output.writeByte(SPARSE);
+    WritableUtils.writeVInt(output, count);
+    int previous = -1;
+    for (int index = 0; index < _Registers.length; index++)
+    {
+      if (_Registers[index] != 0)
+      {
+        WritableUtils.writeVInt(output, index - previous);
+        output.writeByte(_Registers[index]);
+        previous = index;
+      }
+    }
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Adds a value by its 64-bit hash; the hash is mixed first, so hashes with
+  * weak low or high bits (e.g. FNV) are fine.
+  ****************************************************************************/
+  public void add(long hash)
+  {
+    hash = mix(hash);
+    int index = (int)(hash >>> (64 - _Precision));
+
+    //The rank is the position of the first 1 bit after the index bits; the
+    //OR caps it when those bits are all zero
+    int rank = Long.numberOfLeadingZeros((hash << _Precision) | (1L << (_Precision - 1))) + 1;
+    if (rank > _Registers[index])
+      _Registers[index] = (byte)rank;
+  }
+
+  /****************************************************************************
+  * Removes every value.
+  ****************************************************************************/
+  public void clear()
+  {
+    Arrays.fill(_Registers, (byte)0);
+  }
+
+  /****************************************************************************
+  * Estimates the number of distinct values added, using linear counting while
+  * the estimate is small enough for empty registers to be more accurate.
+  ****************************************************************************/
+  public long estimate()
+  {
+    int registerCount = _Registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : _Registers)
+    {
+      sum += 1.0 / (1L << register);
+      if (register == 0)
+        zeros++;
+    }
+
+    double alpha;
+    if (registerCount == 16)
+      alpha = 0.673;
+    else if (registerCount == 32)
+      alpha = 0.697;
+    else if (registerCount == 64)
+      alpha = 0.709;
+    else
+      alpha = 0.7213 / (1 + 1.079 / registerCount);
+
+    double estimate = alpha * registerCount * registerCount / sum;
+    if (estimate <= 2.5 * registerCount && zeros > 0)
+      estimate = registerCount * Math.log((double)registerCount / zeros);
+
+    return Math.round(estimate);
+  }
+
+  /****************************************************************************
+  * Merges another sketch of the same precision into this one.
+  ****************************************************************************/
+  public void merge(HyperLogLog sketch)
+  {
+    if (sketch.getPrecision() != _Precision)
+      throw new IllegalArgumentException("Can't merge a HyperLogLog of precision " + sketch.getPrecision() + " into one of precision " + _Precision + ".");
+
+    for (int index = 0; index < _Registers.length; index++)
+    {
+      if (sketch._Registers[index] > _Registers[index])
+        _Registers[index] = sketch._Registers[index];
+    }
+  }
+
+  /****************************************************************************
+  * Makes this sketch a copy of another, precision included; used so a
+  * reused sketch can be re-populated instead of instantiated each time.
+  ****************************************************************************/
+  public void set(HyperLogLog sketch)
+  {
+    if (sketch.getPrecision() != _Precision)
+    {
+      _Precision = sketch.getPrecision();
+      _Registers = new byte[1 << _Precision];
+    }
+
+    System.arraycopy(sketch._Registers, 0, _Registers, 0, _Registers.length);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Spreads every bit of a hash over all 64 bits (the MurmurHash3 finalizer).
+  ****************************************************************************/
+  private static long mix(long hash)
+  {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
\ No newline at end of file
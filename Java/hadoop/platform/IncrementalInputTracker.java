@@ -0,0 +1,282 @@
+package hadoop.platform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/******************************************************************************
+* Tracks which partitions of an input path have been processed, so a job can
+* process only what's new. Each directory directly under the input path is a
+* partition (e.g. a day's logs), as is each file directly under it. A manifest
+* in the output's "_checkpoints" directory records the length and modification
+* time of every file processed; a partition with a file added, changed or
+* removed since then is changed and is processed again, on its own, into a
+* checkpoint: the job's partial aggregates for that partition, as a
+* SequenceFile. A rollup job then merges every partition's checkpoint into the
+* report with the job's own Reducer, so a late file costs its partition rather
+* than a rebuild. Partitions no longer in the input (e.g. ones that aged out of
+* a rolling window) have their checkpoints removed. The manifest is only
+* written by commit(), once the jobs succeed, so a failed run is retried.
+******************************************************************************/
+public class IncrementalInputTracker
+{
+  //Constants
+  public static final String CHECKPOINT_DIRECTORY = "_checkpoints";
+  private static final String MANIFEST_EXTENSION = ".manifest";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //Property variable declarations
+  private final TreeMap<String, TreeSet<String>> _Current = new TreeMap<String, TreeSet<String>>();
+  private final Path _InputPath;
+  private final Path _ManifestPath;
+  private final FileSystem _OutputFileSystem;
+  private final TreeMap<String, TreeSet<String>> _Processed = new TreeMap<String, TreeSet<String>>();
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the partitions that are new or have changed since the last commit.
+  ****************************************************************************/
+  public List<String> getChangedPartitions()
+  {
+    List<String> changed = new ArrayList<String>();
+    for (String partition : _Current.keySet())
+    {
+      if (!_Current.get(partition).equals(_Processed.get(partition)))
+        changed.add(partition);
+    }
+
+    return changed;
+  }
+
+  /****************************************************************************
+  * Gets the partitions processed before that are no longer in the input.
+  ****************************************************************************/
+  public List<String> getRemovedPartitions()
+  {
+    List<String> removed = new ArrayList<String>();
+    for (String partition : _Processed.keySet())
+    {
+      if (!_Current.containsKey(partition))
+        removed.add(partition);
+    }
+
+    return removed;
+  }
+
+  /****************************************************************************
+  * Gets whether the input has any partitions; when every one has been
+  * removed there are no checkpoints left to roll up.
+  ****************************************************************************/
+  public boolean hasPartitions()
+  {
+    return !_Current.isEmpty();
+  }
+
+  /****************************************************************************
+  * Gets whether any partition has changed or been removed.
+  ****************************************************************************/
+  public boolean hasChanges()
+  {
+    return !getChangedPartitions().isEmpty() || !getRemovedPartitions().isEmpty();
+  }
+
+  /****************************************************************************
+  * Gets the input path of a partition.
+  ****************************************************************************/
+  public Path getPartitionPath(String partition)
+  {
+    return new Path(_InputPath, partition);
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Reads the manifest a name (usually the job's) keeps in the output path, if
+  * there is one, and lists the input's partitions.
+  ****************************************************************************/
+  public IncrementalInputTracker(Configuration conf, String inputPath, String outputPath, String name) throws IOException
+  {
+    _InputPath = new Path(inputPath);
+    _ManifestPath = new Path(new Path(outputPath, CHECKPOINT_DIRECTORY), name + MANIFEST_EXTENSION);
+    _OutputFileSystem = _ManifestPath.getFileSystem(conf);
+
+    readManifest();
+
+    //Each directory or file directly under the input is a partition
+    FileSystem inputFileSystem = _InputPath.getFileSystem(conf);
+    for (FileStatus child : inputFileSystem.listStatus(_InputPath))
+    {
+      if (isHidden(child.getPath()))
+        continue;
+
+      TreeSet<String> files = new TreeSet<String>();
+      listFiles(inputFileSystem, child, files);
+      _Current.put(child.getPath().getName(), files);
+    }
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Records the input as processed; call once every job has succeeded.
+  ****************************************************************************/
+  public void commit() throws IOException
+  {
+    Writer manifest = new BufferedWriter(new OutputStreamWriter(_OutputFileSystem.create(_ManifestPath, true), UTF8));
+    try
+    {
+      for (String partition : _Current.keySet())
+      {
+        for (String file : _Current.get(partition))
+          manifest.write(partition + "\t" + file + "\n");
+      }
+    }
+    finally
+    {
+      manifest.close();
+    }
+  }
+
+  /****************************************************************************
+  * Deletes the checkpoints of changed and removed partitions, and the report
+  * they're rolled up into, so they can be written again; both must be in the
+  * output path.
+  ****************************************************************************/
+  public void prepare(Path checkpointPath, Path reportPath) throws IOException
+  {
+    prepare(checkpointPath);
+    _OutputFileSystem.delete(reportPath, true);
+  }
+
+  /****************************************************************************
+  * Deletes what's kept per partition under a path (checkpoints, or
+  * intermediate files a previous run didn't clean up) for changed and
+  * removed partitions, so it can be written again; the path must be in the
+  * output path.
+  ****************************************************************************/
+  public void prepare(Path partitionsPath) throws IOException
+  {
+    for (String partition : getChangedPartitions())
+      _OutputFileSystem.delete(new Path(partitionsPath, partition), true);
+
+    for (String partition : getRemovedPartitions())
+      _OutputFileSystem.delete(new Path(partitionsPath, partition), true);
+  }
+
+  /****************************************************************************
+  * Gets where a job's partition checkpoints are kept in an output path.
+  ****************************************************************************/
+  public static Path getCheckpointPath(String outputPath, Class<?> job)
+  {
+    return new Path(new Path(outputPath, CHECKPOINT_DIRECTORY), job.getSimpleName());
+  }
+
+  /****************************************************************************
+  * Makes a configured job write a partition's checkpoint: its output, which
+  * must be the partial aggregates its rollup Reducer reads, is written as a
+  * SequenceFile.
+  ****************************************************************************/
+  public static void setupCheckpoint(Job job)
+  {
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+  }
+
+  /****************************************************************************
+  * Makes a configured job roll the partition checkpoints up into its report:
+  * the checkpoints are read in place of the input and passed through to the
+  * job's Combiner/Reducer unchanged. There must be at least one checkpoint,
+  * so skip the rollup when the input has no partitions (see hasPartitions()).
+  ****************************************************************************/
+  public static void setupRollup(Job job, Path checkpointPath) throws IOException
+  {
+    job.setMapperClass(Mapper.class);
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(job, new Path(checkpointPath, "*"));
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Gets whether a path is one Hadoop ignores (e.g. "_SUCCESS", ".crc" files).
+  ****************************************************************************/
+  private static boolean isHidden(Path path)
+  {
+    return path.getName().startsWith("_") || path.getName().startsWith(".");
+  }
+
+  /****************************************************************************
+  * Adds every file under a path as "path\tlength\tmodification time".
+  ****************************************************************************/
+  private static void listFiles(FileSystem fileSystem, FileStatus status, TreeSet<String> files) throws IOException
+  {
+    if (!status.isDirectory())
+    {
+      files.add(status.getPath() + "\t" + status.getLen() + "\t" + status.getModificationTime());
+      return;
+    }
+
+    for (FileStatus child : fileSystem.listStatus(status.getPath()))
+    {
+      if (!isHidden(child.getPath()))
+        listFiles(fileSystem, child, files);
+    }
+  }
+
+  /****************************************************************************
+  * Reads the files processed by the last commit, if there was one.
+  ****************************************************************************/
+  private void readManifest() throws IOException
+  {
+    if (!_OutputFileSystem.exists(_ManifestPath))
+      return;
+
+    BufferedReader manifest = new BufferedReader(new InputStreamReader(_OutputFileSystem.open(_ManifestPath), UTF8));
+    try
+    {
+      String line;
+      while ((line = manifest.readLine()) != null)
+      {
+        int separator = line.indexOf('\t');
+        if (separator < 0)
+          continue;
+
+        String partition = line.substring(0, separator);
+        TreeSet<String> files = _Processed.get(partition);
+        if (files == null)
+        {
+          files = new TreeSet<String>();
+          _Processed.put(partition, files);
+        }
+
+        files.add(line.substring(separator + 1));
+      }
+    }
+    finally
+    {
+      manifest.close();
+    }
+  }
+}
\ No newline at end of file
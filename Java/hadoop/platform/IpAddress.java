@@ -0,0 +1,486 @@
+package hadoop.platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/******************************************************************************
+* An IPv4 or IPv6 address held in its packed binary form: an int for IPv4 and
+* two longs for IPv6. Addresses are parsed by hand straight from raw bytes
+* and are only rendered as text when toString() is called, so they're cheap
+* to serialize, compare, hash and group on. The object is mutable so a
+* Mapper can re-populate one instance for every record.
+******************************************************************************/
+public class IpAddress implements WritableComparable<IpAddress>
+{
+  //Constants
+  public static final int NONE = 0;
+  public static final int V4 = 4;
+  public static final int V6 = 6;
+  private static final long INVALID = -1L;
+
+  //Property variable declarations
+  private long _High;
+  private long _Low;
+  private int _Version;
+
+  //Scratch space for the IPv6 groups so parsing doesn't allocate
+  private final int[] _Groups = new int[8];
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the upper 64 bits of an IPv6 address; 0 for IPv4.
+  ****************************************************************************/
+  public long getHigh()
+  {
+    return _High;
+  }
+
+  /****************************************************************************
+  * Gets the IPv4 address as an int; only meaningful when getVersion() is V4.
+  ****************************************************************************/
+  public int getIpV4()
+  {
+    return (int)_Low;
+  }
+
+  /****************************************************************************
+  * Gets the lower 64 bits of an IPv6 address, or the IPv4 address.
+  ****************************************************************************/
+  public long getLow()
+  {
+    return _Low;
+  }
+
+  /****************************************************************************
+  * Gets the address family: V4, V6 or NONE if no address is held.
+  ****************************************************************************/
+  public int getVersion()
+  {
+    return _Version;
+  }
+
+  /****************************************************************************
+  * Tests if no address is held.
+  ****************************************************************************/
+  public boolean isEmpty()
+  {
+    return _Version == NONE;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes an empty instance of the object.
+  ****************************************************************************/
+  public IpAddress()
+  {
+  }
+
+  /****************************************************************************
+  * Initializes an instance from the textual address; the instance is empty
+  * if the text isn't a valid address.
+  ****************************************************************************/
+  public IpAddress(CharSequence text)
+  {
+    parse(text);
+  }
+
+  //###########################################################################
+  // WritableComparable Implementation
+  //###########################################################################
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    _Version = input.readByte();
+    switch (_Version)
+    {
+      case V4:
+        _High = 0;
+        _Low = input.readInt() & 0xFFFFFFFFL;
+        break;
+      case V6:
+        _High = input.readLong();
+        _Low = input.readLong();
+        break;
+      case NONE:
+        _High = 0;
+        _Low = 0;
+        break;
+      default:
+        throw new IOException("Unknown IP address version: " + _Version);
+    }
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    output.writeByte(_Version);
+    if (_Version == V4)
+      output.writeInt((int)_Low);
+    else if (_Version == V6)
+    {
+      output.writeLong(_High);
+      output.writeLong(_Low);
+    }
+  }
+
+  @Override
+  public int compareTo(IpAddress targetIpAddress)
+  {
+    if (_Version != targetIpAddress.getVersion())
+      return (_Version < targetIpAddress.getVersion()) ? -1 : 1;
+    else if (_High != targetIpAddress.getHigh())
+      return compareUnsigned(_High, targetIpAddress.getHigh());
+
+    return compareUnsigned(_Low, targetIpAddress.getLow());
+  }
+
+  //###########################################################################
+  // Overridden Object Methods
+  //###########################################################################
+  @Override
+  public boolean equals(Object equalityTarget)
+  {
+    if (equalityTarget instanceof IpAddress)
+    {
+      IpAddress forEquality = (IpAddress)equalityTarget;
+      return _Version == forEquality.getVersion()
+        && _High == forEquality.getHigh()
+        && _Low == forEquality.getLow();
+    }
+
+    return false;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    long mixed = _High * 31 + _Low;
+    return (int)(mixed ^ (mixed >>> 32)) + _Version;
+  }
+
+  /****************************************************************************
+  * Renders the address as dotted-quad IPv4 or RFC 5952 IPv6 text; an empty
+  * string if no address is held.
+  ****************************************************************************/
+  @Override
+  public String toString()
+  {
+    if (_Version == V4)
+    {
+      return ((_Low >>> 24) & 0xFF) + "."
+        + ((_Low >>> 16) & 0xFF) + "."
+        + ((_Low >>> 8) & 0xFF) + "."
+        + (_Low & 0xFF);
+    }
+    else if (_Version != V6)
+      return "";
+
+    //Find the longest run of two or more zero groups to compress
+    int bestStart = -1;
+    int bestLength = 1;
+    for (int group = 0; group < 8; group++)
+    {
+      int length = 0;
+      while (group + length < 8 && getGroup(group + length) == 0)
+        length++;
+
+      if (length > bestLength)
+      {
+        bestStart = group;
+        bestLength = length;
+      }
+    }
+
+    StringBuilder rendered = new StringBuilder(39);
+    for (int group = 0; group < 8; group++)
+    {
+      if (group == bestStart)
+      {
+        rendered.append("::");
+        group += bestLength - 1;
+        continue;
+      }
+
+      if (rendered.length() > 0 && rendered.charAt(rendered.length() - 1) != ':')
+        rendered.append(':');
+
+      rendered.append(Integer.toHexString(getGroup(group)));
+    }
+
+    return rendered.toString();
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Empties the instance.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Version = NONE;
+    _High = 0;
+    _Low = 0;
+  }
+
+  /****************************************************************************
+  * Tests if the text is a valid IPv4 or IPv6 address.
+  ****************************************************************************/
+  public static boolean isValid(CharSequence text)
+  {
+    return new IpAddress().parse(text);
+  }
+
+  /****************************************************************************
+  * Parses the textual address; returns false and empties the instance if the
+  * text isn't a valid IPv4 or IPv6 address.
+  ****************************************************************************/
+  public boolean parse(CharSequence text)
+  {
+    if (text == null)
+    {
+      clear();
+      return false;
+    }
+
+    byte[] ascii = new byte[text.length()];
+    for (int index = 0; index < ascii.length; index++)
+    {
+      char character = text.charAt(index);
+      ascii[index] = (character < 0x80) ? (byte)character : (byte)0;
+    }
+
+    return parse(ascii, 0, ascii.length);
+  }
+
+  /****************************************************************************
+  * Parses the address held in the byte range without allocating; returns
+  * false and empties the instance if the bytes aren't a valid IPv4 or IPv6
+  * address.
+  ****************************************************************************/
+  public boolean parse(byte[] bytes, int offset, int length)
+  {
+    clear();
+    if (length < 2)
+      return false;
+
+    //An IPv6 address always has a colon, IPv4 never does
+    int end = offset + length;
+    for (int index = offset; index < end; index++)
+    {
+      if (bytes[index] == ':')
+        return parseV6(bytes, offset, end);
+    }
+
+    long address = parseV4(bytes, offset, end);
+    if (address == INVALID)
+      return false;
+
+    _Version = V4;
+    _Low = address;
+    return true;
+  }
+
+  /****************************************************************************
+  * Copies another address into this instance.
+  ****************************************************************************/
+  public void set(IpAddress value)
+  {
+    _Version = value.getVersion();
+    _High = value.getHigh();
+    _Low = value.getLow();
+  }
+
+  /****************************************************************************
+  * Sets the instance to the IPv4 address held in the int.
+  ****************************************************************************/
+  public void setIpV4(int address)
+  {
+    _Version = V4;
+    _High = 0;
+    _Low = address & 0xFFFFFFFFL;
+  }
+
+  /****************************************************************************
+  * Sets the instance to the IPv6 address held in the two longs.
+  ****************************************************************************/
+  public void setIpV6(long high, long low)
+  {
+    _Version = V6;
+    _High = high;
+    _Low = low;
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Compares two longs as unsigned values.
+  ****************************************************************************/
+  private static int compareUnsigned(long left, long right)
+  {
+    left += Long.MIN_VALUE;
+    right += Long.MIN_VALUE;
+    return (left < right) ? -1 : ((left == right) ? 0 : 1);
+  }
+
+  /****************************************************************************
+  * Gets one of the eight 16-bit groups of an IPv6 address.
+  ****************************************************************************/
+  private int getGroup(int group)
+  {
+    long half = (group < 4) ? _High : _Low;
+    return (int)(half >>> ((3 - (group % 4)) * 16)) & 0xFFFF;
+  }
+
+  /****************************************************************************
+  * Gets the value of a hexadecimal digit; -1 if it isn't one.
+  ****************************************************************************/
+  private static int hexValue(byte character)
+  {
+    if (character >= '0' && character <= '9')
+      return character - '0';
+    else if (character >= 'a' && character <= 'f')
+      return character - 'a' + 10;
+    else if (character >= 'A' && character <= 'F')
+      return character - 'A' + 10;
+
+    return -1;
+  }
+
+  /****************************************************************************
+  * Parses a dotted-quad IPv4 address; returns INVALID if the bytes aren't
+  * four decimal octets between 0 and 255.
+  ****************************************************************************/
+  private static long parseV4(byte[] bytes, int offset, int end)
+  {
+    long address = 0;
+    int octets = 0;
+    int index = offset;
+    while (octets < 4)
+    {
+      int value = 0;
+      int digits = 0;
+      while (index < end && digits < 4 && bytes[index] >= '0' && bytes[index] <= '9')
+      {
+        value = value * 10 + (bytes[index++] - '0');
+        digits++;
+      }
+
+      if (digits == 0 || digits > 3 || value > 255)
+        return INVALID;
+
+      address = (address << 8) | value;
+      if (++octets < 4)
+      {
+        if (index >= end || bytes[index] != '.')
+          return INVALID;
+
+        index++;
+      }
+    }
+
+    return (index == end) ? address : INVALID;
+  }
+
+  /****************************************************************************
+  * Parses an IPv6 address, with "::" compression and an optional trailing
+  * dotted-quad IPv4 address; returns false if the bytes aren't valid.
+  ****************************************************************************/
+  private boolean parseV6(byte[] bytes, int offset, int end)
+  {
+    int count = 0;
+    int compressAt = -1;
+    int index = offset;
+
+    //A leading colon is only allowed as part of "::"
+    if (bytes[index] == ':')
+    {
+      if (bytes[index + 1] != ':')
+        return false;
+
+      compressAt = 0;
+      index += 2;
+    }
+
+    while (index < end)
+    {
+      if (count == 8)
+        return false;
+
+      int groupStart = index;
+      int value = 0;
+      while (index < end && index - groupStart < 4 && hexValue(bytes[index]) >= 0)
+        value = (value << 4) | hexValue(bytes[index++]);
+
+      if (index == groupStart)
+        return false;
+
+      //An embedded IPv4 address fills the last two groups
+      if (index < end && bytes[index] == '.')
+      {
+        long address = parseV4(bytes, groupStart, end);
+        if (address == INVALID || count > 6)
+          return false;
+
+        _Groups[count++] = (int)(address >>> 16);
+        _Groups[count++] = (int)(address & 0xFFFF);
+        index = end;
+        break;
+      }
+
+      _Groups[count++] = value;
+      if (index == end)
+        break;
+      else if (bytes[index] != ':')
+        return false;
+
+      index++;
+      if (index < end && bytes[index] == ':')
+      {
+        if (compressAt >= 0)
+          return false;
+
+        compressAt = count;
+        index++;
+      }
+      else if (index == end)
+        return false;
+    }
+
+    //"::" has to stand for at least one group, otherwise all eight are needed
+    if ((compressAt < 0 && count != 8) || (compressAt >= 0 && count > 7))
+      return false;
+
+    int zeros = 8 - count;
+    long high = 0;
+    long low = 0;
+    for (int group = 0; group < 8; group++)
+    {
+      int value;
+      if (compressAt < 0 || group < compressAt)
+        value = _Groups[group];
+      else if (group < compressAt + zeros)
+        value = 0;
+      else
+        value = _Groups[group - zeros];
+
+      if (group < 4)
+        high = (high << 16) | value;
+      else
+        low = (low << 16) | value;
+    }
+
+    _Version = V6;
+    _High = high;
+    _Low = low;
+    return true;
+  }
+}
\ No newline at end of file
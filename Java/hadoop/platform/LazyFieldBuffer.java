@@ -0,0 +1,229 @@
+package hadoop.platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/******************************************************************************
+* Holds the string fields of a Writable as raw UTF-8 bytes in one reusable
+* buffer, decoding a field into a String only the first time it's asked for.
+* Each field is serialized the way Text is (a vint length, then the bytes), so
+* reading a record is a bulk copy with no decoding, and a field that was read
+* and never changed is written back out byte for byte without being decoded or
+* re-encoded.
+*
+* Reading replaces every field and reuses the buffer, so a Writable that owns
+* one can be re-populated by readFields() without allocating; Strings that were
+* handed out before stay valid because Strings are immutable. Fields flagged in
+* a bit mask can instead be written as codes into a StringDictionary, for
+* low-cardinality values stored in bulk. Instances aren't thread-safe.
+******************************************************************************/
+public class LazyFieldBuffer
+{
+  //Constants
+  private static final int INITIAL_CAPACITY = 256;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //Property variable declarations
+  private byte[] _Bytes = new byte[INITIAL_CAPACITY];
+  private final byte[][] _Encoded;
+  private final String[] _EncodedValues;
+  private int _Length;
+  private final int[] _Lengths;
+  private final int[] _Starts;
+  private final String[] _Values;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of fields.
+  ****************************************************************************/
+  public int getFieldCount()
+  {
+    return _Values.length;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a buffer of empty fields.
+  ****************************************************************************/
+  public LazyFieldBuffer(int fieldCount)
+  {
+    _Encoded = new byte[fieldCount][];
+    _EncodedValues = new String[fieldCount];
+    _Lengths = new int[fieldCount];
+    _Starts = new int[fieldCount];
+    _Values = new String[fieldCount];
+    clear();
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Empties every field.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Length = 0;
+    for (int field = 0; field < _Values.length; field++)
+    {
+      _Starts[field] = -1;
+      _Values[field] = null;
+    }
+  }
+
+  /****************************************************************************
+  * Copies every field of another buffer into this one without decoding.
+  ****************************************************************************/
+  public void copy(LazyFieldBuffer source)
+  {
+    if (source.getFieldCount() != _Values.length)
+      throw new IllegalArgumentException("Can't copy " + source.getFieldCount() + " fields into " + _Values.length + ".");
+
+    ensureCapacity(source._Length);
+    System.arraycopy(source._Bytes, 0, _Bytes, 0, source._Length);
+    System.arraycopy(source._Starts, 0, _Starts, 0, _Starts.length);
+    System.arraycopy(source._Lengths, 0, _Lengths, 0, _Lengths.length);
+    System.arraycopy(source._Values, 0, _Values, 0, _Values.length);
+    _Length = source._Length;
+  }
+
+  /****************************************************************************
+  * Gets the field's value, decoding it the first time; an empty string if it
+  * was never set.
+  ****************************************************************************/
+  public String get(int field)
+  {
+    if (_Values[field] == null)
+    {
+      if (_Starts[field] < 0)
+        return "";
+
+      _Values[field] = new String(_Bytes, _Starts[field], _Lengths[field], UTF8);
+    }
+
+    return _Values[field];
+  }
+
+  /****************************************************************************
+  * Reads every field, in order, replacing the current values.
+  ****************************************************************************/
+  public void readFields(DataInput input) throws IOException
+  {
+    readFields(input, null, 0);
+  }
+
+  /****************************************************************************
+  * Reads every field, in order, replacing the current values; the fields
+  * whose bits are set in the mask are read as codes into the dictionary.
+  ****************************************************************************/
+  public void readFields(DataInput input, StringDictionary dictionary, int dictionaryFields) throws IOException
+  {
+    _Length = 0;
+    for (int field = 0; field < _Values.length; field++)
+    {
+      if (dictionary != null && (dictionaryFields & (1 << field)) != 0)
+      {
+        set(field, dictionary.decode(WritableUtils.readVInt(input)));
+        continue;
+      }
+
+      int length = WritableUtils.readVInt(input);
+      if (length < 0)
+        throw new IOException("Invalid field length: " + length);
+
+      ensureCapacity(_Length + length);
+      input.readFully(_Bytes, _Length, length);
+      _Starts[field] = _Length;
+      _Lengths[field] = length;
+      _Values[field] = null;
+      _Length += length;
+    }
+  }
+
+  /****************************************************************************
+  * Sets the field's value; null is stored as an empty string.
+  ****************************************************************************/
+  public void set(int field, String value)
+  {
+    _Values[field] = (value != null) ? value : "";
+    _Starts[field] = -1;
+  }
+
+  /****************************************************************************
+  * Writes the field's UTF-8 bytes alone, with no length. A field read and not
+  * changed is copied out; a set one is encoded, and the encoding is kept for
+  * as long as the field is set to the same String (e.g. a dictionary's).
+  ****************************************************************************/
+  public void writeBytes(int field, DataOutput output) throws IOException
+  {
+    if (_Starts[field] >= 0)
+    {
+      output.write(_Bytes, _Starts[field], _Lengths[field]);
+      return;
+    }
+
+    String value = get(field);
+    if (value != _EncodedValues[field])
+    {
+      _EncodedValues[field] = value;
+      _Encoded[field] = value.getBytes(UTF8);
+    }
+
+    output.write(_Encoded[field]);
+  }
+
+  /****************************************************************************
+  * Writes every field, in order; fields that haven't been changed since they
+  * were read are copied out without being encoded.
+  ****************************************************************************/
+  public void write(DataOutput output) throws IOException
+  {
+    write(output, null, 0);
+  }
+
+  /****************************************************************************
+  * Writes every field, in order; the fields whose bits are set in the mask
+  * are written as codes into the dictionary, adding values it doesn't have.
+  ****************************************************************************/
+  public void write(DataOutput output, StringDictionary dictionary, int dictionaryFields) throws IOException
+  {
+    for (int field = 0; field < _Values.length; field++)
+    {
+      if (dictionary != null && (dictionaryFields & (1 << field)) != 0)
+        WritableUtils.writeVInt(output, dictionary.encode(get(field)));
+      else if (_Starts[field] >= 0)
+      {
+        WritableUtils.writeVInt(output, _Lengths[field]);
+        output.write(_Bytes, _Starts[field], _Lengths[field]);
+      }
+      else
+        Text.writeString(output, get(field));
+    }
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Grows the buffer, keeping its contents, so it holds at least the given
+  * number of bytes.
+  ****************************************************************************/
+  private void ensureCapacity(int capacity)
+  {
+    if (capacity > _Bytes.length)
+    {
+      byte[] grown = new byte[Math.max(capacity, _Bytes.length * 2)];
+      System.arraycopy(_Bytes, 0, grown, 0, _Length);
+      _Bytes = grown;
+    }
+  }
+}
\ No newline at end of file
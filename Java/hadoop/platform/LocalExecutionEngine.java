@@ -0,0 +1,1090 @@
+package hadoop.platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.counters.GenericCounter;
+import org.apache.hadoop.mapreduce.lib.jobcontrol.ControlledJob;
+import org.apache.hadoop.mapreduce.lib.jobcontrol.JobControl;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/******************************************************************************
+* Runs a configured Job in this JVM instead of submitting it to a cluster, for
+* small feeds and development. The job's own InputFormat, Mapper, Partitioner,
+* Combiner, comparators, Reducer and OutputFormat are used through Hadoop's
+* task contexts, so they run unchanged, and output is committed the way a
+* cluster commits it. Map tasks (one per input split) and then reduce tasks
+* (one per partition) run on a fork-join pool with a thread per core. Each
+* map task serializes its output into a buffer of "local.sort.bytes"; a full
+* buffer is sorted, combined and spilled as one sorted run per partition. Runs
+* are kept in memory while "local.shuffle.bytes" allows (a quarter of the heap
+* by default) and are written under "local.spill.directory" otherwise. Each
+* reduce task merges its partition's runs, "local.merge.factor" at a time, and
+* streams the merged records to the Reducer. Paths are resolved as Hadoop
+* resolves them, so use file:// paths if the default file system isn't local.
+******************************************************************************/
+public class LocalExecutionEngine
+{
+  //Constants
+  public static final String SORT_BYTES = "local.sort.bytes";
+  public static final String SHUFFLE_BYTES = "local.shuffle.bytes";
+  public static final String MERGE_FACTOR = "local.merge.factor";
+  public static final String SPILL_DIRECTORY = "local.spill.directory";
+  public static final int DEFAULT_SORT_BYTES = 32 << 20;
+  public static final int DEFAULT_MERGE_FACTOR = 64;
+  private static final int RUN_BUFFER_SIZE = 64 << 10;
+  private static final String JOB_TRACKER_ID = "local" + System.currentTimeMillis();
+  private static final AtomicInteger JOB_SEQUENCE = new AtomicInteger();
+
+  //An instance of Log4J, alternatively logging can be done to the console
+  //using System.err.println() and System.out.println() for logging output
+  private static final Log LOG = LogFactory.getLog(LocalExecutionEngine.class);
+
+  //Property variable declarations
+  private Counters _Counters = new Counters();
+  private final ForkJoinPool _Pool;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the counters of the last job run.
+  ****************************************************************************/
+  public Counters getCounters()
+  {
+    return _Counters;
+  }
+
+  /****************************************************************************
+  * Gets the number of tasks run at once.
+  ****************************************************************************/
+  public int getParallelism()
+  {
+    return _Pool.getParallelism();
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes an engine that runs a task per core.
+  ****************************************************************************/
+  public LocalExecutionEngine()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /****************************************************************************
+  * Initializes an engine that runs the given number of tasks at once.
+  ****************************************************************************/
+  public LocalExecutionEngine(int parallelism)
+  {
+    _Pool = new ForkJoinPool(parallelism);
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Runs a job to completion; returns whether it succeeded. A failed job's
+  * output is aborted, as a cluster would abort it.
+  ****************************************************************************/
+  public boolean run(Job job) throws IOException, InterruptedException, ClassNotFoundException
+  {
+    long startTime = System.currentTimeMillis();
+    Execution execution = new Execution(job.getConfiguration(), new JobID(JOB_TRACKER_ID, JOB_SEQUENCE.incrementAndGet()));
+    _Counters = execution.counters;
+
+    LOG.info("Running " + job.getJobName() + " (" + execution.jobId + ") locally on " + getParallelism() + " threads.");
+    boolean succeeded = execution.execute(_Pool);
+    LOG.info(job.getJobName() + (succeeded ? " completed" : " failed") + " in " + (System.currentTimeMillis() - startTime) + " ms. " + _Counters);
+
+    return succeeded;
+  }
+
+  /****************************************************************************
+  * Runs every job added to a JobControl, each once the jobs it depends on
+  * have succeeded; returns false as soon as one fails.
+  ****************************************************************************/
+  public boolean run(JobControl jobs) throws IOException, InterruptedException, ClassNotFoundException
+  {
+    List<ControlledJob> waiting = new ArrayList<ControlledJob>(jobs.getWaitingJobList());
+    HashSet<ControlledJob> succeeded = new HashSet<ControlledJob>();
+    while (!waiting.isEmpty())
+    {
+      ControlledJob ready = null;
+      for (ControlledJob job : waiting)
+      {
+        if (job.getDependentJobs() == null || succeeded.containsAll(job.getDependentJobs()))
+        {
+          ready = job;
+          break;
+        }
+      }
+
+      if (ready == null)
+        throw new IllegalStateException("Jobs depend on jobs that weren't added: " + waiting);
+
+      if (!run(ready.getJob()))
+        return false;
+
+      waiting.remove(ready);
+      succeeded.add(ready);
+    }
+
+    return true;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * A run of one job: its tasks, the sorted runs of map output waiting for
+  * each reduce task, and the memory they're allowed.
+  ****************************************************************************/
+  private static class Execution
+  {
+    //Property variable declarations
+    private final Configuration conf;
+    private final Counters counters = new Counters();
+    private final JobID jobId;
+    private final int mergeFactor;
+    private final int reduceTasks;
+    private final ArrayList<ArrayList<Run>> runs = new ArrayList<ArrayList<Run>>();
+    private final AtomicLong shuffleBytes;
+    private final int sortBytes;
+    private final File spillDirectory;
+
+    /**************************************************************************
+    * Initializes a run of a job.
+    **************************************************************************/
+    private Execution(Configuration conf, JobID jobId)
+    {
+      this.conf = conf;
+      this.jobId = jobId;
+      mergeFactor = Math.max(2, conf.getInt(MERGE_FACTOR, DEFAULT_MERGE_FACTOR));
+      reduceTasks = conf.getInt("mapreduce.job.reduces", 1);
+      shuffleBytes = new AtomicLong(conf.getLong(SHUFFLE_BYTES, Runtime.getRuntime().maxMemory() / 4));
+      sortBytes = conf.getInt(SORT_BYTES, DEFAULT_SORT_BYTES);
+      spillDirectory = new File(conf.get(SPILL_DIRECTORY, System.getProperty("java.io.tmpdir")), jobId.toString());
+
+      for (int partition = 0; partition < reduceTasks; partition++)
+        runs.add(new ArrayList<Run>());
+    }
+
+    /**************************************************************************
+    * Sets the output up, runs the map tasks and then the reduce tasks, and
+    * commits the output (or aborts it if a task failed).
+    **************************************************************************/
+    private boolean execute(ForkJoinPool pool) throws IOException, InterruptedException, ClassNotFoundException
+    {
+      JobContext jobContext = new JobContextImpl(conf, jobId);
+      OutputFormat<?, ?> outputFormat = ReflectionUtils.newInstance(jobContext.getOutputFormatClass(), conf);
+      outputFormat.checkOutputSpecs(jobContext);
+      OutputCommitter committer = outputFormat.getOutputCommitter(new TaskAttemptContextImpl(conf, new TaskAttemptID(new TaskID(jobId, TaskType.JOB_SETUP, 0), 0)));
+      committer.setupJob(jobContext);
+
+      try
+      {
+        final List<InputSplit> splits = ReflectionUtils.newInstance(jobContext.getInputFormatClass(), conf).getSplits(jobContext);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int index = 0; index < splits.size(); index++)
+        {
+          final int taskIndex = index;
+          tasks.add(new Callable<Void>()
+          {
+            @Override
+            public Void call() throws Exception
+            {
+              runMapTask(taskIndex, splits.get(taskIndex));
+              return null;
+            }
+          });
+        }
+
+        if (!runTasks(pool, tasks))
+        {
+          committer.abortJob(jobContext, JobStatus.State.FAILED);
+          return false;
+        }
+
+        tasks.clear();
+        for (int partition = 0; partition < reduceTasks; partition++)
+        {
+          final int taskIndex = partition;
+          tasks.add(new Callable<Void>()
+          {
+            @Override
+            public Void call() throws Exception
+            {
+              runReduceTask(taskIndex);
+              return null;
+            }
+          });
+        }
+
+        if (!runTasks(pool, tasks))
+        {
+          committer.abortJob(jobContext, JobStatus.State.FAILED);
+          return false;
+        }
+
+        committer.commitJob(jobContext);
+        return true;
+      }
+      finally
+      {
+        for (ArrayList<Run> partitionRuns : runs)
+        {
+          for (Run run : partitionRuns)
+            run.dispose();
+        }
+
+        spillDirectory.delete();
+      }
+    }
+
+    /**************************************************************************
+    * Adds a sorted run of map output for a reduce task.
+    **************************************************************************/
+    private void addRun(int partition, Run run)
+    {
+      ArrayList<Run> partitionRuns = runs.get(partition);
+      synchronized (partitionRuns)
+      {
+        partitionRuns.add(run);
+      }
+    }
+
+    /**************************************************************************
+    * Adds a task's counters to the job's.
+    **************************************************************************/
+    private void addCounters(Counters taskCounters)
+    {
+      synchronized (counters)
+      {
+        counters.incrAllCounters(taskCounters);
+      }
+    }
+
+    /**************************************************************************
+    * Starts a run of about the given number of bytes: in memory if the
+    * shuffle's memory allows it, on disk otherwise.
+    **************************************************************************/
+    private RunWriter newRun(long estimatedBytes) throws IOException
+    {
+      if (shuffleBytes.addAndGet(-estimatedBytes) >= 0)
+        return new RunWriter(this, estimatedBytes);
+
+      shuffleBytes.addAndGet(estimatedBytes);
+      return newSpill();
+    }
+
+    /**************************************************************************
+    * Starts a run on disk.
+    **************************************************************************/
+    private RunWriter newSpill() throws IOException
+    {
+      spillDirectory.mkdirs();
+      return new RunWriter(this, File.createTempFile("spill", ".run", spillDirectory));
+    }
+
+    /**************************************************************************
+    * Runs a map task: the job's Mapper over one input split, its output
+    * going to the job's OutputFormat if there are no reduce tasks, and
+    * otherwise sorted, combined and split into runs by partition.
+    **************************************************************************/
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void runMapTask(int taskIndex, InputSplit split) throws Exception
+    {
+      Configuration taskConf = new Configuration(conf);
+      TaskAttemptID attemptId = new TaskAttemptID(new TaskID(jobId, TaskType.MAP, taskIndex), 0);
+      TaskReporter reporter = new TaskReporter();
+      TaskAttemptContext taskContext = new TaskAttemptContextImpl(taskConf, attemptId, reporter);
+
+      InputFormat inputFormat = ReflectionUtils.newInstance(taskContext.getInputFormatClass(), taskConf);
+      RecordReader reader = inputFormat.createRecordReader(split, taskContext);
+      OutputCommitter committer = null;
+      RecordWriter writer;
+      if (reduceTasks == 0)
+      {
+        OutputFormat outputFormat = ReflectionUtils.newInstance(taskContext.getOutputFormatClass(), taskConf);
+        committer = outputFormat.getOutputCommitter(taskContext);
+        committer.setupTask(taskContext);
+        writer = outputFormat.getRecordWriter(taskContext);
+      }
+      else
+        writer = new MapOutputBuffer(this, taskContext, reporter);
+
+      Mapper.Context context = new WrappedMapper().getMapContext(new MapContextImpl(taskConf, attemptId, reader, writer, committer, reporter, split));
+      try
+      {
+        reader.initialize(split, context);
+        ReflectionUtils.newInstance(taskContext.getMapperClass(), taskConf).run(context);
+      }
+      finally
+      {
+        reader.close();
+      }
+
+      writer.close(context);
+      if (committer != null && committer.needsTaskCommit(taskContext))
+        committer.commitTask(taskContext);
+
+      addCounters(reporter.counters);
+    }
+
+    /**************************************************************************
+    * Runs a reduce task: merges the partition's runs and streams them
+    * through the job's Reducer into its OutputFormat.
+    **************************************************************************/
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void runReduceTask(int partition) throws Exception
+    {
+      Configuration taskConf = new Configuration(conf);
+      TaskAttemptID attemptId = new TaskAttemptID(new TaskID(jobId, TaskType.REDUCE, partition), 0);
+      TaskReporter reporter = new TaskReporter();
+      TaskAttemptContext taskContext = new TaskAttemptContextImpl(taskConf, attemptId, reporter);
+      RawComparator comparator = taskContext.getSortComparator();
+
+      //Merge down to a number of runs that can be read at once
+      ArrayList<Run> partitionRuns = runs.get(partition);
+      while (partitionRuns.size() > mergeFactor)
+      {
+        List<Run> merging = partitionRuns.subList(0, mergeFactor);
+        MergeIterator merged = new MergeIterator(new ArrayList<Run>(merging), comparator);
+        merging.clear();
+
+        RunWriter spill = newSpill();
+        while (merged.next())
+          spill.append(merged.getKey(), merged.getValue());
+
+        merged.close();
+        partitionRuns.add(spill.close());
+      }
+
+      MergeIterator input = new MergeIterator(new ArrayList<Run>(partitionRuns), comparator);
+      partitionRuns.clear();
+
+      OutputFormat outputFormat = ReflectionUtils.newInstance(taskContext.getOutputFormatClass(), taskConf);
+      OutputCommitter committer = outputFormat.getOutputCommitter(taskContext);
+      committer.setupTask(taskContext);
+      RecordWriter writer = outputFormat.getRecordWriter(taskContext);
+
+      Reducer.Context context = new WrappedReducer().getReducerContext(new ReduceContextImpl(taskConf, attemptId, input,
+        reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+        reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS),
+        writer, committer, reporter,
+        taskContext.getGroupingComparator(),
+        taskContext.getMapOutputKeyClass(),
+        taskContext.getMapOutputValueClass()));
+
+      try
+      {
+        ReflectionUtils.newInstance(taskContext.getReducerClass(), taskConf).run(context);
+      }
+      finally
+      {
+        input.close();
+      }
+
+      writer.close(context);
+      if (committer.needsTaskCommit(taskContext))
+        committer.commitTask(taskContext);
+
+      addCounters(reporter.counters);
+    }
+
+    /**************************************************************************
+    * Runs tasks on the pool and waits for all of them; returns false if any
+    * failed, after logging why.
+    **************************************************************************/
+    private boolean runTasks(ForkJoinPool pool, List<Callable<Void>> tasks) throws InterruptedException
+    {
+      boolean succeeded = true;
+      for (Future<Void> task : pool.invokeAll(tasks))
+      {
+        try
+        {
+          task.get();
+        }
+        catch (ExecutionException ee)
+        {
+          LOG.error("Task of " + jobId + " failed.", ee.getCause());
+          succeeded = false;
+        }
+      }
+
+      return succeeded;
+    }
+  }
+
+  /****************************************************************************
+  * Collects a map task's output: records are serialized into one buffer,
+  * with their partition and offsets in an index that's sorted (by partition,
+  * then key) when the buffer fills up or the task ends. Each partition's
+  * records are then combined, if the job has a Combiner, into a run.
+  ****************************************************************************/
+  private static class MapOutputBuffer extends RecordWriter<Object, Object> implements IndexedSortable
+  {
+    //Constants; each record takes four ints of the index
+    private static final int PARTITION = 0;
+    private static final int KEY = 1;
+    private static final int VALUE = 2;
+    private static final int END = 3;
+    private static final int FIELDS = 4;
+
+    //Property variable declarations
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private final Class<? extends Reducer<?, ?, ?, ?>> combinerClass;
+    private final RawComparator<Object> comparator;
+    private final Execution execution;
+    private int[] index = new int[FIELDS * 1024];
+    private final Class<?> keyClass;
+    private final Serializer<Object> keySerializer;
+    private final Counter outputRecords;
+    private final Partitioner<Object, Object> partitioner;
+    private int records;
+    private final TaskReporter reporter;
+    private final Counter spilledRecords;
+    private final TaskAttemptContext taskContext;
+    private final Class<?> valueClass;
+    private final Serializer<Object> valueSerializer;
+
+    /**************************************************************************
+    * Initializes an empty buffer for a map task.
+    **************************************************************************/
+    @SuppressWarnings("unchecked")
+    private MapOutputBuffer(Execution execution, TaskAttemptContext taskContext, TaskReporter reporter) throws IOException, ClassNotFoundException
+    {
+      this.execution = execution;
+      this.reporter = reporter;
+      this.taskContext = taskContext;
+
+      Configuration conf = taskContext.getConfiguration();
+      combinerClass = taskContext.getCombinerClass();
+      comparator = (RawComparator<Object>)taskContext.getSortComparator();
+      keyClass = taskContext.getMapOutputKeyClass();
+      valueClass = taskContext.getMapOutputValueClass();
+      partitioner = (Partitioner<Object, Object>)ReflectionUtils.newInstance(taskContext.getPartitionerClass(), conf);
+      outputRecords = reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS);
+      spilledRecords = reporter.getCounter(TaskCounter.SPILLED_RECORDS);
+
+      SerializationFactory serializations = new SerializationFactory(conf);
+      keySerializer = serializations.getSerializer((Class<Object>)keyClass);
+      keySerializer.open(buffer);
+      valueSerializer = serializations.getSerializer((Class<Object>)valueClass);
+      valueSerializer.open(buffer);
+    }
+
+    @Override
+    public void write(Object key, Object value) throws IOException, InterruptedException
+    {
+      if (key.getClass() != keyClass)
+        throw new IOException("Type mismatch in key from map: expected " + keyClass.getName() + ", received " + key.getClass().getName());
+      if (value.getClass() != valueClass)
+        throw new IOException("Type mismatch in value from map: expected " + valueClass.getName() + ", received " + value.getClass().getName());
+
+      int partition = partitioner.getPartition(key, value, execution.reduceTasks);
+      if (partition < 0 || partition >= execution.reduceTasks)
+        throw new IOException("Illegal partition for " + key + " (" + partition + ")");
+
+      if ((records + 1) * FIELDS > index.length)
+      {
+        int[] grown = new int[index.length * 2];
+        System.arraycopy(index, 0, grown, 0, index.length);
+        index = grown;
+      }
+
+      int record = records * FIELDS;
+      index[record + PARTITION] = partition;
+      index[record + KEY] = buffer.getLength();
+      keySerializer.serialize(key);
+      index[record + VALUE] = buffer.getLength();
+      valueSerializer.serialize(value);
+      index[record + END] = buffer.getLength();
+      records++;
+      outputRecords.increment(1);
+
+      if (buffer.getLength() >= execution.sortBytes)
+        spill();
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException, InterruptedException
+    {
+      spill();
+    }
+
+    @Override
+    public int compare(int left, int right)
+    {
+      left *= FIELDS;
+      right *= FIELDS;
+      if (index[left + PARTITION] != index[right + PARTITION])
+        return (index[left + PARTITION] < index[right + PARTITION]) ? -1 : 1;
+
+      byte[] data = buffer.getData();
+      return comparator.compare(data, index[left + KEY], index[left + VALUE] - index[left + KEY], data, index[right + KEY], index[right + VALUE] - index[right + KEY]);
+    }
+
+    @Override
+    public void swap(int left, int right)
+    {
+      left *= FIELDS;
+      right *= FIELDS;
+      for (int field = 0; field < FIELDS; field++)
+      {
+        int swapped = index[left + field];
+        index[left + field] = index[right + field];
+        index[right + field] = swapped;
+      }
+    }
+
+    /**************************************************************************
+    * Sorts the buffered records and writes each partition's as a run,
+    * through the Combiner if there is one, then empties the buffer.
+    **************************************************************************/
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void spill() throws IOException, InterruptedException
+    {
+      if (records == 0)
+        return;
+
+      new QuickSort().sort(this, 0, records);
+
+      byte[] data = buffer.getData();
+      int start = 0;
+      while (start < records)
+      {
+        int partition = index[start * FIELDS + PARTITION];
+        int end = start;
+        long bytes = 0;
+        while (end < records && index[end * FIELDS + PARTITION] == partition)
+        {
+          bytes += index[end * FIELDS + END] - index[end * FIELDS + KEY] + 10;
+          end++;
+        }
+
+        RunWriter run = execution.newRun(bytes);
+        if (combinerClass == null)
+        {
+          for (int record = start * FIELDS; record < end * FIELDS; record += FIELDS)
+            run.append(data, index[record + KEY], index[record + VALUE] - index[record + KEY], index[record + VALUE], index[record + END] - index[record + VALUE]);
+        }
+        else
+        {
+          //A new Combiner per spill, as Hadoop does
+          run.open(taskContext.getConfiguration(), keyClass, valueClass);
+          Reducer.Context context = new WrappedReducer().getReducerContext(new ReduceContextImpl(taskContext.getConfiguration(), taskContext.getTaskAttemptID(),
+            new BufferIterator(this, start, end),
+            new GenericCounter(),
+            reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS),
+            run, null, reporter, comparator, keyClass, valueClass));
+          ReflectionUtils.newInstance(combinerClass, taskContext.getConfiguration()).run(context);
+          reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).increment(run.records);
+        }
+
+        spilledRecords.increment(run.records);
+        execution.addRun(partition, run.close());
+        start = end;
+      }
+
+      buffer.reset();
+      records = 0;
+    }
+  }
+
+  /****************************************************************************
+  * Iterates over part of a map task's sorted buffer, for the Combiner.
+  ****************************************************************************/
+  private static class BufferIterator implements RawKeyValueIterator
+  {
+    //Property variable declarations
+    private final MapOutputBuffer buffer;
+    private int current;
+    private final int end;
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final Progress progress = new Progress();
+    private final DataInputBuffer value = new DataInputBuffer();
+
+    /**************************************************************************
+    * Initializes an iterator over records from start up to end.
+    **************************************************************************/
+    private BufferIterator(MapOutputBuffer buffer, int start, int end)
+    {
+      this.buffer = buffer;
+      this.current = start - 1;
+      this.end = end;
+    }
+
+    @Override
+    public DataInputBuffer getKey()
+    {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue()
+    {
+      return value;
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (++current >= end)
+        return false;
+
+      int record = current * MapOutputBuffer.FIELDS;
+      int[] index = buffer.index;
+      byte[] data = buffer.buffer.getData();
+      key.reset(data, index[record + MapOutputBuffer.KEY], index[record + MapOutputBuffer.VALUE] - index[record + MapOutputBuffer.KEY]);
+      value.reset(data, index[record + MapOutputBuffer.VALUE], index[record + MapOutputBuffer.END] - index[record + MapOutputBuffer.VALUE]);
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public Progress getProgress()
+    {
+      return progress;
+    }
+  }
+
+  /****************************************************************************
+  * Merges sorted runs into one sorted stream, for a reduce task or for a
+  * merge pass; the runs are disposed of when it's closed.
+  ****************************************************************************/
+  private static class MergeIterator implements RawKeyValueIterator
+  {
+    //Property variable declarations
+    private RunReader current;
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final PriorityQueue<RunReader> readers;
+    private final Progress progress = new Progress();
+    private final List<Run> runs;
+    private final DataInputBuffer value = new DataInputBuffer();
+
+    /**************************************************************************
+    * Opens every run and orders them by their first keys.
+    **************************************************************************/
+    private MergeIterator(List<Run> runs, final RawComparator<?> comparator) throws IOException
+    {
+      this.runs = runs;
+      readers = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>()
+      {
+        @Override
+        public int compare(RunReader left, RunReader right)
+        {
+          return comparator.compare(left.keyBytes, left.keyStart, left.keyLength, right.keyBytes, right.keyStart, right.keyLength);
+        }
+      });
+
+      for (Run run : runs)
+      {
+        RunReader reader = new RunReader(run);
+        if (reader.next())
+          readers.add(reader);
+        else
+          reader.close();
+      }
+    }
+
+    @Override
+    public DataInputBuffer getKey()
+    {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue()
+    {
+      return value;
+    }
+
+    @Override
+    public boolean next() throws IOException
+    {
+      if (current != null)
+      {
+        if (current.next())
+          readers.add(current);
+        else
+          current.close();
+      }
+
+      current = readers.poll();
+      if (current == null)
+        return false;
+
+      key.reset(current.keyBytes, current.keyStart, current.keyLength);
+      value.reset(current.valueBytes, current.valueStart, current.valueLength);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (current != null)
+        current.close();
+
+      for (RunReader reader : readers)
+        reader.close();
+
+      for (Run run : runs)
+        run.dispose();
+    }
+
+    @Override
+    public Progress getProgress()
+    {
+      return progress;
+    }
+  }
+
+  /****************************************************************************
+  * A sorted run of serialized map output, in memory or in a spill file: each
+  * record is its key and value lengths (as VInts) and bytes, and the run ends
+  * with a length of -1.
+  ****************************************************************************/
+  private static class Run
+  {
+    //Property variable declarations
+    private final byte[] data;
+    private final Execution execution;
+    private final File file;
+    private final int length;
+
+    /**************************************************************************
+    * Initializes a run held in memory.
+    **************************************************************************/
+    private Run(Execution execution, byte[] data, int length)
+    {
+      this.execution = execution;
+      this.data = data;
+      this.length = length;
+      this.file = null;
+    }
+
+    /**************************************************************************
+    * Initializes a run in a spill file.
+    **************************************************************************/
+    private Run(Execution execution, File file)
+    {
+      this.execution = execution;
+      this.data = null;
+      this.length = 0;
+      this.file = file;
+    }
+
+    /**************************************************************************
+    * Lets go of the run's memory or deletes its file.
+    **************************************************************************/
+    private void dispose()
+    {
+      if (file != null)
+        file.delete();
+      else
+        execution.shuffleBytes.addAndGet(length);
+    }
+  }
+
+  /****************************************************************************
+  * Reads the records of a run; a record's bytes are valid until the next.
+  ****************************************************************************/
+  private static class RunReader
+  {
+    //Property variable declarations
+    private final DataInputBuffer memory;
+    private final DataInputStream spill;
+    private byte[] keyBytes;
+    private int keyLength;
+    private int keyStart;
+    private byte[] valueBytes;
+    private int valueLength;
+    private int valueStart;
+
+    /**************************************************************************
+    * Opens a run.
+    **************************************************************************/
+    private RunReader(Run run) throws IOException
+    {
+      if (run.file == null)
+      {
+        memory = new DataInputBuffer();
+        memory.reset(run.data, 0, run.length);
+        spill = null;
+        keyBytes = run.data;
+        valueBytes = run.data;
+      }
+      else
+      {
+        memory = null;
+        spill = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), RUN_BUFFER_SIZE));
+        keyBytes = new byte[64];
+        valueBytes = new byte[64];
+      }
+    }
+
+    /**************************************************************************
+    * Moves to the next record; false at the end of the run. Records in
+    * memory aren't copied.
+    **************************************************************************/
+    private boolean next() throws IOException
+    {
+      if (memory != null)
+      {
+        keyLength = WritableUtils.readVInt(memory);
+        if (keyLength < 0)
+          return false;
+
+        valueLength = WritableUtils.readVInt(memory);
+        keyStart = memory.getPosition();
+        valueStart = keyStart + keyLength;
+        memory.skip(keyLength + valueLength);
+        return true;
+      }
+
+      keyLength = WritableUtils.readVInt(spill);
+      if (keyLength < 0)
+        return false;
+
+      valueLength = WritableUtils.readVInt(spill);
+      if (keyLength > keyBytes.length)
+        keyBytes = new byte[Math.max(keyLength, keyBytes.length * 2)];
+      if (valueLength > valueBytes.length)
+        valueBytes = new byte[Math.max(valueLength, valueBytes.length * 2)];
+
+      spill.readFully(keyBytes, 0, keyLength);
+      spill.readFully(valueBytes, 0, valueLength);
+      return true;
+    }
+
+    /**************************************************************************
+    * Closes the run's file, if it has one.
+    **************************************************************************/
+    private void close() throws IOException
+    {
+      if (spill != null)
+        spill.close();
+    }
+  }
+
+  /****************************************************************************
+  * Writes a run, either raw records or (as the Combiner's RecordWriter)
+  * records to serialize.
+  ****************************************************************************/
+  private static class RunWriter extends RecordWriter<Object, Object>
+  {
+    //Property variable declarations
+    private final Execution execution;
+    private final File file;
+    private Serializer<Object> keySerializer;
+    private final DataOutputBuffer memory;
+    private final DataOutputStream output;
+    private long records;
+    private final long reservedBytes;
+    private final DataOutputBuffer serialized = new DataOutputBuffer();
+    private Serializer<Object> valueSerializer;
+
+    /**************************************************************************
+    * Initializes a run in memory, which has reserved the given bytes of the
+    * shuffle's memory.
+    **************************************************************************/
+    private RunWriter(Execution execution, long reservedBytes)
+    {
+      this.execution = execution;
+      this.reservedBytes = reservedBytes;
+      this.file = null;
+      memory = new DataOutputBuffer((int)Math.min(reservedBytes, Integer.MAX_VALUE - 8));
+      output = memory;
+    }
+
+    /**************************************************************************
+    * Initializes a run in a spill file.
+    **************************************************************************/
+    private RunWriter(Execution execution, File file) throws IOException
+    {
+      this.execution = execution;
+      this.reservedBytes = 0;
+      this.file = file;
+      memory = null;
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER_SIZE));
+    }
+
+    /**************************************************************************
+    * Prepares to serialize records written by a Combiner.
+    **************************************************************************/
+    @SuppressWarnings("unchecked")
+    private void open(Configuration conf, Class<?> keyClass, Class<?> valueClass) throws IOException
+    {
+      SerializationFactory serializations = new SerializationFactory(conf);
+      keySerializer = serializations.getSerializer((Class<Object>)keyClass);
+      keySerializer.open(serialized);
+      valueSerializer = serializations.getSerializer((Class<Object>)valueClass);
+      valueSerializer.open(serialized);
+    }
+
+    /**************************************************************************
+    * Appends a serialized record.
+    **************************************************************************/
+    private void append(byte[] data, int keyStart, int keyLength, int valueStart, int valueLength) throws IOException
+    {
+      WritableUtils.writeVInt(output, keyLength);
+      WritableUtils.writeVInt(output, valueLength);
+      output.write(data, keyStart, keyLength);
+      output.write(data, valueStart, valueLength);
+      records++;
+    }
+
+    /**************************************************************************
+    * Appends a serialized record from buffers positioned on its bytes.
+    **************************************************************************/
+    private void append(DataInputBuffer key, DataInputBuffer value) throws IOException
+    {
+      WritableUtils.writeVInt(output, key.getLength() - key.getPosition());
+      WritableUtils.writeVInt(output, value.getLength() - value.getPosition());
+      output.write(key.getData(), key.getPosition(), key.getLength() - key.getPosition());
+      output.write(value.getData(), value.getPosition(), value.getLength() - value.getPosition());
+      records++;
+    }
+
+    @Override
+    public void write(Object key, Object value) throws IOException
+    {
+      serialized.reset();
+      keySerializer.serialize(key);
+      int keyLength = serialized.getLength();
+      valueSerializer.serialize(value);
+      append(serialized.getData(), 0, keyLength, keyLength, serialized.getLength() - keyLength);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context)
+    {
+    }
+
+    /**************************************************************************
+    * Ends the run; a run in memory hands back what it reserved but didn't
+    * use, and is trimmed if it was combined into much less.
+    **************************************************************************/
+    private Run close() throws IOException
+    {
+      WritableUtils.writeVInt(output, -1);
+      if (file != null)
+      {
+        output.close();
+        return new Run(execution, file);
+      }
+
+      byte[] data = memory.getData();
+      int length = memory.getLength();
+      if (data.length - length > length / 8)
+        data = Arrays.copyOf(data, length);
+
+      execution.shuffleBytes.addAndGet(reservedBytes - length);
+      return new Run(execution, data, length);
+    }
+  }
+
+  /****************************************************************************
+  * Keeps a task's counters; status and progress aren't reported anywhere.
+  ****************************************************************************/
+  private static class TaskReporter extends StatusReporter
+  {
+    //Property variable declarations
+    private final Counters counters = new Counters();
+
+    @Override
+    public Counter getCounter(Enum<?> name)
+    {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counter getCounter(String group, String name)
+    {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void progress()
+    {
+    }
+
+    @Override
+    public float getProgress()
+    {
+      return 0;
+    }
+
+    @Override
+    public void setStatus(String status)
+    {
+    }
+  }
+}
\ No newline at end of file
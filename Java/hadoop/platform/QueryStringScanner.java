@@ -0,0 +1,228 @@
+package hadoop.platform;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/******************************************************************************
+* Pulls a configured set of parameters out of the query string of a URL in a
+* single pass over the raw bytes. Parameter names are matched
+* case-insensitively without lower-casing or copying the URL, and values are
+* recorded as offsets into the caller's buffer; a value is only decoded into
+* a String when it's requested. When a parameter appears more than once the
+* first value wins. Instances are meant to be created once per Mapper and
+* reused for every record, they aren't thread-safe.
+******************************************************************************/
+public class QueryStringScanner
+{
+  //Constants
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  //Property variable declarations
+  private byte[] _Bytes;
+  private final int[] _Lengths;
+  private final byte[][] _Names;
+  private final int[] _Starts;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of parameters the scanner looks for.
+  ****************************************************************************/
+  public int getParameterCount()
+  {
+    return _Names.length;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a scanner for the given parameter names; the index of a name
+  * is how its value is requested afterward.
+  ****************************************************************************/
+  public QueryStringScanner(String... parameterNames)
+  {
+    _Names = new byte[parameterNames.length][];
+    for (int index = 0; index < parameterNames.length; index++)
+    {
+      String name = parameterNames[index];
+      _Names[index] = new byte[name.length()];
+      for (int character = 0; character < name.length(); character++)
+      {
+        if (name.charAt(character) > 0x7F)
+          throw new IllegalArgumentException("Parameter names must be ASCII: " + name);
+
+        _Names[index][character] = (byte)toLowerCase(name.charAt(character));
+      }
+    }
+
+    _Starts = new int[parameterNames.length];
+    _Lengths = new int[parameterNames.length];
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Scans the URL held in the byte range. Only the part after the first '?'
+  * and before any '#' is searched.
+  ****************************************************************************/
+  public void scan(byte[] bytes, int offset, int length)
+  {
+    _Bytes = bytes;
+    for (int index = 0; index < _Names.length; index++)
+      _Starts[index] = -1;
+
+    int end = offset + length;
+    int position = offset;
+    while (position < end && bytes[position] != '?')
+      position++;
+
+    int found = 0;
+    position++;
+    while (position < end && found < _Names.length)
+    {
+      //Find the end of the name and of the whole parameter
+      int nameStart = position;
+      int nameEnd = -1;
+      while (position < end && bytes[position] != '&' && bytes[position] != '#')
+      {
+        if (nameEnd < 0 && bytes[position] == '=')
+          nameEnd = position;
+
+        position++;
+      }
+
+      if (nameEnd < 0)
+        nameEnd = position;
+
+      int parameter = match(bytes, nameStart, nameEnd);
+      if (parameter >= 0 && _Starts[parameter] < 0)
+      {
+        int valueStart = Math.min(nameEnd + 1, position);
+        _Starts[parameter] = valueStart;
+        _Lengths[parameter] = position - valueStart;
+        found++;
+      }
+
+      if (position < end && bytes[position] == '#')
+        break;
+
+      position++;
+    }
+  }
+
+  /****************************************************************************
+  * Tests if the parameter was present in the last scanned URL.
+  ****************************************************************************/
+  public boolean has(int parameter)
+  {
+    return _Starts[parameter] >= 0;
+  }
+
+  /****************************************************************************
+  * Gets the offset of the parameter's raw value; -1 if it wasn't present.
+  ****************************************************************************/
+  public int getStart(int parameter)
+  {
+    return _Starts[parameter];
+  }
+
+  /****************************************************************************
+  * Gets the number of bytes in the parameter's raw value; 0 if it wasn't
+  * present.
+  ****************************************************************************/
+  public int getLength(int parameter)
+  {
+    return has(parameter) ? _Lengths[parameter] : 0;
+  }
+
+  /****************************************************************************
+  * Gets the parameter's value URL-decoded ('+' and %XX escapes); an empty
+  * string if it wasn't present.
+  ****************************************************************************/
+  public String getString(int parameter)
+  {
+    if (!has(parameter) || _Lengths[parameter] == 0)
+      return "";
+
+    int start = _Starts[parameter];
+    int end = start + _Lengths[parameter];
+
+    //Most values have nothing to decode
+    boolean encoded = false;
+    for (int index = start; index < end && !encoded; index++)
+      encoded = _Bytes[index] == '%' || _Bytes[index] == '+';
+
+    if (!encoded)
+      return new String(_Bytes, start, end - start, UTF8);
+
+    ByteArrayOutputStream decoded = new ByteArrayOutputStream(end - start);
+    for (int index = start; index < end; index++)
+    {
+      byte character = _Bytes[index];
+      if (character == '+')
+        decoded.write(' ');
+      else if (character == '%' && index + 2 < end && hexValue(_Bytes[index + 1]) >= 0 && hexValue(_Bytes[index + 2]) >= 0)
+      {
+        decoded.write((hexValue(_Bytes[index + 1]) << 4) | hexValue(_Bytes[index + 2]));
+        index += 2;
+      }
+      else
+        decoded.write(character);
+    }
+
+    return new String(decoded.toByteArray(), UTF8);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Finds the configured parameter whose name matches the byte range,
+  * ignoring case; returns -1 if none does.
+  ****************************************************************************/
+  private int match(byte[] bytes, int start, int end)
+  {
+    int length = end - start;
+    for (int parameter = 0; parameter < _Names.length; parameter++)
+    {
+      byte[] name = _Names[parameter];
+      if (name.length != length)
+        continue;
+
+      int index = 0;
+      while (index < length && toLowerCase(bytes[start + index]) == name[index])
+        index++;
+
+      if (index == length)
+        return parameter;
+    }
+
+    return -1;
+  }
+
+  /****************************************************************************
+  * Lower-cases an ASCII letter; anything else is returned as is.
+  ****************************************************************************/
+  private static int toLowerCase(int character)
+  {
+    return (character >= 'A' && character <= 'Z') ? character + ('a' - 'A') : character;
+  }
+
+  /****************************************************************************
+  * Gets the value of a hexadecimal digit; -1 if it isn't one.
+  ****************************************************************************/
+  private static int hexValue(byte character)
+  {
+    if (character >= '0' && character <= '9')
+      return character - '0';
+    else if (character >= 'a' && character <= 'f')
+      return character - 'a' + 10;
+    else if (character >= 'A' && character <= 'F')
+      return character - 'A' + 10;
+
+    return -1;
+  }
+}
\ No newline at end of file
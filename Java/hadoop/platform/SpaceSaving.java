@@ -0,0 +1,377 @@
+package hadoop.platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/******************************************************************************
+* Finds the most frequent items of a stream with a fixed number of counters
+* (the Space-Saving algorithm). An item with a counter has its count added to;
+* a new item takes over the smallest counter, inheriting its count as the
+* error. Every estimated count is at least the item's true count and at most
+* its error above it, and any item more frequent than the smallest counter is
+* guaranteed to be kept. Counters are kept in a min-heap, so each item costs a
+* hash lookup and O(log capacity) work. Summaries merge (Agarwal et al.), so
+* Mappers, combiners and a Reducer can each summarize a part of the stream.
+******************************************************************************/
+public class SpaceSaving implements Writable
+{
+  //Constants
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  //Orders estimates from the highest count down
+  private static final Comparator<Estimate> DESCENDING = new Comparator<Estimate>()
+  {
+    @Override
+    public int compare(Estimate left, Estimate right)
+    {
+      return (left._Count > right._Count) ? -1 : ((left._Count == right._Count) ? 0 : 1);
+    }
+  };
+
+  //Property variable declarations
+  private int _Capacity;
+  private final HashMap<Text, Estimate> _Estimates = new HashMap<Text, Estimate>();
+  private long _Floor;
+  private Estimate[] _Heap;
+  private final Text _Probe = new Text();
+  private int _Size;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of counters.
+  ****************************************************************************/
+  public int getCapacity()
+  {
+    return _Capacity;
+  }
+
+  /****************************************************************************
+  * Gets the most an item not in the summary could have been counted: the
+  * smallest counter once every counter is in use, and until then 0 (or, for a
+  * merged summary, the minimums of the summaries merged).
+  ****************************************************************************/
+  public long getMinimum()
+  {
+    return (_Size < _Capacity) ? _Floor : _Heap[0]._Count;
+  }
+
+  /****************************************************************************
+  * Gets the number of items being counted.
+  ****************************************************************************/
+  public int size()
+  {
+    return _Size;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes an empty summary with the default number of counters.
+  ****************************************************************************/
+  public SpaceSaving()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /****************************************************************************
+  * Initializes an empty summary with the given number of counters.
+  ****************************************************************************/
+  public SpaceSaving(int capacity)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("A Space-Saving summary needs at least one counter.");
+
+    _Capacity = capacity;
+    _Heap = new Estimate[capacity];
+  }
+
+  //###########################################################################
+  // Writable Implementation
+  //###########################################################################
+  /****************************************************************************
+  * Reads a summary, replacing the current one (and its capacity).
+  ****************************************************************************/
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    int capacity = WritableUtils.readVInt(input);
+    int size = WritableUtils.readVInt(input);
+    if (capacity < 1 || size < 0 || size > capacity)
+      throw new IOException("Invalid Space-Saving summary: " + size + " of " + capacity + " counters.");
+
+    clear();
+    if (capacity != _Capacity)
+    {
+      _Capacity = capacity;
+      _Heap = new Estimate[capacity];
+    }
+
+    _Floor = WritableUtils.readVLong(input);
+
+    for (int index = 0; index < size; index++)
+    {
+      Estimate estimate = new Estimate();
+      estimate._Item.readFields(input);
+      estimate._Count = WritableUtils.readVLong(input);
+      estimate._Error = WritableUtils.readVLong(input);
+      add(estimate);
+    }
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    WritableUtils.writeVInt(output, _Capacity);
+    WritableUtils.writeVInt(output, _Size);
+    WritableUtils.writeVLong(output, _Floor);
+    for (int index = 0; index < _Size; index++)
+    {
+      Estimate estimate = _Heap[index];
+      estimate._Item.write(output);
+      WritableUtils.writeVLong(output, estimate._Count);
+      WritableUtils.writeVLong(output, estimate._Error);
+    }
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Removes every item.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Estimates.clear();
+    Arrays.fill(_Heap, 0, _Size, null);
+    _Floor = 0;
+    _Size = 0;
+  }
+
+  /****************************************************************************
+  * Merges another summary into this one, which keeps its own capacity. An
+  * item missing from one of the summaries is credited with that summary's
+  * minimum, as both its count and its error, so the bounds still hold.
+  ****************************************************************************/
+  public void merge(SpaceSaving summary)
+  {
+    long minimum = getMinimum();
+    long summaryMinimum = summary.getMinimum();
+
+    ArrayList<Estimate> merged = new ArrayList<Estimate>(_Size + summary.size());
+    for (int index = 0; index < _Size; index++)
+    {
+      Estimate estimate = _Heap[index];
+      Estimate other = summary._Estimates.get(estimate._Item);
+      estimate._Count += (other != null) ? other._Count : summaryMinimum;
+      estimate._Error += (other != null) ? other._Error : summaryMinimum;
+      merged.add(estimate);
+    }
+
+    for (int index = 0; index < summary.size(); index++)
+    {
+      Estimate other = summary._Heap[index];
+      if (!_Estimates.containsKey(other._Item))
+      {
+        Estimate estimate = new Estimate();
+        estimate._Item.set(other._Item);
+        estimate._Count = other._Count + minimum;
+        estimate._Error = other._Error + minimum;
+        merged.add(estimate);
+      }
+    }
+
+    //An item missing from both could have been counted by both minimums
+    clear();
+    _Floor = minimum + summaryMinimum;
+    Collections.sort(merged, DESCENDING);
+    for (int index = 0; index < merged.size() && index < _Capacity; index++)
+      add(merged.get(index));
+  }
+
+  /****************************************************************************
+  * Counts an item given as UTF-8 bytes; they're only copied if the item takes
+  * over a counter.
+  ****************************************************************************/
+  public void offer(byte[] bytes, int offset, int length, long count)
+  {
+    _Probe.set(bytes, offset, length);
+    offer(_Probe, count);
+  }
+
+  /****************************************************************************
+  * Counts an item; it's only copied if it takes over a counter.
+  ****************************************************************************/
+  public void offer(Text item, long count)
+  {
+    Estimate estimate = _Estimates.get(item);
+    if (estimate != null)
+    {
+      estimate._Count += count;
+      siftDown(estimate._HeapIndex);
+      return;
+    }
+
+    //A merged summary may already have undercounted a new item by its floor
+    if (_Size < _Capacity)
+    {
+      estimate = new Estimate();
+      estimate._Item.set(item);
+      estimate._Count = _Floor + count;
+      estimate._Error = _Floor;
+      add(estimate);
+      return;
+    }
+
+    //Take over the smallest counter
+    estimate = _Heap[0];
+    _Estimates.remove(estimate._Item);
+    estimate._Item.set(item);
+    estimate._Error = estimate._Count;
+    estimate._Count += count;
+    _Estimates.put(estimate._Item, estimate);
+    siftDown(0);
+  }
+
+  /****************************************************************************
+  * Gets up to the given number of items with the highest counts, highest
+  * first.
+  ****************************************************************************/
+  public List<Estimate> getTop(int count)
+  {
+    Estimate[] estimates = Arrays.copyOf(_Heap, _Size);
+    Arrays.sort(estimates, DESCENDING);
+    return Arrays.asList(estimates).subList(0, Math.min(count, estimates.length));
+  }
+
+  /****************************************************************************
+  * Gets whether an item is certain to be among the most frequent: its count
+  * less its error is at least the count of the first item left out of the
+  * list (or the minimum, if none was).
+  ****************************************************************************/
+  public boolean isGuaranteed(Estimate estimate, int count)
+  {
+    long threshold = getMinimum();
+    if (count < _Size)
+      threshold = getTop(count + 1).get(count)._Count;
+
+    return estimate._Count - estimate._Error >= threshold;
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Adds an estimate for an item that isn't in the summary.
+  ****************************************************************************/
+  private void add(Estimate estimate)
+  {
+    _Estimates.put(estimate._Item, estimate);
+    _Heap[_Size] = estimate;
+    estimate._HeapIndex = _Size++;
+    siftUp(estimate._HeapIndex);
+  }
+
+  /****************************************************************************
+  * Moves a counter down the heap until its children aren't smaller.
+  ****************************************************************************/
+  private void siftDown(int index)
+  {
+    while (true)
+    {
+      int smallest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < _Size && _Heap[left]._Count < _Heap[smallest]._Count)
+        smallest = left;
+      if (right < _Size && _Heap[right]._Count < _Heap[smallest]._Count)
+        smallest = right;
+
+      if (smallest == index)
+        return;
+
+      swap(index, smallest);
+      index = smallest;
+    }
+  }
+
+  /****************************************************************************
+  * Moves a counter up the heap until its parent isn't larger.
+  ****************************************************************************/
+  private void siftUp(int index)
+  {
+    while (index > 0)
+    {
+      int parent = (index - 1) / 2;
+      if (_Heap[parent]._Count <= _Heap[index]._Count)
+        return;
+
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  /****************************************************************************
+  * Swaps two counters in the heap.
+  ****************************************************************************/
+  private void swap(int left, int right)
+  {
+    Estimate swapped = _Heap[left];
+    _Heap[left] = _Heap[right];
+    _Heap[right] = swapped;
+    _Heap[left]._HeapIndex = left;
+    _Heap[right]._HeapIndex = right;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * An item's estimated count: the true count is from count - error to count.
+  ****************************************************************************/
+  public static class Estimate
+  {
+    //Property variable declarations
+    private long _Count;
+    private long _Error;
+    private int _HeapIndex;
+    private final Text _Item = new Text();
+
+    /**************************************************************************
+    * Gets the estimated count, which is never below the true count.
+    **************************************************************************/
+    public long getCount()
+    {
+      return _Count;
+    }
+
+    /**************************************************************************
+    * Gets how far the estimated count can be above the true count.
+    **************************************************************************/
+    public long getError()
+    {
+      return _Error;
+    }
+
+    /**************************************************************************
+    * Gets the item.
+    **************************************************************************/
+    public Text getItem()
+    {
+      return _Item;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+package hadoop.platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/******************************************************************************
+* Maps the distinct values of low-cardinality string fields to small integer
+* codes, so a block of records can store each value once and refer to it with
+* a one- or two-byte vint. Codes are assigned in the order values are first
+* encoded, and the dictionary is written ahead of the records that use it.
+******************************************************************************/
+public class StringDictionary implements Writable
+{
+  //Property variable declarations
+  private final HashMap<String, Integer> _Codes = new HashMap<String, Integer>();
+  private final ArrayList<String> _Values = new ArrayList<String>();
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the number of distinct values.
+  ****************************************************************************/
+  public int size()
+  {
+    return _Values.size();
+  }
+
+  //###########################################################################
+  // Writable Implementation
+  //###########################################################################
+  /****************************************************************************
+  * Reads the values, replacing the current ones.
+  ****************************************************************************/
+  @Override
+  public void readFields(DataInput input) throws IOException
+  {
+    clear();
+
+    int count = WritableUtils.readVInt(input);
+    if (count < 0)
+      throw new IOException("Invalid dictionary size: " + count);
+
+    for (int code = 0; code < count; code++)
+    {
+      String value = Text.readString(input);
+      _Codes.put(value, code);
+      _Values.add(value);
+    }
+  }
+
+  /****************************************************************************
+  * Writes the values in code order.
+  ****************************************************************************/
+  @Override
+  public void write(DataOutput output) throws IOException
+  {
+    WritableUtils.writeVInt(output, _Values.size());
+    for (String value : _Values)
+      Text.writeString(output, value);
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Removes every value.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Codes.clear();
+    _Values.clear();
+  }
+
+  /****************************************************************************
+  * Gets the value for a code.
+  ****************************************************************************/
+  public String decode(int code) throws IOException
+  {
+    if (code < 0 || code >= _Values.size())
+      throw new IOException("Invalid dictionary code: " + code);
+
+    return _Values.get(code);
+  }
+
+  /****************************************************************************
+  * Gets the code for a value, adding the value if it's new.
+  ****************************************************************************/
+  public int encode(String value)
+  {
+    Integer code = _Codes.get(value);
+    if (code == null)
+    {
+      code = _Values.size();
+      _Codes.put(value, code);
+      _Values.add(value);
+    }
+
+    return code;
+  }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package hadoop.platform;
 
-import java.text.ParseException;
+import java.nio.charset.Charset;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collection;
@@ -8,7 +9,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -17,12 +18,32 @@ import org.apache.commons.logging.LogFactory;
 public class TextParsing
 {
   //Constants for frequently used Regular Expression patterns
-  public static final Pattern REGEX_IP_V4 = Pattern.compile("^\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.$");
-  public static final Pattern REGEX_IP_V6 = Pattern.compile("^((([0-9a-f]{1,4}:){7}([0-9a-f]{1,4}|:))|(([0-9a-f]{1,4}:){6}(:[0-9a-f]{1,4}|((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9a-f]{1,4}:){5}((:[0-9a-f]{1,4}){1,2}|:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9a-f]{1,4}:){4}((:[0-9a-f]{1,4}){1,3})|((:[0-9a-f]{1,4})?:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:)|(([0-9a-f]{1,4}:){3}|(((:[0-9a-f]{1,4}){0,2}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9a-f]{1,4}:){2}((:[0-9a-f]{1,4}){1,5})|((:[0-9a-f]{1,4}){0,3}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:)|(([0-9a-f]{1,4}:){1}(((:[0-9a-f]{1,4}){1,6})|((:[0-9a-f]{1,4}){0,4}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|((:[0-9a-f]{1,4}){1,7}|((:[0-9a-f]{1,4}){0,5}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:)))$", Pattern.CASE_INSENSITIVE);
   public static final Pattern REGEX_STATE = Pattern.compile("^[A-Z]{2}$", Pattern.CASE_INSENSITIVE);
-  public static final Pattern REGEX_USER_AGENT = Pattern.compile("((Opera)/(\\d+)).*(Android|iPad|iPhone|Linux|Windows+NT|Windows) \\d+.*((Chrome|Firefox|Opera|Safari)/\\d+|MSIE \\d+)", Pattern.CASE_INSENSITIVE);
   public static final Pattern REGEX_ZIP_CODE = Pattern.compile("\\d{1,5}$");
   
+  //Exactly representable powers of ten used by the fast path of parseDouble()
+  private static final double[] POWERS_OF_TEN = new double[]
+  {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  
+  /****************************************************************************
+  * Hadoop counters for values the primitive parsers rejected, and for records
+  * cut short; Mappers count these instead of logging every bad value.
+  ****************************************************************************/
+  public static enum ParseFailures
+  {
+    INCOMPLETE_RECORD,
+    INVALID_DATE,
+    INVALID_DOUBLE,
+    INVALID_FLOAT,
+    INVALID_INT,
+    INVALID_IP_ADDRESS,
+    INVALID_LONG
+  }
+  
   //An instance of Log4J
   private static final Log LOG = LogFactory.getLog(TextParsing.class);
 
@@ -46,6 +67,14 @@ public class TextParsing
       return false;
   }
   
+  /****************************************************************************
+  * Tests if the text is a valid IPv4 or IPv6 address.
+  ****************************************************************************/
+  public static boolean isIpAddress(CharSequence text)
+  {
+    return IpAddress.isValid(text);
+  }
+  
   /****************************************************************************
   * Loops through an array and joins the elements together in a string
   * delimited by the specified string-delimiter.
@@ -82,42 +111,38 @@ public class TextParsing
   ****************************************************************************/
   public static Map<String, String> parseUserAgent(String userAgent)
   {
-    //Replace + signs with spaces
-    userAgent = userAgent.replace('+', ' ');
-    
     Map<String, String> userAgentData = new HashMap<String, String>();
-    Matcher browserInfo = REGEX_USER_AGENT.matcher(userAgent); 
-    if (browserInfo.find())
+    UserAgent browserInfo = UserAgentClassifier.getDefault().classify(userAgent);
+    
+    if (!isNullOrEmpty(browserInfo.getBrowser()))
     {
-      //Opera 9+ rides the short bus and needs special care
-      if (!isNullOrEmpty(browserInfo.group(0)))
-      {
-        userAgentData.put("Browser", browserInfo.group(1));
-        userAgentData.put("Browser Version", browserInfo.group(2));
-      }
-      
-      //Parse the operating system
-      if (!isNullOrEmpty(browserInfo.group(3)))
-        userAgentData.put("Operating System", browserInfo.group(3));
-      
-      //Parse the operating system version
-      if (!isNullOrEmpty(browserInfo.group(4)))
-        userAgentData.put("OS Version", browserInfo.group(4));
-      
-      //Parse browser and version
-      if (!isNullOrEmpty(browserInfo.group(5)))
-      {
-        userAgentData.put("Browser", browserInfo.group(6));
-        userAgentData.put("Browser Version", browserInfo.group(7));
-      }
+      userAgentData.put("Browser", browserInfo.getBrowser());
+      userAgentData.put("Browser Version", browserInfo.getBrowserVersion());
+    }
+    
+    if (!isNullOrEmpty(browserInfo.getOperatingSystem()))
+    {
+      userAgentData.put("Operating System", browserInfo.getOperatingSystem());
+      userAgentData.put("OS Version", browserInfo.getOsVersion());
     }
     
     return userAgentData;
   }
   
+  /****************************************************************************
+  * Parses the browser and operating system information from the raw bytes of
+  * a user agent. Results come from the calling thread's UserAgentCache, so a
+  * user agent is only parsed the first time the thread sees it.
+  ****************************************************************************/
+  public static UserAgent parseUserAgent(byte[] userAgent, int offset, int length)
+  {
+    return UserAgentCache.getInstance().get(userAgent, offset, length);
+  }
+  
   /****************************************************************************
   * Parses the string argument as a date using the specified format pattern.
-  * Returns null if a date can't be parsed from the string.
+  * Returns null if a date can't be parsed from the string; failures are
+  * neither thrown nor logged, so bad rows cost no more than good ones.
   ****************************************************************************/
   public static Date tryParseDate(String formatPattern, String text)
   {
@@ -126,15 +151,15 @@ public class TextParsing
     else if (text == null || text.length() < 1)
       return null;
     
-    try
-    {
-      return new SimpleDateFormat(formatPattern).parse(text);
-    }
-    catch (ParseException pe)
+    //The Omniture layout is parsed without SimpleDateFormat
+    if (formatPattern.equals(TimestampParser.PATTERN))
     {
-      LOG.warn("Failed to parse date (" + formatPattern + ") from: " + text, pe);
-      return null;
+      long epochMillis = TimestampParser.toEpochMillis(TimeZone.getDefault(), text);
+      return epochMillis == TimestampParser.INVALID ? null : new Date(epochMillis);
     }
+    
+    //Other layouts report failures through the ParsePosition, not by throwing
+    return new SimpleDateFormat(formatPattern).parse(text, new ParsePosition(0));
   }
 
   /****************************************************************************
@@ -143,18 +168,8 @@ public class TextParsing
   ****************************************************************************/
   public static Double tryParseDouble(String text)
   {
-    if (text == null || text.length() < 1)
-      return null;
-    
-    try
-    {
-      return Double.parseDouble(text);
-    }
-    catch (NumberFormatException nfe)
-    {
-      LOG.warn("Failed to parse double from: " + text, nfe);
-      return null;
-    }
+    double value = parseDouble(text);
+    return Double.isNaN(value) ? null : value;
   }
 
   /****************************************************************************
@@ -163,37 +178,248 @@ public class TextParsing
   ****************************************************************************/
   public static Float tryParseFloat(String text)
   {
-    if (text == null || text.length() < 1)
+    float value = parseFloat(text);
+    return Float.isNaN(value) ? null : value;
+  }
+
+  /****************************************************************************
+  * Parses the string argument as an integer. Returns null if the string
+  * contains non-numeric characters.
+  ****************************************************************************/
+  public static Integer tryParseInt(String text)
+  {
+    if (text == null)
       return null;
     
-    try
+    long value = parseLong(text, Long.MIN_VALUE);
+    return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? null : (int)value;
+  }
+  
+  /****************************************************************************
+  * Parses the text as a double without throwing; returns NaN if the text
+  * isn't a decimal number ([sign]digits[.digits][e[sign]digits]).
+  ****************************************************************************/
+  public static double parseDouble(CharSequence text)
+  {
+    if (text == null)
+      return Double.NaN;
+    
+    byte[] ascii = new byte[text.length()];
+    for (int index = 0; index < ascii.length; index++)
     {
-      return Float.parseFloat(text);
+      char character = text.charAt(index);
+      if (character > 0x7F)
+        return Double.NaN;
+      
+      ascii[index] = (byte)character;
     }
-    catch (NumberFormatException nfe)
+    
+    return parseDouble(ascii, 0, ascii.length);
+  }
+
+  /****************************************************************************
+  * Parses the ASCII bytes as a double without throwing or allocating;
+  * returns NaN if the bytes aren't a decimal number. Values with up to 15
+  * significant digits and a small exponent are computed exactly, the rare
+  * longer ones are handed to Double.parseDouble() once they're known to be
+  * valid.
+  ****************************************************************************/
+  public static double parseDouble(byte[] bytes, int offset, int length)
+  {
+    int index = offset;
+    int end = offset + length;
+    if (length < 1)
+      return Double.NaN;
+    
+    boolean negative = bytes[index] == '-';
+    if (negative || bytes[index] == '+')
+      index++;
+    
+    //Collect up to 18 significant digits; scale by the exponent afterward
+    long mantissa = 0;
+    int significantDigits = 0;
+    int exponent = 0;
+    boolean hasDigits = false;
+    for (; index < end && isDigit(bytes[index]); index++)
     {
-      LOG.warn("Failed to parse float from: " + text, nfe);
-      return null;
+      hasDigits = true;
+      if (significantDigits < 18)
+      {
+        mantissa = mantissa * 10 + (bytes[index] - '0');
+        if (mantissa != 0)
+          significantDigits++;
+      }
+      else
+        exponent++;
     }
+    
+    if (index < end && bytes[index] == '.')
+    {
+      for (index++; index < end && isDigit(bytes[index]); index++)
+      {
+        hasDigits = true;
+        if (significantDigits < 18)
+        {
+          mantissa = mantissa * 10 + (bytes[index] - '0');
+          if (mantissa != 0)
+            significantDigits++;
+          
+          exponent--;
+        }
+      }
+    }
+    
+    if (!hasDigits)
+      return Double.NaN;
+    
+    if (index < end && (bytes[index] == 'e' || bytes[index] == 'E'))
+    {
+      index++;
+      boolean negativeExponent = index < end && bytes[index] == '-';
+      if (index < end && (negativeExponent || bytes[index] == '+'))
+        index++;
+      
+      int explicitExponent = 0;
+      boolean hasExponentDigits = false;
+      for (; index < end && isDigit(bytes[index]); index++)
+      {
+        hasExponentDigits = true;
+        explicitExponent = Math.min(explicitExponent * 10 + (bytes[index] - '0'), 100000);
+      }
+      
+      if (!hasExponentDigits)
+        return Double.NaN;
+      
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    
+    if (index != end)
+      return Double.NaN;
+    
+    //Both the mantissa and the power of ten are exact doubles, so a single
+    //multiply or divide is correctly rounded
+    if (significantDigits <= 15 && exponent >= -22 && exponent <= 22)
+    {
+      double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+      return negative ? -value : value;
+    }
+    
+    return Double.parseDouble(new String(bytes, offset, length, ASCII));
   }
 
   /****************************************************************************
-  * Parses the string argument as an integer. Returns null if the string
-  * contains non-numeric characters.
+  * Parses the text as a float without throwing; returns NaN if the text
+  * isn't a decimal number.
   ****************************************************************************/
-  public static Integer tryParseInt(String text)
+  public static float parseFloat(CharSequence text)
+  {
+    return (float)parseDouble(text);
+  }
+
+  /****************************************************************************
+  * Parses the ASCII bytes as a float without throwing or allocating; returns
+  * NaN if the bytes aren't a decimal number.
+  ****************************************************************************/
+  public static float parseFloat(byte[] bytes, int offset, int length)
+  {
+    return (float)parseDouble(bytes, offset, length);
+  }
+
+  /****************************************************************************
+  * Parses the text as an integer without throwing; returns invalidValue if
+  * the text isn't an integer or doesn't fit in an int.
+  ****************************************************************************/
+  public static int parseInt(CharSequence text, int invalidValue)
+  {
+    long value = parseLong(text, Long.MIN_VALUE);
+    return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? invalidValue : (int)value;
+  }
+
+  /****************************************************************************
+  * Parses the ASCII bytes as an integer without throwing or allocating;
+  * returns invalidValue if the bytes aren't an integer or don't fit in an
+  * int.
+  ****************************************************************************/
+  public static int parseInt(byte[] bytes, int offset, int length, int invalidValue)
+  {
+    long value = parseLong(bytes, offset, length, Long.MIN_VALUE);
+    return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? invalidValue : (int)value;
+  }
+
+  /****************************************************************************
+  * Parses the text as a long without throwing; returns invalidValue if the
+  * text isn't an integer or doesn't fit in a long.
+  ****************************************************************************/
+  public static long parseLong(CharSequence text, long invalidValue)
   {
     if (text == null || text.length() < 1)
-      return null;
+      return invalidValue;
+    
+    int index = 0;
+    boolean negative = text.charAt(0) == '-';
+    if (negative || text.charAt(0) == '+')
+      index++;
+    
+    if (index == text.length())
+      return invalidValue;
     
-    try
+    //Accumulate negatively so Long.MIN_VALUE can be represented
+    long value = 0;
+    for (; index < text.length(); index++)
     {
-      return Integer.parseInt(text);
+      int digit = text.charAt(index) - '0';
+      if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10)
+        return invalidValue;
+      
+      value = value * 10 - digit;
     }
-    catch (NumberFormatException nfe)
+    
+    if (!negative && value == Long.MIN_VALUE)
+      return invalidValue;
+    
+    return negative ? value : -value;
+  }
+
+  /****************************************************************************
+  * Parses the ASCII bytes as a long without throwing or allocating; returns
+  * invalidValue if the bytes aren't an integer or don't fit in a long.
+  ****************************************************************************/
+  public static long parseLong(byte[] bytes, int offset, int length, long invalidValue)
+  {
+    if (length < 1)
+      return invalidValue;
+    
+    int index = offset;
+    int end = offset + length;
+    boolean negative = bytes[index] == '-';
+    if (negative || bytes[index] == '+')
+      index++;
+    
+    if (index == end)
+      return invalidValue;
+    
+    //Accumulate negatively so Long.MIN_VALUE can be represented
+    long value = 0;
+    for (; index < end; index++)
     {
-      LOG.warn("Failed to parse int from: " + text, nfe);
-      return null;
+      int digit = bytes[index] - '0';
+      if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10)
+        return invalidValue;
+      
+      value = value * 10 - digit;
     }
+    
+    if (!negative && value == Long.MIN_VALUE)
+      return invalidValue;
+    
+    return negative ? value : -value;
+  }
+  
+  /****************************************************************************
+  * Tests if the byte is an ASCII digit.
+  ****************************************************************************/
+  private static boolean isDigit(byte character)
+  {
+    return character >= '0' && character <= '9';
   }
 }
\ No newline at end of file
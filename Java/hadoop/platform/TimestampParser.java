@@ -0,0 +1,324 @@
+package hadoop.platform;
+
+import java.util.TimeZone;
+
+/******************************************************************************
+* Parses fixed-layout timestamps ("yyyy-MM-dd HH:mm:ss" as used by Omniture,
+* or the separate "yyyy-MM-dd" and "HH:mm:ss" columns used by IIS) straight
+* from raw bytes into epoch milliseconds without allocating.
+*
+* Log files are mostly in time order, so the last day and the last second
+* parsed are cached and consecutive rows from the same second cost little
+* more than a byte comparison. The cache makes an instance stateful: create
+* one per Mapper (or per thread) rather than sharing it. The static
+* toEpochMillis() methods hold no state and are safe to call from any
+* thread.
+******************************************************************************/
+public class TimestampParser
+{
+  //Constants
+  public static final long INVALID = Long.MIN_VALUE;
+  public static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+  private static final int DATE_LENGTH = 10;
+  private static final int TIME_LENGTH = 8;
+  private static final long MILLIS_PER_DAY = 86400000L;
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  //Property variable declarations
+  private final TimeZone _TimeZone;
+  private final boolean _IsUtc;
+  private final byte[] _LastDate = new byte[DATE_LENGTH];
+  private long _LastDays = INVALID;
+  private final byte[] _LastTime = new byte[TIME_LENGTH];
+  private int _LastSeconds = -1;
+  private long _LastLocalMillis = INVALID;
+  private long _LastEpochMillis = INVALID;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the time zone the parsed timestamps are assumed to be in.
+  ****************************************************************************/
+  public TimeZone getTimeZone()
+  {
+    return _TimeZone;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a parser for timestamps in the JVM's default time zone, which
+  * is what SimpleDateFormat assumes.
+  ****************************************************************************/
+  public TimestampParser()
+  {
+    this(TimeZone.getDefault());
+  }
+
+  /****************************************************************************
+  * Initializes a parser for timestamps in the given time zone; IIS always
+  * logs in UTC.
+  ****************************************************************************/
+  public TimestampParser(TimeZone timeZone)
+  {
+    _TimeZone = (TimeZone)timeZone.clone();
+    _IsUtc = timeZone.getRawOffset() == 0 && !timeZone.useDaylightTime();
+  }
+
+  /****************************************************************************
+  * Initializes a parser for UTC timestamps.
+  ****************************************************************************/
+  public static TimestampParser utc()
+  {
+    return new TimestampParser(UTC);
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Parses a "yyyy-MM-dd HH:mm:ss" timestamp from the byte range; returns
+  * INVALID if the bytes aren't a valid timestamp.
+  ****************************************************************************/
+  public long parse(byte[] bytes, int offset, int length)
+  {
+    if (length != DATE_LENGTH + 1 + TIME_LENGTH || bytes[offset + DATE_LENGTH] != ' ')
+      return INVALID;
+
+    return parse(bytes, offset, DATE_LENGTH, bytes, offset + DATE_LENGTH + 1, TIME_LENGTH);
+  }
+
+  /****************************************************************************
+  * Parses a "yyyy-MM-dd" date and a "HH:mm:ss" time held in two byte ranges
+  * (the IIS date and time columns); returns INVALID if either isn't valid.
+  ****************************************************************************/
+  public long parse(byte[] dateBytes, int dateOffset, int dateLength, byte[] timeBytes, int timeOffset, int timeLength)
+  {
+    if (dateLength != DATE_LENGTH || timeLength != TIME_LENGTH)
+      return INVALID;
+
+    //Re-use the day from the last row if the date hasn't changed
+    if (_LastDays == INVALID || !matches(_LastDate, dateBytes, dateOffset))
+    {
+      long days = parseDays(dateBytes, dateOffset);
+      if (days == INVALID)
+        return INVALID;
+
+      System.arraycopy(dateBytes, dateOffset, _LastDate, 0, DATE_LENGTH);
+      _LastDays = days;
+    }
+
+    //Re-use the second from the last row if the time hasn't changed
+    if (_LastSeconds < 0 || !matches(_LastTime, timeBytes, timeOffset))
+    {
+      int seconds = parseSeconds(timeBytes, timeOffset);
+      if (seconds < 0)
+        return INVALID;
+
+      System.arraycopy(timeBytes, timeOffset, _LastTime, 0, TIME_LENGTH);
+      _LastSeconds = seconds;
+    }
+
+    long localMillis = _LastDays * MILLIS_PER_DAY + _LastSeconds * 1000L;
+    if (localMillis != _LastLocalMillis)
+    {
+      _LastLocalMillis = localMillis;
+      _LastEpochMillis = toUtc(_TimeZone, _IsUtc, localMillis);
+    }
+
+    return _LastEpochMillis;
+  }
+
+  /****************************************************************************
+  * Parses a "yyyy-MM-dd HH:mm:ss" timestamp from the string; returns INVALID
+  * if the string isn't a valid timestamp.
+  ****************************************************************************/
+  public long parse(CharSequence text)
+  {
+    if (text == null || text.length() != DATE_LENGTH + 1 + TIME_LENGTH)
+      return INVALID;
+
+    return toEpochMillis(_TimeZone, text);
+  }
+
+  /****************************************************************************
+  * Parses a "yyyy-MM-dd HH:mm:ss" timestamp from the byte range without
+  * caching; returns INVALID if the bytes aren't a valid timestamp.
+  ****************************************************************************/
+  public static long toEpochMillis(TimeZone timeZone, byte[] bytes, int offset, int length)
+  {
+    if (length != DATE_LENGTH + 1 + TIME_LENGTH || bytes[offset + DATE_LENGTH] != ' ')
+      return INVALID;
+
+    long days = parseDays(bytes, offset);
+    int seconds = parseSeconds(bytes, offset + DATE_LENGTH + 1);
+    if (days == INVALID || seconds < 0)
+      return INVALID;
+
+    return toUtc(timeZone, false, days * MILLIS_PER_DAY + seconds * 1000L);
+  }
+
+  /****************************************************************************
+  * Parses a "yyyy-MM-dd HH:mm:ss" timestamp from the string without caching;
+  * returns INVALID if the string isn't a valid timestamp.
+  ****************************************************************************/
+  public static long toEpochMillis(TimeZone timeZone, CharSequence text)
+  {
+    if (text == null || text.length() != DATE_LENGTH + 1 + TIME_LENGTH || text.charAt(DATE_LENGTH) != ' ')
+      return INVALID;
+
+    int year = digits(text, 0, 4);
+    int month = digits(text, 5, 2);
+    int day = digits(text, 8, 2);
+    int hour = digits(text, 11, 2);
+    int minute = digits(text, 14, 2);
+    int second = digits(text, 17, 2);
+    if (text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(13) != ':' || text.charAt(16) != ':')
+      return INVALID;
+
+    long days = toDays(year, month, day);
+    int seconds = toSeconds(hour, minute, second);
+    if (days == INVALID || seconds < 0)
+      return INVALID;
+
+    return toUtc(timeZone, false, days * MILLIS_PER_DAY + seconds * 1000L);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Tests if the cached bytes match the bytes at the offset.
+  ****************************************************************************/
+  private static boolean matches(byte[] cached, byte[] bytes, int offset)
+  {
+    for (int index = cached.length - 1; index >= 0; index--)
+    {
+      if (cached[index] != bytes[offset + index])
+        return false;
+    }
+
+    return true;
+  }
+
+  /****************************************************************************
+  * Parses "yyyy-MM-dd" into days since the epoch; returns INVALID if the
+  * bytes aren't a valid date.
+  ****************************************************************************/
+  private static long parseDays(byte[] bytes, int offset)
+  {
+    if (bytes[offset + 4] != '-' || bytes[offset + 7] != '-')
+      return INVALID;
+
+    return toDays(digits(bytes, offset, 4), digits(bytes, offset + 5, 2), digits(bytes, offset + 8, 2));
+  }
+
+  /****************************************************************************
+  * Parses "HH:mm:ss" into seconds since midnight; returns -1 if the bytes
+  * aren't a valid time.
+  ****************************************************************************/
+  private static int parseSeconds(byte[] bytes, int offset)
+  {
+    if (bytes[offset + 2] != ':' || bytes[offset + 5] != ':')
+      return -1;
+
+    return toSeconds(digits(bytes, offset, 2), digits(bytes, offset + 3, 2), digits(bytes, offset + 6, 2));
+  }
+
+  /****************************************************************************
+  * Reads a fixed number of ASCII digits; returns -1 on a non-digit.
+  ****************************************************************************/
+  private static int digits(byte[] bytes, int offset, int count)
+  {
+    int value = 0;
+    for (int index = offset; index < offset + count; index++)
+    {
+      int digit = bytes[index] - '0';
+      if (digit < 0 || digit > 9)
+        return -1;
+
+      value = value * 10 + digit;
+    }
+
+    return value;
+  }
+
+  /****************************************************************************
+  * Reads a fixed number of digits; returns -1 on a non-digit.
+  ****************************************************************************/
+  private static int digits(CharSequence text, int offset, int count)
+  {
+    int value = 0;
+    for (int index = offset; index < offset + count; index++)
+    {
+      int digit = text.charAt(index) - '0';
+      if (digit < 0 || digit > 9)
+        return -1;
+
+      value = value * 10 + digit;
+    }
+
+    return value;
+  }
+
+  /****************************************************************************
+  * Converts a civil date into days since 1970-01-01; returns INVALID if the
+  * date doesn't exist.
+  ****************************************************************************/
+  private static long toDays(int year, int month, int day)
+  {
+    if (year < 0 || month < 1 || month > 12 || day < 1)
+      return INVALID;
+    else if (day > 28)
+    {
+      boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+      int daysInMonth = (month == 2) ? (leapYear ? 29 : 28) : ((month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31);
+      if (day > daysInMonth)
+        return INVALID;
+    }
+
+    //Count from March so the leap day falls at the end of the year
+    int shiftedYear = (month <= 2) ? year - 1 : year;
+    int era = shiftedYear / 400;
+    int yearOfEra = shiftedYear - era * 400;
+    int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
+  /****************************************************************************
+  * Converts a time of day into seconds since midnight; returns -1 if the
+  * time doesn't exist.
+  ****************************************************************************/
+  private static int toSeconds(int hour, int minute, int second)
+  {
+    if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+      return -1;
+
+    return hour * 3600 + minute * 60 + second;
+  }
+
+  /****************************************************************************
+  * Converts milliseconds of local wall-clock time into epoch milliseconds.
+  ****************************************************************************/
+  private static long toUtc(TimeZone timeZone, boolean isUtc, long localMillis)
+  {
+    if (isUtc)
+      return localMillis;
+
+    //Guess with the standard offset, then correct for daylight saving
+    long guess = localMillis - timeZone.getRawOffset();
+    int offset = timeZone.getOffset(guess);
+    long epochMillis = localMillis - offset;
+
+    //Wall-clock times skipped when the clocks go forward are read with the
+    //offset from before the jump, as SimpleDateFormat does
+    int actualOffset = timeZone.getOffset(epochMillis);
+    if (actualOffset != offset)
+      epochMillis = localMillis - actualOffset;
+
+    return epochMillis;
+  }
+}
\ No newline at end of file
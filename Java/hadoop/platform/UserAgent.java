@@ -0,0 +1,165 @@
+package hadoop.platform;
+
+/******************************************************************************
+* An immutable description of the browser and operating system parsed from a
+* user agent string. Instances are built once per distinct user agent and
+* shared through the UserAgentCache, so every value a Mapper needs is worked
+* out up front.
+******************************************************************************/
+public final class UserAgent
+{
+  //Constants
+  public static final UserAgent UNKNOWN = new UserAgent("", "", "", "");
+
+  //Property variable declarations
+  private final String _Browser;
+  private final String _BrowserLabel;
+  private final String _BrowserVersion;
+  private final float _BrowserVersionNumber;
+  private final String _OperatingSystem;
+  private final String _OsVersion;
+  private final float _OsVersionNumber;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the browser name.
+  ****************************************************************************/
+  public String getBrowser()
+  {
+    return _Browser;
+  }
+
+  /****************************************************************************
+  * Gets the browser name and version separated by a space.
+  ****************************************************************************/
+  public String getBrowserLabel()
+  {
+    return _BrowserLabel;
+  }
+
+  /****************************************************************************
+  * Gets the browser version as it appeared in the user agent.
+  ****************************************************************************/
+  public String getBrowserVersion()
+  {
+    return _BrowserVersion;
+  }
+
+  /****************************************************************************
+  * Gets the major.minor browser version as a number; 0 if unknown.
+  ****************************************************************************/
+  public float getBrowserVersionNumber()
+  {
+    return _BrowserVersionNumber;
+  }
+
+  /****************************************************************************
+  * Gets the operating system name.
+  ****************************************************************************/
+  public String getOperatingSystem()
+  {
+    return _OperatingSystem;
+  }
+
+  /****************************************************************************
+  * Gets the operating system version as it appeared in the user agent.
+  ****************************************************************************/
+  public String getOsVersion()
+  {
+    return _OsVersion;
+  }
+
+  /****************************************************************************
+  * Gets the major.minor operating system version as a number; 0 if unknown.
+  ****************************************************************************/
+  public float getOsVersionNumber()
+  {
+    return _OsVersionNumber;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a populated instance of the object.
+  ****************************************************************************/
+  public UserAgent(String browser, String browserVersion, String operatingSystem, String osVersion)
+  {
+    _Browser = (browser != null) ? browser : "";
+    _BrowserVersion = (browserVersion != null) ? browserVersion : "";
+    _OperatingSystem = (operatingSystem != null) ? operatingSystem : "";
+    _OsVersion = (osVersion != null) ? osVersion : "";
+
+    _BrowserLabel = (_BrowserVersion.length() > 0) ? _Browser + " " + _BrowserVersion : _Browser;
+    _BrowserVersionNumber = toVersionNumber(_BrowserVersion);
+    _OsVersionNumber = toVersionNumber(_OsVersion);
+  }
+
+  //###########################################################################
+  // Overridden Object Methods
+  //###########################################################################
+  @Override
+  public boolean equals(Object equalityTarget)
+  {
+    if (equalityTarget instanceof UserAgent)
+    {
+      UserAgent forEquality = (UserAgent)equalityTarget;
+      return _Browser.equals(forEquality.getBrowser())
+        && _BrowserVersion.equals(forEquality.getBrowserVersion())
+        && _OperatingSystem.equals(forEquality.getOperatingSystem())
+        && _OsVersion.equals(forEquality.getOsVersion());
+    }
+
+    return false;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return ((_Browser.hashCode() * 31 + _BrowserVersion.hashCode()) * 31
+      + _OperatingSystem.hashCode()) * 31
+      + _OsVersion.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return _Browser + "\t"
+      + _BrowserVersion + "\t"
+      + _OperatingSystem + "\t"
+      + _OsVersion;
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Reads the leading major[.minor] digits of a version ("10_3_1" or "11.0.2"
+  * become 10.3 and 11.0); returns 0 if there are none.
+  ****************************************************************************/
+  private static float toVersionNumber(String version)
+  {
+    int major = 0;
+    int index = 0;
+    while (index < version.length() && Character.isDigit(version.charAt(index)))
+      major = major * 10 + (version.charAt(index++) - '0');
+
+    if (index == 0)
+      return 0;
+    else if (index + 1 >= version.length() || (version.charAt(index) != '.' && version.charAt(index) != '_'))
+      return major;
+
+    int minor = 0;
+    int scale = 1;
+    index++;
+    while (index < version.length() && Character.isDigit(version.charAt(index)) && scale < 1000)
+    {
+      minor = minor * 10 + (version.charAt(index++) - '0');
+      scale *= 10;
+    }
+
+    return major + (float)minor / scale;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,330 @@
+package hadoop.platform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/******************************************************************************
+* A bounded cache of parsed user agents keyed by the raw user agent bytes. A
+* day of traffic only has a few thousand distinct user agents, so almost every
+* row is answered without decoding a String or running the parser.
+*
+* Each thread gets its own cache from getInstance(), so Mappers running side
+* by side in the LocalExecutionEngine or a MultithreadedMapper never contend
+* on a lock; an instance must only be used by one thread at a time.
+*
+* Eviction uses the CLOCK algorithm with a small frequency count per entry:
+* a hit bumps the count, and the clock hand decrements counts as it sweeps
+* until it finds an entry that hasn't been used since the last sweep. User
+* agents seen on every other row survive, one-off bot strings don't.
+******************************************************************************/
+public class UserAgentCache
+{
+  //Constants
+  public static final int DEFAULT_CAPACITY = 4096;
+  private static final int MAX_FREQUENCY = 3;
+  private static final List<UserAgentCache> THREAD_CACHES = new ArrayList<UserAgentCache>();
+  private static final ThreadLocal<UserAgentCache> THREAD_CACHE = new ThreadLocal<UserAgentCache>()
+  {
+    @Override
+    protected UserAgentCache initialValue()
+    {
+      UserAgentCache threadCache = new UserAgentCache(DEFAULT_CAPACITY);
+      synchronized (THREAD_CACHES)
+      {
+        THREAD_CACHES.add(threadCache);
+      }
+
+      return threadCache;
+    }
+  };
+
+  /****************************************************************************
+  * The Hadoop counters reported by reportCounters().
+  ****************************************************************************/
+  public static enum Counters
+  {
+    USER_AGENT_CACHE_HITS,
+    USER_AGENT_CACHE_MISSES,
+    USER_AGENT_CACHE_EVICTIONS
+  }
+
+  //Property variable declarations
+  private final int _Capacity;
+  private final Entry[] _Clock;
+  private int _ClockHand;
+  private final HashMap<Key, Entry> _Entries;
+  private volatile long _Evictions;
+  private volatile long _Hits;
+  private volatile long _Misses;
+  private final Key _Probe = new Key();
+  private long _ReportedEvictions;
+  private long _ReportedHits;
+  private long _ReportedMisses;
+  private int _Size;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the maximum number of user agents held.
+  ****************************************************************************/
+  public int getCapacity()
+  {
+    return _Capacity;
+  }
+
+  /****************************************************************************
+  * Gets the number of user agents evicted to make room for new ones.
+  ****************************************************************************/
+  public long getEvictions()
+  {
+    return _Evictions;
+  }
+
+  /****************************************************************************
+  * Gets the number of lookups answered from the cache.
+  ****************************************************************************/
+  public long getHits()
+  {
+    return _Hits;
+  }
+
+  /****************************************************************************
+  * Gets the number of lookups that had to parse the user agent.
+  ****************************************************************************/
+  public long getMisses()
+  {
+    return _Misses;
+  }
+
+  /****************************************************************************
+  * Gets the number of user agents currently held.
+  ****************************************************************************/
+  public int getSize()
+  {
+    return _Size;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a cache holding at most the given number of user agents.
+  ****************************************************************************/
+  public UserAgentCache(int capacity)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("The capacity must be at least 1.");
+
+    _Capacity = capacity;
+    _Clock = new Entry[capacity];
+    _Entries = new HashMap<Key, Entry>(capacity * 4 / 3 + 1);
+  }
+
+  /****************************************************************************
+  * Gets the calling thread's cache.
+  ****************************************************************************/
+  public static UserAgentCache getInstance()
+  {
+    return THREAD_CACHE.get();
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Gets the parsed user agent for the raw bytes, classifying and caching it on
+  * a miss.
+  ****************************************************************************/
+  public UserAgent get(byte[] bytes, int offset, int length)
+  {
+    _Probe.set(bytes, offset, length);
+    Entry cached = _Entries.get(_Probe);
+    if (cached != null)
+    {
+      _Hits++;
+      if (cached.frequency < MAX_FREQUENCY)
+        cached.frequency++;
+
+      return cached.userAgent;
+    }
+
+    _Misses++;
+    UserAgent parsed = parse(bytes, offset, length);
+    add(new Key(bytes, offset, length), parsed);
+    return parsed;
+  }
+
+  /****************************************************************************
+  * Removes all user agents from the cache; the statistics are kept.
+  ****************************************************************************/
+  public void clear()
+  {
+    _Entries.clear();
+    for (int index = 0; index < _Size; index++)
+      _Clock[index] = null;
+
+    _Size = 0;
+    _ClockHand = 0;
+  }
+
+  /****************************************************************************
+  * Adds the hits, misses and evictions of every thread's cache since the last
+  * report to the task's counters; call from Mapper.cleanup(). Tasks running
+  * side by side may report each other's lookups, but nothing is counted twice
+  * so the job totals are exact.
+  ****************************************************************************/
+  public static void reportCounters(TaskInputOutputContext<?, ?, ?, ?> context)
+  {
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    synchronized (THREAD_CACHES)
+    {
+      for (UserAgentCache threadCache : THREAD_CACHES)
+      {
+        long threadHits = threadCache._Hits;
+        long threadMisses = threadCache._Misses;
+        long threadEvictions = threadCache._Evictions;
+
+        hits += threadHits - threadCache._ReportedHits;
+        misses += threadMisses - threadCache._ReportedMisses;
+        evictions += threadEvictions - threadCache._ReportedEvictions;
+
+        threadCache._ReportedHits = threadHits;
+        threadCache._ReportedMisses = threadMisses;
+        threadCache._ReportedEvictions = threadEvictions;
+      }
+    }
+
+    context.getCounter(Counters.USER_AGENT_CACHE_HITS).increment(hits);
+    context.getCounter(Counters.USER_AGENT_CACHE_MISSES).increment(misses);
+    context.getCounter(Counters.USER_AGENT_CACHE_EVICTIONS).increment(evictions);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Adds a parsed user agent, evicting the first entry the clock hand finds
+  * that hasn't been used since its last sweep if the cache is full.
+  ****************************************************************************/
+  private void add(Key key, UserAgent userAgent)
+  {
+    Entry added = new Entry(key, userAgent);
+    if (_Size < _Capacity)
+    {
+      _Clock[_Size++] = added;
+    }
+    else
+    {
+      while (_Clock[_ClockHand].frequency > 0)
+      {
+        _Clock[_ClockHand].frequency--;
+        _ClockHand = (_ClockHand + 1) % _Capacity;
+      }
+
+      _Entries.remove(_Clock[_ClockHand].key);
+      _Clock[_ClockHand] = added;
+      _ClockHand = (_ClockHand + 1) % _Capacity;
+      _Evictions++;
+    }
+
+    _Entries.put(key, added);
+  }
+
+  /****************************************************************************
+  * Parses the raw user agent bytes.
+  ****************************************************************************/
+  private static UserAgent parse(byte[] bytes, int offset, int length)
+  {
+    if (length < 1)
+      return UserAgent.UNKNOWN;
+
+    return UserAgentClassifier.getDefault().classify(bytes, offset, length);
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * A cached user agent and how recently/often it has been used.
+  ****************************************************************************/
+  private static final class Entry
+  {
+    final Key key;
+    final UserAgent userAgent;
+    int frequency;
+
+    Entry(Key key, UserAgent userAgent)
+    {
+      this.key = key;
+      this.userAgent = userAgent;
+    }
+  }
+
+  /****************************************************************************
+  * A hash key over a range of bytes. Stored keys own a copy of their bytes;
+  * the probe key used for lookups points at the caller's buffer so a lookup
+  * doesn't allocate.
+  ****************************************************************************/
+  private static final class Key
+  {
+    byte[] bytes;
+    int offset;
+    int length;
+    int hash;
+
+    Key()
+    {
+    }
+
+    Key(byte[] source, int sourceOffset, int sourceLength)
+    {
+      byte[] copy = new byte[sourceLength];
+      System.arraycopy(source, sourceOffset, copy, 0, sourceLength);
+      set(copy, 0, sourceLength);
+    }
+
+    void set(byte[] source, int sourceOffset, int sourceLength)
+    {
+      bytes = source;
+      offset = sourceOffset;
+      length = sourceLength;
+
+      int computed = 1;
+      for (int index = sourceOffset; index < sourceOffset + sourceLength; index++)
+        computed = computed * 31 + source[index];
+
+      hash = computed;
+    }
+
+    @Override
+    public boolean equals(Object equalityTarget)
+    {
+      if (!(equalityTarget instanceof Key))
+        return false;
+
+      Key forEquality = (Key)equalityTarget;
+      if (hash != forEquality.hash || length != forEquality.length)
+        return false;
+
+      for (int index = 0; index < length; index++)
+      {
+        if (bytes[offset + index] != forEquality.bytes[forEquality.offset + index])
+          return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,484 @@
+package hadoop.platform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/******************************************************************************
+* Classifies user agents by looking for product tokens ("Chrome/", "MSIE ",
+* "Windows NT ", "iPhone OS ", etc.) from a rule table. The tokens are
+* compiled into an Aho-Corasick automaton, so every token is found in one
+* linear pass over the user agent no matter how long it is or how many
+* rules there are; there's no backtracking.
+*
+* Matching is case-insensitive and treats '+' as a space, since IIS logs
+* encode spaces in the user agent that way. When several rules of the same
+* kind match (Chrome user agents also claim to be Safari), the rule with the
+* highest priority wins. An instance is immutable once built and can be
+* shared between threads.
+******************************************************************************/
+public class UserAgentClassifier
+{
+  //Constants
+  private static final int ALPHABET_SIZE = 128;
+  private static final int MAX_VERSION_LENGTH = 16;
+
+  /****************************************************************************
+  * What a rule's token identifies.
+  ****************************************************************************/
+  public static enum RuleType
+  {
+    BROWSER,
+    OPERATING_SYSTEM,
+    VERSION
+  }
+
+  //The default rule table
+  private static final Rule[] DEFAULT_RULES = new Rule[]
+  {
+    //Crawlers
+    new Rule("googlebot/", RuleType.BROWSER, "Googlebot", 100),
+    new Rule("bingbot/", RuleType.BROWSER, "Bingbot", 100),
+
+    //Browsers; most of them also claim to be Safari or Mozilla
+    new Rule("edge/", RuleType.BROWSER, "Edge", 90),
+    new Rule("edg/", RuleType.BROWSER, "Edge", 90),
+    new Rule("opr/", RuleType.BROWSER, "Opera", 85),
+    new Rule("opera/", RuleType.BROWSER, "Opera", 80, "version/"),
+    new Rule("crios/", RuleType.BROWSER, "Chrome", 75),
+    new Rule("chrome/", RuleType.BROWSER, "Chrome", 70),
+    new Rule("fxios/", RuleType.BROWSER, "Firefox", 65),
+    new Rule("firefox/", RuleType.BROWSER, "Firefox", 60),
+    new Rule("msie ", RuleType.BROWSER, "Internet Explorer", 50),
+    new Rule("trident/", RuleType.BROWSER, "Internet Explorer", 45, "rv:"),
+    new Rule("safari/", RuleType.BROWSER, "Safari", 20, "version/"),
+
+    //Tokens that carry the real version for some of the browsers above
+    new Rule("version/", RuleType.VERSION, null, 0),
+    new Rule("rv:", RuleType.VERSION, null, 0),
+
+    //Operating systems
+    new Rule("windows phone ", RuleType.OPERATING_SYSTEM, "Windows Phone", 80),
+    new Rule("iphone os ", RuleType.OPERATING_SYSTEM, "iOS", 70),
+    new Rule("cpu os ", RuleType.OPERATING_SYSTEM, "iOS", 65),
+    new Rule("android ", RuleType.OPERATING_SYSTEM, "Android", 60),
+    new Rule("windows nt ", RuleType.OPERATING_SYSTEM, "Windows", 50),
+    new Rule("cros ", RuleType.OPERATING_SYSTEM, "Chrome OS", 45),
+    new Rule("mac os x ", RuleType.OPERATING_SYSTEM, "Mac OS X", 40),
+    new Rule("iphone", RuleType.OPERATING_SYSTEM, "iOS", 30, false),
+    new Rule("ipad", RuleType.OPERATING_SYSTEM, "iOS", 30, false),
+    new Rule("linux", RuleType.OPERATING_SYSTEM, "Linux", 20, false),
+    new Rule("windows", RuleType.OPERATING_SYSTEM, "Windows", 10, false)
+  };
+  private static final UserAgentClassifier DEFAULT = new UserAgentClassifier(DEFAULT_RULES);
+
+  //Property variable declarations
+  private final int[][] _Matches;
+  private final Rule[] _Rules;
+  private final int[] _Transitions;
+  private final int[] _VersionRules;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the rules in the order they were given.
+  ****************************************************************************/
+  public List<Rule> getRules()
+  {
+    return Collections.unmodifiableList(Arrays.asList(_Rules));
+  }
+
+  /****************************************************************************
+  * Gets the distinct names the rules of a type can classify as, in the order
+  * the rules were given.
+  ****************************************************************************/
+  public List<String> getNames(RuleType type)
+  {
+    List<String> names = new ArrayList<String>();
+    for (Rule rule : _Rules)
+    {
+      if (rule.getType() == type && rule.getName() != null && !names.contains(rule.getName()))
+        names.add(rule.getName());
+    }
+
+    return Collections.unmodifiableList(names);
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Compiles the rule table into a matching automaton.
+  ****************************************************************************/
+  public UserAgentClassifier(Rule[] rules)
+  {
+    _Rules = rules.clone();
+
+    //Build the keyword trie
+    List<int[]> trie = new ArrayList<int[]>();
+    List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+    trie.add(newState());
+    outputs.add(new ArrayList<Integer>());
+
+    for (int ruleIndex = 0; ruleIndex < _Rules.length; ruleIndex++)
+    {
+      String token = _Rules[ruleIndex].getToken();
+      int state = 0;
+      for (int index = 0; index < token.length(); index++)
+      {
+        int symbol = normalize(token.charAt(index));
+        if (trie.get(state)[symbol] < 0)
+        {
+          trie.get(state)[symbol] = trie.size();
+          trie.add(newState());
+          outputs.add(new ArrayList<Integer>());
+        }
+
+        state = trie.get(state)[symbol];
+      }
+
+      outputs.get(state).add(ruleIndex);
+    }
+
+    //Add failure links breadth-first, turning the trie into a DFA where
+    //every state has a transition for every symbol
+    int stateCount = trie.size();
+    int[] failures = new int[stateCount];
+    _Transitions = new int[stateCount * ALPHABET_SIZE];
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++)
+    {
+      int next = trie.get(0)[symbol];
+      _Transitions[symbol] = (next < 0) ? 0 : next;
+      if (next > 0)
+        queue.add(next);
+    }
+
+    while (!queue.isEmpty())
+    {
+      int state = queue.removeFirst();
+      outputs.get(state).addAll(outputs.get(failures[state]));
+
+      for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++)
+      {
+        int next = trie.get(state)[symbol];
+        int fallback = _Transitions[failures[state] * ALPHABET_SIZE + symbol];
+        if (next < 0)
+          _Transitions[state * ALPHABET_SIZE + symbol] = fallback;
+        else
+        {
+          _Transitions[state * ALPHABET_SIZE + symbol] = next;
+          failures[next] = fallback;
+          queue.add(next);
+        }
+      }
+    }
+
+    _Matches = new int[stateCount][];
+    for (int state = 0; state < stateCount; state++)
+    {
+      _Matches[state] = new int[outputs.get(state).size()];
+      for (int index = 0; index < _Matches[state].length; index++)
+        _Matches[state][index] = outputs.get(state).get(index);
+    }
+
+    //Resolve the version tokens each browser rule borrows its version from
+    HashMap<String, Integer> versionTokens = new HashMap<String, Integer>();
+    for (int ruleIndex = 0; ruleIndex < _Rules.length; ruleIndex++)
+    {
+      if (_Rules[ruleIndex].getType() == RuleType.VERSION)
+        versionTokens.put(_Rules[ruleIndex].getToken(), ruleIndex);
+    }
+
+    _VersionRules = new int[_Rules.length];
+    for (int ruleIndex = 0; ruleIndex < _Rules.length; ruleIndex++)
+    {
+      String versionToken = _Rules[ruleIndex].getVersionToken();
+      if (versionToken == null)
+        _VersionRules[ruleIndex] = -1;
+      else if (versionTokens.containsKey(versionToken))
+        _VersionRules[ruleIndex] = versionTokens.get(versionToken);
+      else
+        throw new IllegalArgumentException("No VERSION rule for the token: " + versionToken);
+    }
+  }
+
+  /****************************************************************************
+  * Gets the classifier built from the default rule table.
+  ****************************************************************************/
+  public static UserAgentClassifier getDefault()
+  {
+    return DEFAULT;
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Classifies the user agent held in the byte range.
+  ****************************************************************************/
+  public UserAgent classify(byte[] bytes, int offset, int length)
+  {
+    int browserRule = -1;
+    int browserVersionStart = -1;
+    int osRule = -1;
+    int osVersionStart = -1;
+    int[] versionStarts = null;
+
+    int state = 0;
+    int end = offset + length;
+    for (int index = offset; index < end; index++)
+    {
+      state = _Transitions[state * ALPHABET_SIZE + normalize(bytes[index])];
+
+      int[] matches = _Matches[state];
+      for (int matchIndex = 0; matchIndex < matches.length; matchIndex++)
+      {
+        int ruleIndex = matches[matchIndex];
+        Rule rule = _Rules[ruleIndex];
+        switch (rule.getType())
+        {
+          case BROWSER:
+            if (browserRule < 0 || rule.getPriority() > _Rules[browserRule].getPriority())
+            {
+              browserRule = ruleIndex;
+              browserVersionStart = index + 1;
+            }
+            break;
+          case OPERATING_SYSTEM:
+            if (osRule < 0 || rule.getPriority() > _Rules[osRule].getPriority())
+            {
+              osRule = ruleIndex;
+              osVersionStart = index + 1;
+            }
+            break;
+          default:
+            //Only the first occurrence of a version token is kept
+            if (versionStarts == null)
+            {
+              versionStarts = new int[_Rules.length];
+              Arrays.fill(versionStarts, -1);
+            }
+            if (versionStarts[ruleIndex] < 0)
+              versionStarts[ruleIndex] = index + 1;
+            break;
+        }
+      }
+    }
+
+    if (browserRule < 0 && osRule < 0)
+      return UserAgent.UNKNOWN;
+
+    String browser = "";
+    String browserVersion = "";
+    if (browserRule >= 0)
+    {
+      browser = _Rules[browserRule].getName();
+
+      //Some browsers keep their real version in another token
+      int versionRule = _VersionRules[browserRule];
+      if (versionRule >= 0 && versionStarts != null && versionStarts[versionRule] >= 0)
+        browserVersion = readVersion(bytes, versionStarts[versionRule], end);
+      else if (_Rules[browserRule].readsVersion())
+        browserVersion = readVersion(bytes, browserVersionStart, end);
+    }
+
+    String operatingSystem = "";
+    String osVersion = "";
+    if (osRule >= 0)
+    {
+      operatingSystem = _Rules[osRule].getName();
+      if (_Rules[osRule].readsVersion())
+        osVersion = readVersion(bytes, osVersionStart, end);
+    }
+
+    return new UserAgent(browser, browserVersion, operatingSystem, osVersion);
+  }
+
+  /****************************************************************************
+  * Classifies the user agent string. Only the ASCII characters can match a
+  * token, so anything else is treated as a non-matching byte.
+  ****************************************************************************/
+  public UserAgent classify(CharSequence userAgent)
+  {
+    byte[] bytes = new byte[userAgent.length()];
+    for (int index = 0; index < bytes.length; index++)
+    {
+      char character = userAgent.charAt(index);
+      bytes[index] = (character < ALPHABET_SIZE) ? (byte)character : (byte)0;
+    }
+
+    return classify(bytes, 0, bytes.length);
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Creates a trie state with no transitions.
+  ****************************************************************************/
+  private static int[] newState()
+  {
+    int[] transitions = new int[ALPHABET_SIZE];
+    Arrays.fill(transitions, -1);
+    return transitions;
+  }
+
+  /****************************************************************************
+  * Maps a byte onto the automaton's alphabet: lower-cases ASCII letters,
+  * turns '+' into a space and sends non-ASCII bytes to NUL, which no token
+  * contains.
+  ****************************************************************************/
+  private static int normalize(int character)
+  {
+    if (character < 0 || character >= ALPHABET_SIZE)
+      return 0;
+    else if (character >= 'A' && character <= 'Z')
+      return character + ('a' - 'A');
+    else if (character == '+')
+      return ' ';
+
+    return character;
+  }
+
+  /****************************************************************************
+  * Reads the version digits that follow a token ("10_3_1" becomes "10.3.1").
+  ****************************************************************************/
+  private static String readVersion(byte[] bytes, int start, int end)
+  {
+    char[] version = new char[MAX_VERSION_LENGTH];
+    int length = 0;
+    for (int index = start; index < end && length < MAX_VERSION_LENGTH; index++)
+    {
+      byte character = bytes[index];
+      if (character >= '0' && character <= '9')
+        version[length++] = (char)character;
+      else if ((character == '.' || character == '_') && length > 0)
+        version[length++] = '.';
+      else
+        break;
+    }
+
+    //Drop a trailing separator
+    if (length > 0 && version[length - 1] == '.')
+      length--;
+
+    return new String(version, 0, length);
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * A product token to look for and what it identifies.
+  ****************************************************************************/
+  public static final class Rule
+  {
+    //Property variable declarations
+    private final String _Name;
+    private final int _Priority;
+    private final boolean _ReadsVersion;
+    private final String _Token;
+    private final RuleType _Type;
+    private final String _VersionToken;
+
+    /**************************************************************************
+    * Gets the browser or operating system name the token identifies.
+    **************************************************************************/
+    public String getName()
+    {
+      return _Name;
+    }
+
+    /**************************************************************************
+    * Gets the priority used to choose between matches of the same type.
+    **************************************************************************/
+    public int getPriority()
+    {
+      return _Priority;
+    }
+
+    /**************************************************************************
+    * Gets the lower-case token to look for.
+    **************************************************************************/
+    public String getToken()
+    {
+      return _Token;
+    }
+
+    /**************************************************************************
+    * Gets what the token identifies.
+    **************************************************************************/
+    public RuleType getType()
+    {
+      return _Type;
+    }
+
+    /**************************************************************************
+    * Gets the VERSION token the browser's version is read from instead of
+    * its own token; null if the version follows its own token.
+    **************************************************************************/
+    public String getVersionToken()
+    {
+      return _VersionToken;
+    }
+
+    /**************************************************************************
+    * Tests if a version number follows the token.
+    **************************************************************************/
+    public boolean readsVersion()
+    {
+      return _ReadsVersion;
+    }
+
+    /**************************************************************************
+    * Initializes a rule whose token is followed by a version number.
+    **************************************************************************/
+    public Rule(String token, RuleType type, String name, int priority)
+    {
+      this(token, type, name, priority, true, null);
+    }
+
+    /**************************************************************************
+    * Initializes a rule whose token may not be followed by a version number.
+    **************************************************************************/
+    public Rule(String token, RuleType type, String name, int priority, boolean readsVersion)
+    {
+      this(token, type, name, priority, readsVersion, null);
+    }
+
+    /**************************************************************************
+    * Initializes a browser rule whose version is read from another token.
+    **************************************************************************/
+    public Rule(String token, RuleType type, String name, int priority, String versionToken)
+    {
+      this(token, type, name, priority, true, versionToken);
+    }
+
+    /**************************************************************************
+    * Initializes a populated instance of the object.
+    **************************************************************************/
+    private Rule(String token, RuleType type, String name, int priority, boolean readsVersion, String versionToken)
+    {
+      if (token == null || token.length() < 1)
+        throw new IllegalArgumentException("A rule needs a token.");
+
+      for (int index = 0; index < token.length(); index++)
+      {
+        if (token.charAt(index) >= ALPHABET_SIZE)
+          throw new IllegalArgumentException("Rule tokens must be ASCII: " + token);
+      }
+
+      _Token = token.toLowerCase().replace('+', ' ');
+      _Type = type;
+      _Name = name;
+      _Priority = priority;
+      _ReadsVersion = readsVersion;
+      _VersionToken = (versionToken != null) ? versionToken.toLowerCase() : null;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+package hadoop.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+import hadoop.platform.BlockGzipTextInputFormat;
+
+/******************************************************************************
+* Recompresses a text feed (plain, or compressed with any codec Hadoop knows
+* by its extension) into the layout BlockGzipTextInputFormat splits: a series
+* of independent gzip members of about "-blocksize" uncompressed bytes, each
+* holding whole lines, and an index ("<output>.index") listing the offset of
+* every member. The output is still an ordinary gzip file, so zcat and
+* TextInputFormat read it unchanged; only the index makes it splittable. Run it
+* on each feed as it arrives, before the nightly jobs.
+*
+* Usage: BlockGzipCompressor <input path> <output path> [-blocksize bytes]
+* The output path should end in ".gz" so Hadoop picks the gzip codec for it.
+******************************************************************************/
+public class BlockGzipCompressor
+{
+  //Constants
+  public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  //Property variable declarations
+  private final int _BlockSize;
+
+  /****************************************************************************
+  * Initializes a compressor that closes a block once it holds the given
+  * number of uncompressed bytes.
+  ****************************************************************************/
+  public BlockGzipCompressor(int blockSize)
+  {
+    if (blockSize < 1)
+      throw new IllegalArgumentException("The block size must be at least 1.");
+
+    _BlockSize = blockSize;
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Compresses the lines of the input into blocks written to the output, and
+  * writes the offset of each block to the index. Returns the number of blocks.
+  ****************************************************************************/
+  public int compress(InputStream input, OutputStream output, DataOutputStream index) throws IOException
+  {
+    LineReader lines = new LineReader(input, WRITE_BUFFER_SIZE);
+    Text line = new Text();
+    ByteArrayOutputStream block = new ByteArrayOutputStream(_BlockSize + WRITE_BUFFER_SIZE);
+    ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(_BlockSize / 4);
+    long position = 0;
+    int blockCount = 0;
+
+    while (true)
+    {
+      boolean endOfInput = lines.readLine(line) == 0;
+      if (!endOfInput)
+      {
+        block.write(line.getBytes(), 0, line.getLength());
+        block.write('\n');
+      }
+
+      //Lines never straddle blocks, so each block decompresses on its own
+      if (block.size() > 0 && (endOfInput || block.size() >= _BlockSize))
+      {
+        compressedBlock.reset();
+        GZIPOutputStream member = new GZIPOutputStream(compressedBlock, WRITE_BUFFER_SIZE);
+        block.writeTo(member);
+        member.close();
+
+        index.writeLong(position);
+        compressedBlock.writeTo(output);
+        position += compressedBlock.size();
+        blockCount++;
+        block.reset();
+      }
+
+      if (endOfInput)
+        return blockCount;
+    }
+  }
+
+  /****************************************************************************
+  * The entry point.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    Configuration configuration = new Configuration();
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(configuration, args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 2)
+    {
+      System.err.println("Usage: BlockGzipCompressor <input path> <output path> [-blocksize bytes]");
+      return;
+    }
+
+    List<String> options = Arrays.asList(appArguments);
+    int blockIndex = options.indexOf("-blocksize");
+    int blockSize = (blockIndex > -1 && blockIndex + 1 < options.size()) ? Integer.parseInt(options.get(blockIndex + 1)) : DEFAULT_BLOCK_SIZE;
+    BlockGzipCompressor compressor = new BlockGzipCompressor(blockSize);
+
+    //Decompress the feed on the way in if Hadoop recognizes its extension
+    Path inputPath = new Path(appArguments[0]);
+    InputStream input = inputPath.getFileSystem(configuration).open(inputPath);
+    CompressionCodec codec = new CompressionCodecFactory(configuration).getCodec(inputPath);
+    if (codec != null)
+      input = codec.createInputStream(input);
+
+    Path outputPath = new Path(appArguments[1]);
+    FileSystem fileSystem = outputPath.getFileSystem(configuration);
+    OutputStream output = fileSystem.create(outputPath, true);
+    DataOutputStream index = fileSystem.create(BlockGzipTextInputFormat.getIndexPath(outputPath), true);
+    try
+    {
+      int blockCount = compressor.compress(input, output, index);
+      System.out.println("Wrote " + blockCount + " blocks to " + outputPath + ".");
+    }
+    finally
+    {
+      input.close();
+      output.close();
+      index.close();
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,709 @@
+package hadoop.tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/******************************************************************************
+* Writes synthetic Omniture hit_data (tab-delimited, with the columns at the
+* positions ClickStream reads) or W3C IIS logs (space-delimited, with the
+* columns IisLogs reads) so the jobs can be run at production volume without
+* production data. The same seed always produces the same file.
+*
+* Traffic is modelled as a fixed pool of concurrent sessions whose hits are
+* interleaved in time order. Visitors, pages, referers and user agents are
+* drawn from Zipf distributions, session lengths are geometric, and a
+* configurable share of rows is malformed the ways real feeds are. Rows are
+* built in a reused buffer and streamed out, so memory stays bounded no matter
+* how many rows are written.
+*
+* Usage: SyntheticLogGenerator <omniture|iis> <output path> <rows>
+*   [-seed n] [-malformed rate] [-pages n] [-visitors n] [-sessionlength n]
+*   [-hitspersecond n]
+* An output path ending in ".gz" is gzip-compressed.
+******************************************************************************/
+public class SyntheticLogGenerator
+{
+  //Constants
+  public static final long DEFAULT_SEED = 20141018L;
+  public static final long DEFAULT_START_TIME = 1413590400000L;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int OPEN_SESSIONS = 512;
+  private static final int MAXIMUM_SESSION_LENGTH = 200;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  //Omniture hit_data column placement (mirrors ClickStream)
+  private static final int OMNITURE_COLUMNS = 120;
+  private static final int COLUMN_HIT_DATE = 3;
+  private static final int COLUMN_IP_ADDRESS = 8;
+  private static final int COLUMN_PAGE_URL = 13;
+  private static final int COLUMN_PAGE_NAME = 14;
+  private static final int COLUMN_SECTION = 18;
+  private static final int COLUMN_CATEGORY = 20;
+  private static final int COLUMN_YEAR = 21;
+  private static final int COLUMN_ZIP_CODE = 29;
+  private static final int COLUMN_STATE = 30;
+  private static final int COLUMN_COUNTY = 31;
+  private static final int COLUMN_TRAFFIC_SOURCE = 38;
+  private static final int COLUMN_SESSION_ID = 58;
+  private static final int COLUMN_REFERER = 69;
+  private static final int COLUMN_USER_AGENT = 71;
+  private static final int COLUMN_VISIT_NUMBER = 108;
+  private static final int COLUMN_PAGE_SEQUENCE = 109;
+  private static final int COLUMN_GEOCITY = 111;
+  private static final int COLUMN_GEOSTATE = 113;
+
+  //The most common user agents, roughly in order of traffic share
+  public static final String[] USER_AGENTS = new String[]
+  {
+    "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36",
+    "Mozilla/5.0 (iPhone; CPU iPhone OS 10_3_1 like Mac OS X) AppleWebKit/603.1.30 (KHTML, like Gecko) Version/10.0 Mobile/14E304 Safari/602.1",
+    "Mozilla/5.0 (Linux; Android 7.0; SM-G930V Build/NRD90M) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/59.0.3071.125 Mobile Safari/537.36",
+    "Mozilla/5.0 (Windows NT 6.1; Trident/7.0; rv:11.0) like Gecko",
+    "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_12_5) AppleWebKit/603.2.4 (KHTML, like Gecko) Version/10.1.1 Safari/603.2.4",
+    "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:54.0) Gecko/20100101 Firefox/54.0",
+    "Mozilla/5.0 (iPad; CPU OS 10_3_2 like Mac OS X) AppleWebKit/603.2.4 (KHTML, like Gecko) Version/10.0 Mobile/14F89 Safari/602.1",
+    "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/52.0.2743.116 Safari/537.36 Edge/15.15063",
+    "Mozilla/5.0 (compatible; MSIE 9.0; Windows NT 6.1; Trident/5.0)",
+    "Mozilla/5.0 (Linux; Android 6.0.1; SAMSUNG SM-G920A Build/MMB29K; wv) AppleWebKit/537.36 (KHTML, like Gecko) Version/4.0 Chrome/58.0.3029.83 Mobile Safari/537.36 [FB_IAB/FB4A;FBAV/133.0.0.23.69;]",
+    "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36",
+    "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+    "Mozilla/5.0 (compatible; bingbot/2.0; +http://www.bing.com/bingbot.htm)",
+    "Opera/9.80 (X11; Linux x86_64) Presto/2.12.388 Version/12.16"
+  };
+
+  //The most visited pages and the sections they belong to; the long tail is
+  //made up of listing pages
+  private static final String[] HEAD_PAGES = new String[] { "home", "search", "listings", "contact", "apply", "thank-you", "about", "faq", "blog", "careers" };
+  private static final String[] HEAD_SECTIONS = new String[] { "home", "search", "listings", "contact", "apply", "apply", "about", "about", "blog", "about" };
+
+  private static final String[] REFERERS = new String[]
+  {
+    "", "https://www.google.com/", "https://www.bing.com/search?q=apartments", "https://www.facebook.com/",
+    "https://www.yahoo.com/", "http://www.example.com/partners", "https://t.co/", "https://duckduckgo.com/"
+  };
+
+  private static final String[] TRAFFIC_SOURCES = new String[] { "Direct", "SEO", "SEM", "Referral", "Social", "Email" };
+  private static final String[] CAMPAIGNS = new String[] { "fall+sale", "brand", "move-in+special", "retargeting" };
+  private static final String[] STATES = new String[] { "TX", "CA", "FL", "NY", "IL", "GA", "WA", "AZ", "CO", "NC" };
+
+  //Property variable declarations
+  private long _HitsPerSecond = 200;
+  private double _MalformedRate = 0.005;
+  private double _MeanSessionLength = 5;
+  private int _PageCount = 10000;
+  private final long _Seed;
+  private long _StartTime = DEFAULT_START_TIME;
+  private int _VisitorCount = 100000;
+
+  //Generator state, rebuilt by reset()
+  private long _Clock;
+  private ZipfDistribution _Pages;
+  private final Random _Random;
+  private final ZipfDistribution _Referers = new ZipfDistribution(REFERERS.length, 1.1);
+  private final StringBuilder _Row = new StringBuilder(2048);
+  private final Session[] _Sessions = new Session[OPEN_SESSIONS];
+  private final ZipfDistribution _TrafficSources = new ZipfDistribution(TRAFFIC_SOURCES.length, 1.0);
+  private final ZipfDistribution _UserAgents = new ZipfDistribution(USER_AGENTS.length, 1.2);
+  private ZipfDistribution _Visitors;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the average number of hits per second of simulated time.
+  ****************************************************************************/
+  public long getHitsPerSecond()
+  {
+    return _HitsPerSecond;
+  }
+
+  /****************************************************************************
+  * Gets the share of rows that are malformed, between 0 and 1.
+  ****************************************************************************/
+  public double getMalformedRate()
+  {
+    return _MalformedRate;
+  }
+
+  /****************************************************************************
+  * Gets the mean number of hits in a session.
+  ****************************************************************************/
+  public double getMeanSessionLength()
+  {
+    return _MeanSessionLength;
+  }
+
+  /****************************************************************************
+  * Gets the number of distinct pages.
+  ****************************************************************************/
+  public int getPageCount()
+  {
+    return _PageCount;
+  }
+
+  /****************************************************************************
+  * Gets the seed.
+  ****************************************************************************/
+  public long getSeed()
+  {
+    return _Seed;
+  }
+
+  /****************************************************************************
+  * Gets the epoch milliseconds of the first hit.
+  ****************************************************************************/
+  public long getStartTime()
+  {
+    return _StartTime;
+  }
+
+  /****************************************************************************
+  * Gets the number of distinct visitors.
+  ****************************************************************************/
+  public int getVisitorCount()
+  {
+    return _VisitorCount;
+  }
+
+  /****************************************************************************
+  * Sets the average number of hits per second of simulated time.
+  ****************************************************************************/
+  public void setHitsPerSecond(long value)
+  {
+    if (value < 1)
+      throw new IllegalArgumentException("There must be at least one hit per second.");
+
+    _HitsPerSecond = value;
+  }
+
+  /****************************************************************************
+  * Sets the share of rows that are malformed, between 0 and 1.
+  ****************************************************************************/
+  public void setMalformedRate(double value)
+  {
+    if (value < 0 || value > 1)
+      throw new IllegalArgumentException("The malformed rate must be between 0 and 1.");
+
+    _MalformedRate = value;
+  }
+
+  /****************************************************************************
+  * Sets the mean number of hits in a session.
+  ****************************************************************************/
+  public void setMeanSessionLength(double value)
+  {
+    if (value < 1)
+      throw new IllegalArgumentException("The mean session length must be at least 1.");
+
+    _MeanSessionLength = value;
+    reset();
+  }
+
+  /****************************************************************************
+  * Sets the number of distinct pages.
+  ****************************************************************************/
+  public void setPageCount(int value)
+  {
+    if (value < HEAD_PAGES.length)
+      throw new IllegalArgumentException("There must be at least " + HEAD_PAGES.length + " pages.");
+
+    _PageCount = value;
+    reset();
+  }
+
+  /****************************************************************************
+  * Sets the epoch milliseconds of the first hit.
+  ****************************************************************************/
+  public void setStartTime(long value)
+  {
+    _StartTime = value;
+    reset();
+  }
+
+  /****************************************************************************
+  * Sets the number of distinct visitors.
+  ****************************************************************************/
+  public void setVisitorCount(int value)
+  {
+    if (value < 1)
+      throw new IllegalArgumentException("There must be at least one visitor.");
+
+    _VisitorCount = value;
+    reset();
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a generator with the default seed.
+  ****************************************************************************/
+  public SyntheticLogGenerator()
+  {
+    this(DEFAULT_SEED);
+  }
+
+  /****************************************************************************
+  * Initializes a generator with the given seed.
+  ****************************************************************************/
+  public SyntheticLogGenerator(long seed)
+  {
+    _Seed = seed;
+    _Random = new Random(seed);
+    for (int index = 0; index < OPEN_SESSIONS; index++)
+      _Sessions[index] = new Session();
+
+    reset();
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Starts the generator over from the first row.
+  ****************************************************************************/
+  public void reset()
+  {
+    _Random.setSeed(_Seed);
+    _Clock = _StartTime;
+    if (_Pages == null || _Pages.getSize() != _PageCount)
+      _Pages = new ZipfDistribution(_PageCount, 1.0);
+    if (_Visitors == null || _Visitors.getSize() != _VisitorCount)
+      _Visitors = new ZipfDistribution(_VisitorCount, 0.8);
+
+    for (Session session : _Sessions)
+      startSession(session);
+  }
+
+  /****************************************************************************
+  * Builds the next Omniture hit_data row, without a line terminator. The
+  * returned buffer is reused by the next call.
+  ****************************************************************************/
+  public CharSequence nextOmnitureRow()
+  {
+    Session session = nextHit();
+    StringBuilder row = _Row;
+    row.setLength(0);
+
+    int malformation = nextMalformation();
+    int columnCount = (malformation == 1) ? 1 + _Random.nextInt(COLUMN_PAGE_SEQUENCE) : OMNITURE_COLUMNS;
+    for (int column = 0; column < columnCount; column++)
+    {
+      if (column > 0)
+        row.append('\t');
+
+      switch (column)
+      {
+        case COLUMN_HIT_DATE:
+          if (malformation == 2)
+            row.append("0000-00-00 00:00:00");
+          else
+            appendDateTime(row, _Clock, ' ');
+          break;
+        case COLUMN_IP_ADDRESS:
+          if (malformation == 3)
+            row.append("999.").append(_Random.nextInt(1000)).append(".0.1");
+          else
+            appendIpAddress(row, session);
+          break;
+        case COLUMN_PAGE_URL:
+          appendPagePath(row.append("http://www.example.com/"), session.page);
+          appendQueryString(row.append('?'), session);
+          break;
+        case COLUMN_PAGE_NAME:
+          appendPageName(row, session.page);
+          break;
+        case COLUMN_SECTION:
+          row.append(getSection(session.page));
+          break;
+        case COLUMN_CATEGORY:
+          row.append(session.intent);
+          break;
+        case COLUMN_YEAR:
+          row.append(2014);
+          break;
+        case COLUMN_ZIP_CODE:
+          row.append(session.zipCode);
+          break;
+        case COLUMN_STATE:
+        case COLUMN_GEOSTATE:
+          row.append(STATES[session.state]);
+          break;
+        case COLUMN_COUNTY:
+          row.append("County ").append(session.county);
+          break;
+        case COLUMN_TRAFFIC_SOURCE:
+          row.append(TRAFFIC_SOURCES[session.trafficSource]);
+          break;
+        case COLUMN_SESSION_ID:
+          row.append(Long.toHexString(session.sessionId));
+          break;
+        case COLUMN_REFERER:
+          row.append(REFERERS[session.referer]);
+          break;
+        case COLUMN_USER_AGENT:
+          row.append(USER_AGENTS[session.userAgent]);
+          break;
+        case COLUMN_VISIT_NUMBER:
+          row.append(session.visitNumber);
+          break;
+        case COLUMN_PAGE_SEQUENCE:
+          if (malformation == 4)
+            row.append("n/a");
+          else
+            row.append(session.pageSequence);
+          break;
+        case COLUMN_GEOCITY:
+          row.append("City ").append(session.city);
+          break;
+        default:
+          //Filler columns the jobs don't read, mostly short or empty
+          if (_Random.nextInt(3) > 0)
+            row.append(_Random.nextInt(10000));
+      }
+    }
+
+    return row;
+  }
+
+  /****************************************************************************
+  * Builds the next W3C IIS log line, without a line terminator. The returned
+  * buffer is reused by the next call.
+  ****************************************************************************/
+  public CharSequence nextIisRow()
+  {
+    Session session = nextHit();
+    StringBuilder row = _Row;
+    row.setLength(0);
+
+    int malformation = nextMalformation();
+    if (malformation == 1)
+    {
+      //A line cut off mid-write
+      appendDateTime(row, _Clock, ' ');
+      row.append(" 10.0.0.1 GET /");
+      return row;
+    }
+
+    //date time s-ip cs-method cs-uri-stem cs-uri-query s-port cs-username
+    if (malformation == 2)
+      row.append("0000-00-00 00:00:00");
+    else
+      appendDateTime(row, _Clock, ' ');
+
+    row.append(" 10.0.0.").append(1 + (int)(session.sessionId & 3));
+    appendPagePath(row.append(_Random.nextInt(10) == 0 ? " POST /" : " GET /"), session.page);
+    row.append(' ');
+    if (session.pageSequence == 1 || _Random.nextBoolean())
+      appendQueryString(row, session);
+    else
+      row.append('-');
+
+    row.append(" 80 - ");
+
+    //c-ip cs(User-Agent) cs(Referer)
+    if (malformation == 3)
+      row.append("999.").append(_Random.nextInt(1000)).append(".0.1");
+    else
+      appendIpAddress(row, session);
+
+    row.append(' ');
+    String userAgent = USER_AGENTS[session.userAgent];
+    for (int index = 0; index < userAgent.length(); index++)
+      row.append(userAgent.charAt(index) == ' ' ? '+' : userAgent.charAt(index));
+
+    row.append(' ');
+    String referer = REFERERS[session.referer];
+    row.append(referer.length() > 0 && session.pageSequence == 1 ? referer : "-");
+
+    //sc-status sc-substatus sc-win32-status sc-bytes time-taken
+    int status = _Random.nextInt(50);
+    row.append(status == 0 ? " 404 0 2 " : (status == 1 ? " 500 0 0 " : " 200 0 0 "));
+    if (malformation == 4)
+      row.append("n/a");
+    else
+      row.append(1000 + _Random.nextInt(80000));
+
+    row.append(' ').append(15 + (int)(-Math.log(1 - _Random.nextDouble()) * 120));
+    return row;
+  }
+
+  /****************************************************************************
+  * Writes Omniture hit_data rows to the writer.
+  ****************************************************************************/
+  public void writeOmniture(Writer output, long rows) throws IOException
+  {
+    for (long row = 0; row < rows; row++)
+    {
+      output.append(nextOmnitureRow());
+      output.write('\n');
+    }
+  }
+
+  /****************************************************************************
+  * Writes W3C IIS log lines to the writer.
+  ****************************************************************************/
+  public void writeIis(Writer output, long rows) throws IOException
+  {
+    for (long row = 0; row < rows; row++)
+    {
+      output.append(nextIisRow());
+      output.write('\n');
+    }
+  }
+
+  /****************************************************************************
+  * The entry point.
+  ****************************************************************************/
+  public static void main(String[] args) throws Exception
+  {
+    Configuration configuration = new Configuration();
+    GenericOptionsParser hadoopOptions = new GenericOptionsParser(configuration, args);
+    String[] appArguments = hadoopOptions.getRemainingArgs();
+
+    if (appArguments.length < 3 || (!appArguments[0].equalsIgnoreCase("omniture") && !appArguments[0].equalsIgnoreCase("iis")))
+    {
+      System.err.println("Usage: SyntheticLogGenerator <omniture|iis> <output path> <rows> [-seed n] [-malformed rate] [-pages n] [-visitors n] [-sessionlength n] [-hitspersecond n]");
+      return;
+    }
+
+    List<String> options = Arrays.asList(appArguments);
+    SyntheticLogGenerator generator = new SyntheticLogGenerator(Long.parseLong(getOption(options, "-seed", String.valueOf(DEFAULT_SEED))));
+    generator.setMalformedRate(Double.parseDouble(getOption(options, "-malformed", String.valueOf(generator.getMalformedRate()))));
+    generator.setPageCount(Integer.parseInt(getOption(options, "-pages", String.valueOf(generator.getPageCount()))));
+    generator.setVisitorCount(Integer.parseInt(getOption(options, "-visitors", String.valueOf(generator.getVisitorCount()))));
+    generator.setMeanSessionLength(Double.parseDouble(getOption(options, "-sessionlength", String.valueOf(generator.getMeanSessionLength()))));
+    generator.setHitsPerSecond(Long.parseLong(getOption(options, "-hitspersecond", String.valueOf(generator.getHitsPerSecond()))));
+
+    //Stream straight to the file system so memory use doesn't grow with the
+    //number of rows
+    Path outputPath = new Path(appArguments[1]);
+    FileSystem fileSystem = outputPath.getFileSystem(configuration);
+    OutputStream outputStream = fileSystem.create(outputPath, true);
+    if (outputPath.getName().endsWith(".gz"))
+      outputStream = new GZIPOutputStream(outputStream, WRITE_BUFFER_SIZE);
+
+    Writer output = new BufferedWriter(new OutputStreamWriter(outputStream, UTF8), WRITE_BUFFER_SIZE);
+    try
+    {
+      long rows = Long.parseLong(appArguments[2]);
+      if (appArguments[0].equalsIgnoreCase("omniture"))
+        generator.writeOmniture(output, rows);
+      else
+        generator.writeIis(output, rows);
+    }
+    finally
+    {
+      output.close();
+    }
+  }
+
+  //###########################################################################
+  // Private Methods
+  //###########################################################################
+  /****************************************************************************
+  * Appends epoch milliseconds (from 1970 onward) as "yyyy-MM-dd" and
+  * "HH:mm:ss" in UTC with the separator between them; civil dates are worked
+  * out arithmetically since SimpleDateFormat would dominate the cost of a row.
+  ****************************************************************************/
+  private static void appendDateTime(StringBuilder row, long epochMillis, char separator)
+  {
+    long seconds = epochMillis / 1000;
+    long days = seconds / 86400;
+    int secondOfDay = (int)(seconds - days * 86400);
+
+    long shifted = days + 719468;
+    long era = shifted / 146097;
+    long dayOfEra = shifted - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long monthIndex = (5 * dayOfYear + 2) / 153;
+    int day = (int)(dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+    int month = (int)(monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    row.append(year).append('-');
+    appendTwoDigits(row, month).append('-');
+    appendTwoDigits(row, day).append(separator);
+    appendTwoDigits(row, secondOfDay / 3600).append(':');
+    appendTwoDigits(row, secondOfDay / 60 % 60).append(':');
+    appendTwoDigits(row, secondOfDay % 60);
+  }
+
+  /****************************************************************************
+  * Appends the session's visitor IP address.
+  ****************************************************************************/
+  private static void appendIpAddress(StringBuilder row, Session session)
+  {
+    long hash = session.visitorHash;
+    if ((hash & 0xF) == 0)
+      row.append("2001:db8::").append(Long.toHexString((hash >>> 8) & 0xFFFF)).append(':').append(Long.toHexString((hash >>> 24) & 0xFFFF));
+    else
+      row.append("10.").append((hash >>> 8) & 0xFF).append('.').append((hash >>> 16) & 0xFF).append('.').append((hash >>> 24) & 0xFF);
+  }
+
+  /****************************************************************************
+  * Appends the name of the page.
+  ****************************************************************************/
+  private static void appendPageName(StringBuilder row, int page)
+  {
+    if (page < HEAD_PAGES.length)
+      row.append(HEAD_PAGES[page]);
+    else
+      row.append("listing-").append(page);
+  }
+
+  /****************************************************************************
+  * Appends the path of the page: its section and name.
+  ****************************************************************************/
+  private static void appendPagePath(StringBuilder row, int page)
+  {
+    row.append(getSection(page)).append('/');
+    appendPageName(row, page);
+  }
+
+  /****************************************************************************
+  * Appends the page's query string, without the leading '?'.
+  ****************************************************************************/
+  private static void appendQueryString(StringBuilder row, Session session)
+  {
+    row.append("Intent=").append(session.intent);
+    if (session.campaign >= 0)
+    {
+      row.append("&utm_source=").append(session.trafficSource == 2 ? "google" : "facebook");
+      row.append("&utm_medium=").append(session.trafficSource == 2 ? "cpc" : "social");
+      row.append("&utm_campaign=").append(CAMPAIGNS[session.campaign]);
+    }
+  }
+
+  /****************************************************************************
+  * Appends a number from 0 to 99 as two digits.
+  ****************************************************************************/
+  private static StringBuilder appendTwoDigits(StringBuilder row, int value)
+  {
+    return row.append((char)('0' + value / 10)).append((char)('0' + value % 10));
+  }
+
+  /****************************************************************************
+  * Gets the value of an option following its flag, or the default if the flag
+  * isn't present.
+  ****************************************************************************/
+  private static String getOption(List<String> options, String flag, String defaultValue)
+  {
+    int index = options.indexOf(flag);
+    return (index > -1 && index + 1 < options.size()) ? options.get(index + 1) : defaultValue;
+  }
+
+  /****************************************************************************
+  * Gets the site section the page belongs to.
+  ****************************************************************************/
+  private static String getSection(int page)
+  {
+    return (page < HEAD_PAGES.length) ? HEAD_SECTIONS[page] : "listings";
+  }
+
+  /****************************************************************************
+  * Scrambles a long so consecutive inputs give unrelated outputs (the
+  * SplitMix64 finalizer).
+  ****************************************************************************/
+  private static long mix(long value)
+  {
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+
+  /****************************************************************************
+  * Advances the clock and picks the open session the next hit belongs to,
+  * moving it on to its next page; a finished session is replaced with a new
+  * one.
+  ****************************************************************************/
+  private Session nextHit()
+  {
+    _Clock += (long)(-Math.log(1 - _Random.nextDouble()) * 1000 / _HitsPerSecond);
+
+    Session session = _Sessions[_Random.nextInt(OPEN_SESSIONS)];
+    if (session.pageSequence >= session.length)
+      startSession(session);
+
+    session.pageSequence++;
+    session.page = _Pages.sample(_Random);
+    return session;
+  }
+
+  /****************************************************************************
+  * Decides whether the next row is malformed and how: 0 is a good row, 1 is
+  * truncated, 2 has a bad date, 3 a bad IP address and 4 a bad number.
+  ****************************************************************************/
+  private int nextMalformation()
+  {
+    return (_Random.nextDouble() < _MalformedRate) ? 1 + _Random.nextInt(4) : 0;
+  }
+
+  /****************************************************************************
+  * Starts a new session for a visitor; everything that stays the same for the
+  * whole visit is drawn here.
+  ****************************************************************************/
+  private void startSession(Session session)
+  {
+    //A visitor always has the same address, user agent and location
+    int visitor = _Visitors.sample(_Random);
+    long hash = mix(_Seed ^ mix(visitor));
+    session.visitorHash = hash;
+    session.userAgent = _UserAgents.sample((hash >>> 11) * 0x1.0p-53);
+    session.state = (int)((hash >>> 40) % STATES.length);
+    session.zipCode = 10000 + (int)((hash >>> 20) % 89999);
+    session.county = (int)((hash >>> 4) % 250);
+    session.city = (int)((hash >>> 48) % 1000);
+
+    session.sessionId = _Random.nextLong();
+    session.visitNumber = 1 + (int)(-Math.log(1 - _Random.nextDouble()) * 1.5);
+    session.trafficSource = _TrafficSources.sample(_Random);
+    session.referer = (session.trafficSource == 0) ? 0 : 1 + _Referers.sample(_Random) % (REFERERS.length - 1);
+    session.campaign = (session.trafficSource == 2 || session.trafficSource == 4) ? _Random.nextInt(CAMPAIGNS.length) : -1;
+    session.intent = _Random.nextInt(3) == 0 ? "Buy" : "Rent";
+
+    //Geometric session lengths with the configured mean
+    double continuation = 1 - 1 / _MeanSessionLength;
+    session.length = (continuation <= 0) ? 1 : 1 + (int)Math.min(MAXIMUM_SESSION_LENGTH - 1, Math.log(1 - _Random.nextDouble()) / Math.log(continuation));
+    session.pageSequence = 0;
+  }
+
+  //###########################################################################
+  // Nested Classes
+  //###########################################################################
+  /****************************************************************************
+  * An open session; instances are reused for each new session.
+  ****************************************************************************/
+  private static final class Session
+  {
+    int campaign;
+    int city;
+    int county;
+    String intent;
+    int length;
+    int page;
+    int pageSequence;
+    int referer;
+    long sessionId;
+    int state;
+    int trafficSource;
+    int userAgent;
+    int visitNumber;
+    long visitorHash;
+    int zipCode;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package hadoop.tools;
+
+import java.util.Random;
+
+/******************************************************************************
+* Samples ranks 0..n-1 where the probability of rank k is proportional to
+* 1 / (k + 1)^exponent, the long-tailed shape page views, referers and user
+* agents follow in web traffic. The cumulative distribution is computed once
+* and sampled with a binary search, so memory is one double per rank.
+******************************************************************************/
+public class ZipfDistribution
+{
+  //Property variable declarations
+  private final double[] _Cumulative;
+  private final double _Exponent;
+
+  //###########################################################################
+  // Public Properties
+  //###########################################################################
+  /****************************************************************************
+  * Gets the exponent; 0 is uniform, larger values are more skewed.
+  ****************************************************************************/
+  public double getExponent()
+  {
+    return _Exponent;
+  }
+
+  /****************************************************************************
+  * Gets the number of ranks.
+  ****************************************************************************/
+  public int getSize()
+  {
+    return _Cumulative.length;
+  }
+
+  //###########################################################################
+  // Constructors
+  //###########################################################################
+  /****************************************************************************
+  * Initializes a distribution over the given number of ranks.
+  ****************************************************************************/
+  public ZipfDistribution(int size, double exponent)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException("A Zipf distribution needs at least one rank.");
+    else if (exponent < 0)
+      throw new IllegalArgumentException("The Zipf exponent can't be negative.");
+
+    _Exponent = exponent;
+    _Cumulative = new double[size];
+
+    double total = 0;
+    for (int rank = 0; rank < size; rank++)
+    {
+      total += 1 / Math.pow(rank + 1, exponent);
+      _Cumulative[rank] = total;
+    }
+
+    for (int rank = 0; rank < size; rank++)
+      _Cumulative[rank] /= total;
+  }
+
+  //###########################################################################
+  // Public Methods
+  //###########################################################################
+  /****************************************************************************
+  * Gets the probability of the rank.
+  ****************************************************************************/
+  public double probability(int rank)
+  {
+    return (rank == 0) ? _Cumulative[0] : _Cumulative[rank] - _Cumulative[rank - 1];
+  }
+
+  /****************************************************************************
+  * Draws a rank using the random number generator.
+  ****************************************************************************/
+  public int sample(Random random)
+  {
+    return sample(random.nextDouble());
+  }
+
+  /****************************************************************************
+  * Maps a uniform value in [0, 1) to a rank; the same value always gives the
+  * same rank, so a hash can be used to pick a stable rank for a key.
+  ****************************************************************************/
+  public int sample(double uniform)
+  {
+    int low = 0;
+    int high = _Cumulative.length - 1;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (_Cumulative[middle] > uniform)
+        high = middle;
+      else
+        low = middle + 1;
+    }
+
+    return low;
+  }
+}